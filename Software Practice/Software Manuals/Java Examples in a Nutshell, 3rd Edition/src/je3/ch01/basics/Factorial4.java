@@ -34,11 +34,25 @@ public class Factorial4 {
 		table.add(BigInteger.valueOf(1));
 	}
 
+	/**
+	 * Not in the manual: values above this are not kept in the table but computed
+	 * by {@link ParallelFactorial}, which is far faster for large x and keeps only
+	 * a few checkpoints instead of every value.
+	 */
+	static final int TABLE_LIMIT = 1000;
+
 	/** The factorial() method, using BigIntegers cached in a ArrayList */
-	public static synchronized BigInteger factorial(int x) {
+	public static BigInteger factorial(int x) {
 		if (x < 0) {
 			throw new IllegalArgumentException("x must be non-negative.");
 		}
+		if (x > TABLE_LIMIT) {
+			return ParallelFactorial.shared().factorial(x);
+		}
+		return fromTable(x);
+	}
+
+	private static synchronized BigInteger fromTable(int x) {
 		for (int size = table.size(); size <= x; size++) {
 			BigInteger lastfact = (BigInteger) table.get(size - 1);
 			BigInteger nextfact = lastfact.multiply(BigInteger.valueOf(size));
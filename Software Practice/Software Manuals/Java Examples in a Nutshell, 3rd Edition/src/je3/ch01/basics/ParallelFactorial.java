@@ -0,0 +1,305 @@
+package je3.ch01.basics;
+
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Not in the manual. Computes large factorials quickly, for {@link Factorial4}
+ * and anyone else who needs them.
+ * <p>
+ * Multiplying 1, 2, 3, ... in turn, as Factorial4 does, makes each step a
+ * multiplication of a huge number by a small one, n of them in all. Binary
+ * splitting instead multiplies the two halves of the range, each computed the
+ * same way, so most multiplications are between numbers of similar size, where
+ * BigInteger's Karatsuba and Toom-Cook methods pay off. The halves of large
+ * ranges are computed in parallel on a fork-join pool.
+ * <p>
+ * Results are kept in a small cache of checkpoints rather than every
+ * factorial: one slot for each quarter of a power of two, holding the latest
+ * factorial computed in that range, and none larger than a bit limit. n! is
+ * then computed from the largest checkpoint m! with m between n/2 and n, as
+ * m! times the product of m+1..n. Slots are replaced with plain atomic writes,
+ * so callers never wait on one another.
+ */
+public class ParallelFactorial {
+	// Ranges this short are multiplied out in a long, a word at a time.
+	static final int LEAF = 32;
+	// Ranges this long are split across threads.
+	static final int PARALLEL = 2048;
+	// Four cache slots for each power of two.
+	static final int SUB_BITS = 2;
+
+	static final class Checkpoint {
+		final int n;
+		final BigInteger value;
+
+		Checkpoint(int n, BigInteger value) {
+			this.n = n;
+			this.value = value;
+		}
+	}
+
+	private static final ParallelFactorial SHARED = new ParallelFactorial();
+
+	private final ForkJoinPool pool;
+	private final long maxCachedBits;
+	private final AtomicReferenceArray<Checkpoint> checkpoints = new AtomicReferenceArray<Checkpoint>(
+			(32 + 1) << SUB_BITS);
+
+	/** Uses the common fork-join pool, and caches factorials of up to 64M bits. */
+	public ParallelFactorial() {
+		this(ForkJoinPool.commonPool(), 64L << 20);
+	}
+
+	public ParallelFactorial(ForkJoinPool pool, long maxCachedBits) {
+		this.pool = pool;
+		this.maxCachedBits = maxCachedBits;
+	}
+
+	/** An instance shared by the whole program. */
+	public static ParallelFactorial shared() {
+		return SHARED;
+	}
+
+	/** Returns n!. */
+	public BigInteger factorial(int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("n must be non-negative.");
+		}
+		Checkpoint start = nearestBelow(n);
+		if (start != null && start.n == n) {
+			return start.value;
+		}
+		BigInteger result;
+		if (start == null) {
+			result = product(0, n);
+		} else {
+			result = multiply(start.value, product(start.n, n));
+		}
+		remember(n, result);
+		return result;
+	}
+
+	/**
+	 * Returns the factorial of each of ns, in the same order. The products of the
+	 * ranges between successive values are computed together, and then each
+	 * factorial is the one before it times the next range.
+	 */
+	public BigInteger[] factorials(int... ns) {
+		int[] sorted = ns.clone();
+		Arrays.sort(sorted);
+		if (sorted.length > 0 && sorted[0] < 0) {
+			throw new IllegalArgumentException("ns must all be non-negative.");
+		}
+		BigInteger[] ranges = new BigInteger[sorted.length];
+		Checkpoint start = sorted.length == 0 ? null : nearestBelow(sorted[0]);
+		int from = start == null ? 0 : start.n;
+		RecursiveTask<?>[] tasks = new RecursiveTask<?>[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			int lo = i == 0 ? from : sorted[i - 1];
+			tasks[i] = new Product(lo, sorted[i]);
+		}
+		pool.invoke(new RecursiveTask<Void>() {
+			protected Void compute() {
+				invokeAll(tasks);
+				return null;
+			}
+		});
+		for (int i = 0; i < sorted.length; i++) {
+			ranges[i] = (BigInteger) tasks[i].join();
+		}
+		BigInteger[] sortedResults = new BigInteger[sorted.length];
+		BigInteger running = start == null ? BigInteger.ONE : start.value;
+		for (int i = 0; i < sorted.length; i++) {
+			running = multiply(running, ranges[i]);
+			sortedResults[i] = running;
+		}
+		if (sorted.length > 0) {
+			remember(sorted[sorted.length - 1], running);
+		}
+		BigInteger[] results = new BigInteger[ns.length];
+		for (int i = 0; i < ns.length; i++) {
+			results[i] = sortedResults[Arrays.binarySearch(sorted, ns[i])];
+		}
+		return results;
+	}
+
+	/** Returns the product of the integers lo+1 through hi, or 1 if hi <= lo. */
+	public BigInteger product(int lo, int hi) {
+		if (hi - lo <= PARALLEL) {
+			return sequentialProduct(lo, hi);
+		}
+		return pool.invoke(new Product(lo, hi));
+	}
+
+	static final class Product extends RecursiveTask<BigInteger> {
+		private static final long serialVersionUID = -7384232353197311596L;
+		private final int lo, hi;
+
+		Product(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected BigInteger compute() {
+			if (hi - lo <= PARALLEL) {
+				return sequentialProduct(lo, hi);
+			}
+			int mid = (int) (((long) lo + hi) >>> 1);
+			Product low = new Product(lo, mid);
+			low.fork();
+			BigInteger high = new Product(mid, hi).compute();
+			return multiply(low.join(), high);
+		}
+	}
+
+	static BigInteger sequentialProduct(int lo, int hi) {
+		if (hi - lo <= LEAF) {
+			return leafProduct(lo, hi);
+		}
+		int mid = (int) (((long) lo + hi) >>> 1);
+		return multiply(sequentialProduct(lo, mid), sequentialProduct(mid, hi));
+	}
+
+	// Multiplies in a long until the next factor would overflow it.
+	static BigInteger leafProduct(int lo, int hi) {
+		BigInteger result = BigInteger.ONE;
+		long product = 1;
+		for (long i = Math.max(lo, 0) + 1; i <= hi; i++) {
+			if (product > Long.MAX_VALUE / i) {
+				result = result.multiply(BigInteger.valueOf(product));
+				product = i;
+			} else {
+				product *= i;
+			}
+		}
+		return result.multiply(BigInteger.valueOf(product));
+	}
+
+	// BigInteger.parallelMultiply() where the JVM has it (Java 19 and later).
+	private static final Method PARALLEL_MULTIPLY = findParallelMultiply();
+	private static final int PARALLEL_MULTIPLY_BITS = 1 << 20;
+
+	private static Method findParallelMultiply() {
+		try {
+			return BigInteger.class.getMethod("parallelMultiply", BigInteger.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	static BigInteger multiply(BigInteger a, BigInteger b) {
+		if (PARALLEL_MULTIPLY != null && a.bitLength() > PARALLEL_MULTIPLY_BITS
+				&& b.bitLength() > PARALLEL_MULTIPLY_BITS) {
+			try {
+				return (BigInteger) PARALLEL_MULTIPLY.invoke(a, b);
+			} catch (ReflectiveOperationException e) {
+				// Fall through to the ordinary multiply.
+			}
+		}
+		return a.multiply(b);
+	}
+
+	// The cache slot for n: which quarter of which power of two it is in.
+	static int slot(int n) {
+		if (n < 1 << SUB_BITS) {
+			return n;
+		}
+		int shift = 31 - Integer.numberOfLeadingZeros(n) - SUB_BITS;
+		return ((shift + 1) << SUB_BITS) + ((n >>> shift) & ((1 << SUB_BITS) - 1));
+	}
+
+	// The checkpoint with the largest n' <= n, if that is at least n/2.
+	Checkpoint nearestBelow(int n) {
+		Checkpoint c = checkpoints.get(slot(n));
+		if (c != null && c.n <= n) {
+			return c;
+		}
+		// Slots are in order of n, so the first checkpoint below is the largest.
+		for (int s = slot(n) - 1; s >= slot(n / 2); s--) {
+			c = checkpoints.get(s);
+			if (c != null) {
+				return c.n >= n / 2 ? c : null;
+			}
+		}
+		return null;
+	}
+
+	void remember(int n, BigInteger value) {
+		if (n >= LEAF && value.bitLength() <= maxCachedBits) {
+			checkpoints.set(slot(n), new Checkpoint(n, value));
+		}
+	}
+
+	/** Empties the cache. */
+	public void clear() {
+		for (int i = 0; i < checkpoints.length(); i++) {
+			checkpoints.set(i, null);
+		}
+	}
+
+	/**
+	 * Times factorials of 10^3, 10^5 and 10^6: multiplied out one number at a
+	 * time as Factorial4 does, with binary splitting on one thread, on the
+	 * fork-join pool, from the cache, and from a nearby checkpoint.
+	 * <p>
+	 * Usage: java je3.ch01.basics.ParallelFactorial [-slow]. Without -slow, the
+	 * one-at-a-time loop is skipped at 10^6, where it takes many minutes.
+	 */
+	public static void main(String[] args) {
+		boolean slow = args.length > 0 && args[0].equals("-slow");
+		System.out.println("Fork-join parallelism: " + ForkJoinPool.commonPool().getParallelism());
+		for (int n : new int[] { 1000, 100000, 1000000 }) {
+			System.out.println("n = " + n);
+			BigInteger expected = null;
+			if (n <= 100000 || slow) {
+				long start = System.nanoTime();
+				BigInteger f = BigInteger.ONE;
+				for (int i = 2; i <= n; i++) {
+					f = f.multiply(BigInteger.valueOf(i));
+				}
+				report("one at a time", start);
+				expected = f;
+			}
+			long start = System.nanoTime();
+			BigInteger sequential = sequentialProduct(0, n);
+			report("binary splitting, 1 thread", start);
+
+			ParallelFactorial engine = new ParallelFactorial();
+			start = System.nanoTime();
+			BigInteger parallel = engine.factorial(n);
+			report("binary splitting, fork-join", start);
+			start = System.nanoTime();
+			engine.factorial(n);
+			report("cached", start);
+			start = System.nanoTime();
+			BigInteger next = engine.factorial(n + n / 100);
+			report("n + 1% from checkpoint", start);
+
+			if ((expected != null && !expected.equals(parallel)) || !sequential.equals(parallel)
+					|| !next.equals(sequentialProduct(0, n + n / 100))) {
+				throw new AssertionError("results differ at " + n);
+			}
+			System.out.println("  " + parallel.bitLength() + " bits");
+		}
+
+		ParallelFactorial engine = new ParallelFactorial();
+		int[] batch = { 50000, 10, 20000, 30000, 0, 40000 };
+		long start = System.nanoTime();
+		BigInteger[] results = engine.factorials(batch);
+		report("batch of " + batch.length, start);
+		for (int i = 0; i < batch.length; i++) {
+			if (!results[i].equals(sequentialProduct(0, batch[i]))) {
+				throw new AssertionError("batch result differs at " + batch[i]);
+			}
+		}
+	}
+
+	private static void report(String what, long start) {
+		System.out.printf("  %-30s %,10.1f ms%n", what, (System.nanoTime() - start) / 1e6);
+	}
+}
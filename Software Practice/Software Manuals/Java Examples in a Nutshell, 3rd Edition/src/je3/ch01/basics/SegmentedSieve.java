@@ -0,0 +1,377 @@
+package je3.ch01.basics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Not in the manual. A Sieve of Eratosthenes for ranges of long values, up to
+ * 10^12 and beyond, that never holds more than a few small segments.
+ * <p>
+ * {@link Sieve} keeps a boolean for every number up to its limit: a gigabyte
+ * for 10^9, and it cannot reach past Integer.MAX_VALUE. Here only odd numbers
+ * are represented, one bit each, and the range is sieved a segment at a time,
+ * each segment small enough (128KB by default) to stay in the processor's L2
+ * cache while the multiples of every prime up to the square root of the range
+ * are struck out of it. Each thread sieves a run of consecutive segments,
+ * carrying the next multiple of each prime from one segment to the next, so
+ * it needs no division after the first.
+ * <p>
+ * {@link #count} counts primes on all cores. {@link #primes} returns them as
+ * an ordered LongStream, sieving each segment only when it is reached; made
+ * parallel, the stream splits between runs of segments.
+ */
+public class SegmentedSieve {
+	// The number of odd numbers in each segment: 2^20 bits, or 128KB.
+	static final int DEFAULT_SEGMENT_BITS = 1 << 20;
+
+	private final int segmentBits;
+
+	public SegmentedSieve() {
+		this(DEFAULT_SEGMENT_BITS);
+	}
+
+	/** Uses segments of segmentBytes bytes, which should fit in the L2 cache. */
+	public SegmentedSieve(int segmentBytes) {
+		if (segmentBytes < 8 || segmentBytes > 1 << 27) {
+			throw new IllegalArgumentException("segment size: " + segmentBytes);
+		}
+		this.segmentBits = segmentBytes / 8 * 64;
+	}
+
+	/** Returns the odd primes up to and including max, with a simple sieve. */
+	static int[] smallPrimes(int max) {
+		// composite[i] is for the odd number 2i + 1.
+		boolean[] composite = new boolean[max / 2 + 1];
+		int count = 0;
+		for (int i = 1; 2 * i + 1 <= max; i++) {
+			if (!composite[i]) {
+				count++;
+				long p = 2 * i + 1;
+				for (long j = p * p / 2; j < composite.length; j += p) {
+					composite[(int) j] = true;
+				}
+			}
+		}
+		int[] primes = new int[count];
+		for (int i = 1, n = 0; n < count; i++) {
+			if (!composite[i]) {
+				primes[n++] = 2 * i + 1;
+			}
+		}
+		return primes;
+	}
+
+	// The odd primes needed to sieve numbers below hi.
+	static int[] basePrimes(long hi) {
+		long root = (long) Math.sqrt((double) hi);
+		while (root * root < hi) {
+			root++;
+		}
+		if (root > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too large: " + hi);
+		}
+		return smallPrimes((int) root);
+	}
+
+	/**
+	 * The geometry of a range [lo, hi): segments of span numbers each, starting
+	 * at the even number at or below lo.
+	 */
+	final class Range {
+		final long lo, hi, start, span;
+		final int segments;
+		final int[] primes;
+
+		Range(long lo, long hi) {
+			if (lo < 0 || hi < lo) {
+				throw new IllegalArgumentException(lo + ".." + hi);
+			}
+			this.lo = lo;
+			this.hi = hi;
+			start = lo & ~1L;
+			span = 2L * segmentBits;
+			long n = (hi - start + span - 1) / span;
+			if (n > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Range too long: " + lo + ".." + hi);
+			}
+			segments = (int) n;
+			primes = basePrimes(hi);
+		}
+
+		long segmentStart(int segment) {
+			return start + segment * span;
+		}
+
+		long segmentEnd(int segment) {
+			return Math.min(start + (segment + 1) * span, hi);
+		}
+
+		// Is 2, the one even prime, in the range?
+		boolean hasTwo() {
+			return lo <= 2 && 2 < hi;
+		}
+	}
+
+	/**
+	 * Sieves consecutive segments of a range. words holds one bit for each odd
+	 * number of the current segment, set if it is composite; next holds the next
+	 * odd multiple of each prime still to strike.
+	 */
+	static final class Cursor {
+		final Range range;
+		final long[] words;
+		final long[] next;
+		int active; // primes[0..active) are in use
+		long segmentStart;
+		int bits;
+
+		Cursor(Range range, int segmentBits) {
+			this.range = range;
+			words = new long[segmentBits / 64];
+			next = new long[range.primes.length];
+		}
+
+		void sieve(int segment) {
+			long lo = range.segmentStart(segment), end = range.segmentEnd(segment);
+			segmentStart = lo;
+			bits = (int) ((end - lo) >>> 1);
+			Arrays.fill(words, 0, (bits + 63) >>> 6, 0);
+			if (lo == 0) {
+				words[0] |= 1; // 1 is not prime
+			}
+			int[] primes = range.primes;
+			// Bring in primes whose squares are now in reach, starting at lo.
+			while (active < primes.length && (long) primes[active] * primes[active] < end) {
+				long p = primes[active];
+				long m = Math.max(p * p, (lo + p - 1) / p * p);
+				if ((m & 1) == 0) {
+					m += p;
+				}
+				next[active++] = m;
+			}
+			for (int i = 0; i < active; i++) {
+				int p = primes[i];
+				long m = next[i];
+				if (m < lo) {
+					// This cursor skipped segments; catch up with one division.
+					m = (lo + p - 1) / p * p;
+					if ((m & 1) == 0) {
+						m += p;
+					}
+				}
+				long j = (m - lo) >>> 1;
+				for (; j < bits; j += p) {
+					words[(int) (j >>> 6)] |= 1L << j;
+				}
+				next[i] = lo + 2 * j + 1;
+			}
+		}
+
+		// The number of primes among the odd numbers of the current segment.
+		int countOdd() {
+			int composites = 0, full = bits >>> 6;
+			for (int w = 0; w < full; w++) {
+				composites += Long.bitCount(words[w]);
+			}
+			if ((bits & 63) != 0) {
+				composites += Long.bitCount(words[full] | (-1L << bits));
+				composites -= 64 - (bits & 63);
+			}
+			return bits - composites;
+		}
+
+		// The index of the first prime bit at or after bit, or bits if there is none.
+		int nextPrimeBit(int bit) {
+			if (bit >= bits) {
+				return bits;
+			}
+			int w = bit >>> 6;
+			long clear = ~words[w] & (-1L << bit);
+			while (clear == 0) {
+				if (++w > (bits - 1) >>> 6) {
+					return bits;
+				}
+				clear = ~words[w];
+			}
+			return Math.min(bits, (w << 6) + Long.numberOfTrailingZeros(clear));
+		}
+	}
+
+	/** Returns the number of primes p with lo <= p < hi, sieving on all cores. */
+	public long count(long lo, long hi) {
+		if (hi <= 2 || hi <= lo) {
+			return 0;
+		}
+		Range range = new Range(lo, hi);
+		// A few runs per core, so that one slow run doesn't leave cores idle.
+		int runs = Math.min(range.segments, ForkJoinPool.getCommonPoolParallelism() * 4);
+		long odd = IntStream.range(0, runs).parallel().mapToLong(r -> {
+			Cursor cursor = new Cursor(range, segmentBits);
+			long n = 0;
+			for (int s = (int) ((long) range.segments * r / runs); s < (long) range.segments * (r + 1) / runs; s++) {
+				cursor.sieve(s);
+				n += cursor.countOdd();
+			}
+			return n;
+		}).sum();
+		return odd + (range.hasTwo() ? 1 : 0);
+	}
+
+	/**
+	 * Returns the number of primes in each of [lo, lo + step), [lo + step, lo +
+	 * 2 step), ..., with the last range ending at hi.
+	 */
+	public long[] counts(long lo, long hi, long step) {
+		if (step <= 0) {
+			throw new IllegalArgumentException("step: " + step);
+		}
+		long n = hi <= lo ? 0 : (hi - lo + step - 1) / step;
+		if (n > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many ranges: " + n);
+		}
+		long[] counts = new long[(int) n];
+		for (int i = 0; i < n; i++) {
+			long from = lo + i * step;
+			counts[i] = count(from, Math.min(from + step, hi));
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the primes p with lo <= p < hi, in order. Segments are sieved as
+	 * the stream reaches them; call parallel() to sieve runs of them at once.
+	 */
+	public LongStream primes(long lo, long hi) {
+		if (hi <= lo) {
+			return LongStream.empty();
+		}
+		Range range = new Range(lo, hi);
+		return StreamSupport.longStream(new Primes(range, 0, range.segments), false);
+	}
+
+	/** Passes each prime p with lo <= p < hi to action, in order. */
+	public void forEachPrime(long lo, long hi, LongConsumer action) {
+		primes(lo, hi).forEachOrdered(action);
+	}
+
+	/** Returns the largest prime at most max, or 0 if there is none. */
+	public long largestPrimeAtMost(long max) {
+		// Primes are never far apart at this scale, so look back a segment at a time.
+		for (long hi = max + 1; hi > 2; hi -= 2L * segmentBits) {
+			long lo = Math.max(0, hi - 2L * segmentBits);
+			long largest = primes(lo, hi).reduce(0, (a, b) -> b);
+			if (largest != 0) {
+				return largest;
+			}
+		}
+		return 0;
+	}
+
+	/** Splits into runs of segments, each sieved by a Cursor of its own. */
+	final class Primes implements Spliterator.OfLong {
+		private final Range range;
+		private int segment; // the next segment to sieve
+		private final int end;
+		private Cursor cursor;
+		private int bit; // the next bit of the current segment to look at
+		private boolean twoDone;
+
+		Primes(Range range, int from, int to) {
+			this.range = range;
+			segment = from;
+			end = to;
+			twoDone = from > 0 || !range.hasTwo();
+		}
+
+		public boolean tryAdvance(LongConsumer action) {
+			if (!twoDone) {
+				twoDone = true;
+				action.accept(2);
+				return true;
+			}
+			while (true) {
+				if (cursor != null) {
+					bit = cursor.nextPrimeBit(bit);
+					if (bit < cursor.bits) {
+						action.accept(cursor.segmentStart + 2L * bit++ + 1);
+						return true;
+					}
+				}
+				if (segment >= end) {
+					return false;
+				}
+				if (cursor == null) {
+					cursor = new Cursor(range, segmentBits);
+				}
+				cursor.sieve(segment++);
+				bit = 0;
+			}
+		}
+
+		public Spliterator.OfLong trySplit() {
+			if (cursor != null || end - segment < 2) {
+				return null;
+			}
+			int mid = (segment + end) >>> 1;
+			Primes first = new Primes(range, segment, mid);
+			first.twoDone = twoDone;
+			segment = mid;
+			twoDone = true;
+			return first;
+		}
+
+		public long estimateSize() {
+			// About one number in ln(x) is prime.
+			long numbers = Math.max(0, range.segmentEnd(end - 1) - range.segmentStart(segment));
+			return (long) (numbers / Math.max(1, Math.log(Math.max(range.hi, 3)))) + 1;
+		}
+
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+		}
+
+		public Comparator<? super Long> getComparator() {
+			return null; // natural order
+		}
+	}
+
+	/**
+	 * Finds the largest prime at most max and counts the primes up to max, as
+	 * Sieve does but for any long; then counts and lists primes near 10^12.
+	 * <p>
+	 * Usage: java je3.ch01.basics.SegmentedSieve [max]
+	 */
+	public static void main(String[] args) {
+		long max = args.length > 0 ? Long.parseLong(args[0]) : 1000000000L;
+		SegmentedSieve sieve = new SegmentedSieve();
+
+		long start = System.nanoTime();
+		long largest = sieve.largestPrimeAtMost(max);
+		System.out.printf("The largest prime less than or equal to %d is %d (%.1f ms)%n", max, largest,
+				(System.nanoTime() - start) / 1e6);
+
+		start = System.nanoTime();
+		long count = sieve.count(0, max + 1);
+		System.out.printf("There are %d primes up to %d (%.1f ms, %d threads)%n", count, max,
+				(System.nanoTime() - start) / 1e6, ForkJoinPool.getCommonPoolParallelism());
+
+		long top = 1000000000000L;
+		start = System.nanoTime();
+		long[] counts = sieve.counts(top - 100000000, top, 10000000);
+		System.out.printf("Primes in each 10^7 of the last 10^8 below 10^12 (%.1f ms):%n",
+				(System.nanoTime() - start) / 1e6);
+		for (long c : counts) {
+			System.out.print(" " + c);
+		}
+		System.out.println();
+		System.out.print("The first primes above 10^12:");
+		sieve.primes(top, top + 1000).limit(5).forEach(p -> System.out.print(" " + p));
+		System.out.println();
+	}
+}
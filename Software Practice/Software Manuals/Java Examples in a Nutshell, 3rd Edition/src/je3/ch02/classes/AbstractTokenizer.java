@@ -11,8 +11,6 @@
 package je3.ch02.classes;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 import je3.ch06.nio.ChannelTokenizer;
 
@@ -36,7 +34,7 @@ public abstract class AbstractTokenizer implements Tokenizer {
 	boolean tokenizeWords;
 	boolean testquotes;
 	Tokenizer.WordRecognizer wordRecognizer;
-	Map<String, Integer> keywordMap;
+	KeywordTable keywordTable;
 	String openquotes, closequotes;
 	boolean trackPosition;
 
@@ -179,14 +177,7 @@ public abstract class AbstractTokenizer implements Tokenizer {
 
 	@Override
 	public Tokenizer keywords(String[] keywords) {
-		if (keywords != null) {
-			keywordMap = new HashMap<String, Integer>(keywords.length);
-			for (int i = 0; i < keywords.length; i++) {
-				keywordMap.put(keywords[i], i);
-			}
-		} else {
-			keywordMap = null;
-		}
+		keywordTable = keywords != null ? new KeywordTable(keywords) : null;
 		return this;
 	}
 
@@ -215,6 +206,94 @@ public abstract class AbstractTokenizer implements Tokenizer {
 		return new String(text, tokenStart, tokenEnd - tokenStart);
 	}
 
+	/**
+	 * Not in the manual. Returns a view of the current token's characters,
+	 * without copying them. The same object is returned every time, and it always
+	 * shows the current token, so it must not be kept past the next call to
+	 * {@link #next}, {@link #nextChar} or {@link #scan}; call toString() on it to
+	 * keep a copy. Returns null when {@link #tokenText} would.
+	 */
+	public CharSequence tokenChars() {
+		if (text == null || tokenStart >= numChars) {
+			return null;
+		}
+		return tokenView;
+	}
+
+	/** Not in the manual. The number of characters in the current token. */
+	public int tokenLength() {
+		return tokenEnd - tokenStart;
+	}
+
+	/**
+	 * Not in the manual. Returns the same value as tokenText().hashCode(), without
+	 * creating the String.
+	 */
+	public int tokenHashCode() {
+		return text == null ? 0 : KeywordTable.hash(text, tokenStart, tokenEnd);
+	}
+
+	/**
+	 * Not in the manual. Returns true if the current token consists of exactly
+	 * the characters chars[offset..offset+length).
+	 */
+	public boolean tokenEquals(char[] chars, int offset, int length) {
+		if (text == null || length != tokenEnd - tokenStart) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (text[tokenStart + i] != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Not in the manual. Returns true if the current token equals s. */
+	public boolean tokenEquals(CharSequence s) {
+		int length = s.length();
+		if (text == null || length != tokenEnd - tokenStart) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (text[tokenStart + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Not in the manual. Copies the current token into dest at offset, and
+	 * returns the number of characters copied.
+	 */
+	public int copyToken(char[] dest, int offset) {
+		int length = tokenEnd - tokenStart;
+		System.arraycopy(text, tokenStart, dest, offset, length);
+		return length;
+	}
+
+	private final CharSequence tokenView = new CharSequence() {
+		public int length() {
+			return tokenEnd - tokenStart;
+		}
+
+		public char charAt(int index) {
+			if (index < 0 || index >= tokenEnd - tokenStart) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			return text[tokenStart + index];
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		public String toString() {
+			return new String(text, tokenStart, tokenEnd - tokenStart);
+		}
+	};
+
 	@Override
 	public int tokenLine() {
 		if (trackPosition && tokenStart < numChars) {
@@ -299,12 +378,12 @@ public abstract class AbstractTokenizer implements Tokenizer {
 			} while (!eof && (wordRecognizer != null ? wordRecognizer.isWordPart(text[p], c)
 					: Character.isJavaIdentifierPart(text[p])));
 
-			if (keywordMap != null) {
-				String ident = new String(text, tokenStart, p - tokenStart);
-				Integer index = (Integer) keywordMap.get(ident);
-				if (index != null) {
+			if (keywordTable != null) {
+				// Match straight from text[], so that no String is created.
+				int index = keywordTable.lookup(text, tokenStart, p);
+				if (index != -1) {
 					tokenType = KEYWORD;
-					tokenKeyword = index.intValue();
+					tokenKeyword = index;
 				}
 			}
 			tokenEnd = p;
@@ -0,0 +1,529 @@
+package je3.ch02.classes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Not in the manual. A growable list of int values, like {@link IntList}, but
+ * indexed by long, so that it can hold more than 2^31 values, and stored
+ * outside the Java heap.
+ * <p>
+ * The values are kept in a chain of fixed-size chunks, each a direct buffer.
+ * Growing the list adds a chunk and never copies the values already there, so
+ * it needs no room for a second copy, and the garbage collector sees only the
+ * small buffer objects, not gigabytes of array.
+ * <p>
+ * {@link #map} makes a list whose chunks are memory-mapped from a file instead,
+ * which holds the values as big-endian ints, as DataOutputStream.writeInt()
+ * writes them. The file grows a chunk at a time and is cut back to the size of
+ * the list when it is closed.
+ * <p>
+ * equals(), hashCode() and compareTo() follow IntList: a BigIntList has the
+ * same hash code as an IntList of the same values. It is not thread-safe.
+ */
+public class BigIntList implements Comparable<BigIntList>, Closeable {
+	// 1M values, or 4MB, per chunk unless the constructor says otherwise.
+	static final int DEFAULT_CHUNK = 1 << 20;
+
+	private IntBuffer[] chunks = new IntBuffer[8];
+	private int chunkCount;
+	private final int shift; // log2 of the chunk size
+	private final int mask; // chunk size - 1
+	private long size;
+
+	// Only for a list made by map().
+	private FileChannel channel;
+	private MappedByteBuffer[] maps;
+
+	public BigIntList() {
+		this(DEFAULT_CHUNK);
+	}
+
+	/** Creates a list which allocates chunkSize values, a power of two, at a time. */
+	public BigIntList(int chunkSize) {
+		if (chunkSize < 2 || Integer.bitCount(chunkSize) != 1 || chunkSize > 1 << 28) {
+			throw new IllegalArgumentException("chunk size: " + chunkSize);
+		}
+		shift = Integer.numberOfTrailingZeros(chunkSize);
+		mask = chunkSize - 1;
+	}
+
+	/**
+	 * Opens a list kept in a file, creating the file if it doesn't exist. The
+	 * list starts with the values already in the file. Changes reach the file as
+	 * the operating system writes back the pages, or when {@link #force} or
+	 * {@link #close} is called.
+	 */
+	public static BigIntList map(Path file) throws IOException {
+		return map(file, DEFAULT_CHUNK);
+	}
+
+	public static BigIntList map(Path file, int chunkSize) throws IOException {
+		BigIntList list = new BigIntList(chunkSize);
+		list.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long length = list.channel.size();
+			if (length % 4 != 0) {
+				throw new IOException(file + " does not hold a whole number of ints");
+			}
+			list.maps = new MappedByteBuffer[list.chunks.length];
+			list.reserve(length / 4);
+			list.size = length / 4;
+		} catch (IOException | RuntimeException e) {
+			list.channel.close();
+			throw e;
+		}
+		return list;
+	}
+
+	// Make sure there are chunks for capacity values.
+	private void reserve(long capacity) throws IOException {
+		while ((long) chunkCount << shift < capacity) {
+			if (chunkCount == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunkCount * 2);
+				if (maps != null) {
+					maps = Arrays.copyOf(maps, chunkCount * 2);
+				}
+			}
+			int bytes = (mask + 1) * 4;
+			if (channel == null) {
+				chunks[chunkCount] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+			} else {
+				// Mapping past the end of the file extends it.
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkCount * bytes, bytes);
+				maps[chunkCount] = map;
+				chunks[chunkCount] = map.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+			}
+			chunkCount++;
+		}
+	}
+
+	private void grow(long capacity) {
+		if (chunks == null) {
+			throw new IllegalStateException("already closed");
+		}
+		try {
+			reserve(capacity);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not extend the file", e);
+		}
+	}
+
+	// Return the number of ints stored in the list.
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// Return the number of ints the list can hold before it adds a chunk.
+	public long capacity() {
+		return (long) chunkCount << shift;
+	}
+
+	// Return the int stored at the specified index.
+	public int get(long index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return chunks[(int) (index >>> shift)].get((int) index & mask);
+	}
+
+	// Set the value at the specified index
+	public void set(long index, int value) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		chunks[(int) (index >>> shift)].put((int) index & mask, value);
+	}
+
+	// Unchecked versions for the sort.
+	private int at(long index) {
+		return chunks[(int) (index >>> shift)].get((int) index & mask);
+	}
+
+	private void put(long index, int value) {
+		chunks[(int) (index >>> shift)].put((int) index & mask, value);
+	}
+
+	// Append a new value to the list, adding a chunk if necessary
+	public void add(int value) {
+		if (size == (long) chunkCount << shift) {
+			grow(size + 1);
+		}
+		chunks[(int) (size >>> shift)].put((int) size & mask, value);
+		size++;
+	}
+
+	/** Appends count values from an array. */
+	public void addAll(int[] values, int offset, int count) {
+		if (offset < 0 || count < 0 || count > values.length - offset) {
+			throw new IndexOutOfBoundsException();
+		}
+		grow(size + count);
+		size += count;
+		set(size - count, values, offset, count);
+	}
+
+	public void addAll(int[] values) {
+		addAll(values, 0, values.length);
+	}
+
+	public void addAll(IntList list) {
+		addAll(list.data, 0, list.size);
+	}
+
+	/** Copies count values, starting at index, into an array. */
+	public void get(long index, int[] into, int offset, int count) {
+		checkRange(index, index + count);
+		while (count > 0) {
+			IntBuffer chunk = chunks[(int) (index >>> shift)];
+			int start = (int) index & mask;
+			int n = Math.min(count, mask + 1 - start);
+			chunk.position(start);
+			chunk.get(into, offset, n);
+			index += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/** Overwrites count values, starting at index, from an array. */
+	public void set(long index, int[] from, int offset, int count) {
+		checkRange(index, index + count);
+		while (count > 0) {
+			IntBuffer chunk = chunks[(int) (index >>> shift)];
+			int start = (int) index & mask;
+			int n = Math.min(count, mask + 1 - start);
+			chunk.position(start);
+			chunk.put(from, offset, n);
+			index += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	private void checkRange(long from, long to) {
+		if (from < 0 || from > to || to > size) {
+			throw new IndexOutOfBoundsException(from + ".." + to + " of " + size);
+		}
+	}
+
+	// Remove all elements from the list, keeping the chunks for reuse
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Releases the chunks beyond the one holding the last value. The memory goes
+	 * back when the garbage collector finds the buffers unreachable.
+	 */
+	public void trim() {
+		int needed = (int) ((size + mask) >>> shift);
+		Arrays.fill(chunks, needed, chunkCount, null);
+		if (maps != null) {
+			Arrays.fill(maps, needed, chunkCount, null);
+		}
+		chunkCount = needed;
+	}
+
+	// Copy the contents of the list into a new array and return that array
+	public int[] toArray() {
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Too many values for an array: " + size);
+		}
+		int[] copy = new int[(int) size];
+		get(0, copy, 0, copy.length);
+		return copy;
+	}
+
+	/** Writes any changes to a mapped list out to its file. */
+	public void force() {
+		if (maps != null) {
+			for (int i = 0; i < chunkCount; i++) {
+				maps[i].force();
+			}
+		}
+	}
+
+	/**
+	 * Releases the chunks. For a mapped list, this writes out the changes and cuts
+	 * the file back to the values in the list. The list cannot be used afterwards.
+	 */
+	public void close() throws IOException {
+		if (channel != null) {
+			force();
+			maps = null;
+			chunks = null;
+			chunkCount = 0;
+			// The file can be truncated under the mappings, since they are no longer used.
+			channel.truncate(size * 4);
+			channel.close();
+			channel = null;
+		}
+		chunks = null;
+		chunkCount = 0;
+		size = 0;
+	}
+
+	/** Sorts the list into ascending order. */
+	public void sort() {
+		sort(0, size);
+	}
+
+	/**
+	 * Sorts the values from index from, inclusive, to index to, exclusive. The sort
+	 * is done in place, with no more extra memory than one chunk on the heap.
+	 * <p>
+	 * A quicksort splits the range into pieces no larger than a chunk; each piece
+	 * is then copied into the heap and sorted with Arrays.sort(). The quicksort
+	 * partitions three ways, so runs of equal values do no harm, and if it goes
+	 * too deep it hands over to a heapsort, so it is never quadratic.
+	 */
+	public void sort(long from, long to) {
+		checkRange(from, to);
+		int[] scratch = new int[(int) Math.min(to - from, mask + 1)];
+		int depth = 2 * (64 - Long.numberOfLeadingZeros(to - from));
+		quicksort(from, to, scratch, depth);
+	}
+
+	private void quicksort(long lo, long hi, int[] scratch, int depth) {
+		while (hi - lo > scratch.length) {
+			if (depth-- == 0) {
+				heapsort(lo, hi);
+				return;
+			}
+			long mid = lo + (hi - lo) / 2;
+			int pivot = median(at(lo), at(mid), at(hi - 1));
+			// Partition into [lo, lt) < pivot, [lt, gt) == pivot, [gt, hi) > pivot.
+			long lt = lo, i = lo, gt = hi;
+			while (i < gt) {
+				int v = at(i);
+				if (v < pivot) {
+					put(i++, at(lt));
+					put(lt++, v);
+				} else if (v > pivot) {
+					put(i, at(--gt));
+					put(gt, v);
+				} else {
+					i++;
+				}
+			}
+			// Recurse into the smaller side and loop on the larger, to bound the stack.
+			if (lt - lo < hi - gt) {
+				quicksort(lo, lt, scratch, depth);
+				lo = gt;
+			} else {
+				quicksort(gt, hi, scratch, depth);
+				hi = lt;
+			}
+		}
+		int n = (int) (hi - lo);
+		if (n > 1) {
+			get(lo, scratch, 0, n);
+			Arrays.sort(scratch, 0, n);
+			set(lo, scratch, 0, n);
+		}
+	}
+
+	private static int median(int a, int b, int c) {
+		return a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+	}
+
+	private void heapsort(long lo, long hi) {
+		long n = hi - lo;
+		for (long i = n / 2 - 1; i >= 0; i--) {
+			siftDown(lo, i, n);
+		}
+		for (long end = n - 1; end > 0; end--) {
+			int top = at(lo);
+			put(lo, at(lo + end));
+			put(lo + end, top);
+			siftDown(lo, 0, end);
+		}
+	}
+
+	private void siftDown(long base, long i, long n) {
+		int v = at(base + i);
+		for (long child; (child = 2 * i + 1) < n; i = child) {
+			if (child + 1 < n && at(base + child + 1) > at(base + child)) {
+				child++;
+			}
+			int c = at(base + child);
+			if (c <= v) {
+				break;
+			}
+			put(base + i, c);
+		}
+		put(base + i, v);
+	}
+
+	/**
+	 * Searches a sorted list for key. Like Arrays.binarySearch(), returns the index
+	 * of key if it is found, and otherwise -(insertion point) - 1.
+	 */
+	public long binarySearch(int key) {
+		return binarySearch(0, size, key);
+	}
+
+	public long binarySearch(long from, long to, int key) {
+		checkRange(from, to);
+		long lo = from, hi = to - 1;
+		while (lo <= hi) {
+			long mid = (lo + hi) >>> 1;
+			int v = at(mid);
+			if (v < key) {
+				lo = mid + 1;
+			} else if (v > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	// The same format as IntList.toString().
+	public String toString() {
+		StringBuilder b = new StringBuilder((int) Math.min(size * 7, 1 << 20));
+		b.append('[');
+		for (long i = 0; i < size; i++) {
+			if (i > 0) {
+				b.append(", ");
+				if (i % 8 == 0) {
+					b.append('\n');
+				}
+			}
+			b.append(at(i));
+		}
+		b.append(']');
+		return b.toString();
+	}
+
+	// Equal to another BigIntList holding the same values, as IntList is.
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof BigIntList)) {
+			return false;
+		}
+		BigIntList that = (BigIntList) o;
+		if (this.size != that.size) {
+			return false;
+		}
+		for (long i = 0; i < size; i++) {
+			if (this.at(i) != that.at(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Computed as IntList.hashCode() is, so the two agree for the same values.
+	public int hashCode() {
+		int code = 1;
+		for (long i = 0; i < size; i++) {
+			code = code * 997 + at(i);
+		}
+		return code;
+	}
+
+	/**
+	 * Orders lists as IntList does: by the first value that differs, or if one
+	 * list is a prefix of the other, the longer list is greater.
+	 */
+	@Override
+	public int compareTo(BigIntList that) {
+		long n = Math.min(this.size, that.size);
+		for (long i = 0; i < n; i++) {
+			int a = this.at(i), b = that.at(i);
+			if (a != b) {
+				return a < b ? -1 : 1;
+			}
+		}
+		return Long.compare(this.size, that.size);
+	}
+
+	/**
+	 * Fills a list with random values, sorts it and searches it, checking the
+	 * results against an int[] when the count allows.
+	 * <p>
+	 * Usage: java je3.ch02.classes.BigIntList [count] [file]
+	 */
+	public static void main(String[] args) throws IOException {
+		long count = args.length > 0 ? Long.parseLong(args[0]) : 50000000;
+		BigIntList list = args.length > 1 ? map(Paths.get(args[1])) : new BigIntList();
+		try {
+			long start = System.nanoTime();
+			Random random = new Random(1);
+			int[] batch = new int[8192];
+			list.clear();
+			for (long left = count; left > 0; left -= batch.length) {
+				int n = (int) Math.min(left, batch.length);
+				for (int i = 0; i < n; i++) {
+					batch[i] = random.nextInt();
+				}
+				list.addAll(batch, 0, n);
+			}
+			System.out.printf("filled %,d values in %d ms%n", list.size(), (System.nanoTime() - start) / 1000000);
+
+			int[] copy = count <= 200000000 ? list.toArray() : null;
+			if (copy != null) {
+				IntList small = new IntList(copy.length);
+				for (int v : copy) {
+					small.add(v);
+				}
+				System.out.println("hashCode matches IntList: " + (small.hashCode() == list.hashCode()));
+			}
+
+			start = System.nanoTime();
+			list.sort();
+			System.out.printf("sorted in %d ms%n", (System.nanoTime() - start) / 1000000);
+			if (copy != null) {
+				start = System.nanoTime();
+				Arrays.sort(copy);
+				System.out.printf("Arrays.sort(int[]) took %d ms%n", (System.nanoTime() - start) / 1000000);
+				System.out.println("same order as Arrays.sort: " + Arrays.equals(copy, list.toArray()));
+			}
+			for (long i = 1; i < list.size(); i++) {
+				if (list.get(i - 1) > list.get(i)) {
+					throw new AssertionError("out of order at " + i);
+				}
+			}
+
+			start = System.nanoTime();
+			int found = 0;
+			for (int i = 0; i < 1000000; i++) {
+				int key = random.nextInt();
+				long at = list.binarySearch(key);
+				if (at >= 0) {
+					found++;
+				} else {
+					long insert = -at - 1;
+					if ((insert > 0 && list.get(insert - 1) >= key)
+							|| (insert < list.size() && list.get(insert) <= key)) {
+						throw new AssertionError("bad insertion point for " + key);
+					}
+				}
+			}
+			System.out.printf("1,000,000 searches, %d found, in %d ms%n", found,
+					(System.nanoTime() - start) / 1000000);
+		} finally {
+			list.close();
+		}
+	}
+}
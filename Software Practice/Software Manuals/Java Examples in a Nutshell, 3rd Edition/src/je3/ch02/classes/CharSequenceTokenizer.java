@@ -78,4 +78,59 @@ public class CharSequenceTokenizer extends AbstractTokenizer {
 			}
 		}
 	}
+
+	/**
+	 * Not in the manual. Tokenizes a few megabytes of Java-like text with the
+	 * Java keywords registered, using only the allocation-free token methods,
+	 * and reports the speed and the bytes allocated per token by this thread.
+	 * Usage: java je3.ch02.classes.CharSequenceTokenizer$Benchmark [repeats]
+	 */
+	public static class Benchmark {
+		static final String[] KEYWORDS = { "abstract", "boolean", "break", "byte", "case", "catch", "char",
+				"class", "continue", "default", "do", "double", "else", "extends", "final", "finally", "float",
+				"for", "if", "implements", "import", "instanceof", "int", "interface", "long", "new", "package",
+				"private", "protected", "public", "return", "short", "static", "super", "switch", "this", "throw",
+				"throws", "try", "void", "while" };
+
+		public static void main(String[] args) throws java.io.IOException {
+			int repeats = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+			StringBuilder text = new StringBuilder();
+			String line = "\tpublic static int count(char[] text, int start) { if (start > 0) return text.length - 42; }\n";
+			while (text.length() < 4 * 1024 * 1024) {
+				text.append(line);
+			}
+			String input = text.toString();
+
+			java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+			for (int r = 0; r < repeats; r++) {
+				CharSequenceTokenizer tokenizer = new CharSequenceTokenizer(input);
+				tokenizer.tokenizeWords(true).tokenizeNumbers(true).skipSpaces(true).keywords(KEYWORDS);
+				long tokens = 0, keywords = 0, hash = 0;
+				long bytesBefore = allocatedBytes(threads);
+				long start = System.nanoTime();
+				int type;
+				while ((type = tokenizer.next()) != Tokenizer.EOF) {
+					tokens++;
+					if (type == Tokenizer.KEYWORD) {
+						keywords++;
+					}
+					hash += tokenizer.tokenHashCode();
+				}
+				long nanos = System.nanoTime() - start;
+				long bytes = allocatedBytes(threads) - bytesBefore;
+				System.out.printf("%,d tokens (%,d keywords) in %.1f ms, %.3f bytes allocated per token [%x]%n",
+						tokens, keywords, nanos / 1e6, bytes < 0 ? Double.NaN : (double) bytes / tokens, hash);
+			}
+		}
+
+		/** This thread's allocation counter, or -1 where the JVM doesn't provide one. */
+		static long allocatedBytes(java.lang.management.ThreadMXBean threads) {
+			try {
+				return (Long) threads.getClass().getMethod("getThreadAllocatedBytes", long.class).invoke(threads,
+						Thread.currentThread().getId());
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+	}
 }
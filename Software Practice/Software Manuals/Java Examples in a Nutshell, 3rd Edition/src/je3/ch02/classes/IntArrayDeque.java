@@ -0,0 +1,157 @@
+package je3.ch02.classes;
+
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+
+/**
+ * Not in the manual. A double-ended queue of int values, for use as a stack or
+ * a FIFO queue without the Integer objects of ArrayDeque. The values are kept
+ * in a circular array whose length is a power of two, which doubles when it is
+ * full.
+ */
+public class IntArrayDeque {
+	private int[] data;
+	private int head; // the index of the first value
+	private int size;
+
+	public IntArrayDeque() {
+		this(16);
+	}
+
+	public IntArrayDeque(int initialCapacity) {
+		data = new int[Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void addFirst(int value) {
+		if (size == data.length) {
+			grow(size + 1);
+		}
+		head = (head - 1) & (data.length - 1);
+		data[head] = value;
+		size++;
+	}
+
+	public void addLast(int value) {
+		if (size == data.length) {
+			grow(size + 1);
+		}
+		data[(head + size) & (data.length - 1)] = value;
+		size++;
+	}
+
+	/** Appends count values from an array, in order. */
+	public void addAll(int[] values, int offset, int count) {
+		if (offset < 0 || count < 0 || count > values.length - offset) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (size + count > data.length) {
+			grow(size + count);
+		}
+		int tail = (head + size) & (data.length - 1);
+		int n = Math.min(count, data.length - tail);
+		System.arraycopy(values, offset, data, tail, n);
+		System.arraycopy(values, offset + n, data, 0, count - n);
+		size += count;
+	}
+
+	public void addAll(int[] values) {
+		addAll(values, 0, values.length);
+	}
+
+	public int removeFirst() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		int value = data[head];
+		head = (head + 1) & (data.length - 1);
+		size--;
+		return value;
+	}
+
+	public int removeLast() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		size--;
+		return data[(head + size) & (data.length - 1)];
+	}
+
+	/**
+	 * Removes up to count values from the front into an array, in order, and
+	 * returns how many were removed.
+	 */
+	public int removeFirst(int[] into, int offset, int count) {
+		count = Math.min(count, size);
+		int n = Math.min(count, data.length - head);
+		System.arraycopy(data, head, into, offset, n);
+		System.arraycopy(data, 0, into, offset + n, count - n);
+		head = (head + count) & (data.length - 1);
+		size -= count;
+		return count;
+	}
+
+	public int peekFirst() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return data[head];
+	}
+
+	public int peekLast() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return data[(head + size - 1) & (data.length - 1)];
+	}
+
+	/** Returns the value index places from the front. */
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return data[(head + index) & (data.length - 1)];
+	}
+
+	public void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/** Passes each value to consumer, from front to back. */
+	public void forEach(IntConsumer consumer) {
+		for (int i = 0, mask = data.length - 1; i < size; i++) {
+			consumer.accept(data[(head + i) & mask]);
+		}
+	}
+
+	/** Copies the values, from front to back, into a new array. */
+	public int[] toArray() {
+		int[] copy = new int[size];
+		int n = Math.min(size, data.length - head);
+		System.arraycopy(data, head, copy, 0, n);
+		System.arraycopy(data, 0, copy, n, size - n);
+		return copy;
+	}
+
+	// Moves the values, in order, to the start of a larger array.
+	private void grow(int needed) {
+		if (needed < 0 || needed > 1 << 30) {
+			throw new IllegalStateException("IntArrayDeque: too large");
+		}
+		int capacity = Integer.highestOneBit(needed - 1) << 1;
+		data = java.util.Arrays.copyOf(toArray(), capacity);
+		head = 0;
+	}
+
+	public String toString() {
+		return java.util.Arrays.toString(toArray());
+	}
+}
@@ -0,0 +1,235 @@
+package je3.ch02.classes;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Not in the manual. A set of int values without Integer objects, built in the
+ * same way as {@link IntIntMap}: an array of values found by linear probing, in
+ * which 0 marks an empty slot and the value 0 itself is a flag.
+ */
+public class IntSet {
+	private int[] keys;
+	private int mask;
+	private int size;
+	private boolean hasZero;
+
+	public IntSet() {
+		this(16);
+	}
+
+	/** Creates a set which holds expected values before it grows. */
+	public IntSet(int expected) {
+		allocate(IntIntMap.tableSize(expected));
+	}
+
+	/** Creates a set of the values in an array. */
+	public IntSet(int[] values) {
+		this(values.length);
+		addAll(values);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/** The number of values. */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int value) {
+		if (value == 0) {
+			return hasZero;
+		}
+		for (int i = IntIntMap.mix(value) & mask;; i = (i + 1) & mask) {
+			int k = keys[i];
+			if (k == value) {
+				return true;
+			}
+			if (k == 0) {
+				return false;
+			}
+		}
+	}
+
+	/** Adds value, and returns true if it wasn't there already. */
+	public boolean add(int value) {
+		if (value == 0) {
+			if (hasZero) {
+				return false;
+			}
+			hasZero = true;
+			size++;
+			return true;
+		}
+		int i = IntIntMap.mix(value) & mask;
+		for (int k; (k = keys[i]) != 0; i = (i + 1) & mask) {
+			if (k == value) {
+				return false;
+			}
+		}
+		keys[i] = value;
+		if (++size > (mask + 1) / 4 * 3) {
+			rehash((mask + 1) * 2);
+		}
+		return true;
+	}
+
+	/** Adds every value in an array, and returns how many were new. */
+	public int addAll(int[] values) {
+		ensureCapacity(size + values.length);
+		int added = 0;
+		for (int value : values) {
+			if (add(value)) {
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/** Adds every value of another set, and returns how many were new. */
+	public int addAll(IntSet other) {
+		ensureCapacity(size + other.size);
+		int added = 0;
+		for (int slot = other.firstSlot(); slot >= 0; slot = other.nextSlot(slot)) {
+			if (add(other.valueAt(slot))) {
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/** Removes every value which is not also in other. */
+	public void retainAll(IntSet other) {
+		for (int value : toArray()) {
+			if (!other.contains(value)) {
+				remove(value);
+			}
+		}
+	}
+
+	/** Grows the table now, if need be, so that it holds expected values without growing again. */
+	public void ensureCapacity(int expected) {
+		int capacity = IntIntMap.tableSize(expected);
+		if (capacity > mask + 1) {
+			rehash(capacity);
+		}
+	}
+
+	/** Removes value, and returns true if it was there. */
+	public boolean remove(int value) {
+		if (value == 0) {
+			if (!hasZero) {
+				return false;
+			}
+			hasZero = false;
+			size--;
+			return true;
+		}
+		for (int i = IntIntMap.mix(value) & mask;; i = (i + 1) & mask) {
+			int k = keys[i];
+			if (k == 0) {
+				return false;
+			}
+			if (k == value) {
+				shiftBack(i);
+				size--;
+				return true;
+			}
+		}
+	}
+
+	// Empties a slot, moving back any following values which would no longer be found.
+	private void shiftBack(int hole) {
+		for (int i = (hole + 1) & mask;; i = (i + 1) & mask) {
+			int k = keys[i];
+			if (k == 0) {
+				keys[hole] = 0;
+				return;
+			}
+			int home = IntIntMap.mix(k) & mask;
+			if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i)) {
+				keys[hole] = k;
+				hole = i;
+			}
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		hasZero = false;
+		size = 0;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		allocate(capacity);
+		for (int k : oldKeys) {
+			if (k != 0) {
+				int i = IntIntMap.mix(k) & mask;
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = k;
+			}
+		}
+	}
+
+	/** The first occupied slot, or -1 if the set is empty. */
+	public int firstSlot() {
+		return nextSlot(-1);
+	}
+
+	/** The next occupied slot after slot, or -1. The set must not change in between. */
+	public int nextSlot(int slot) {
+		for (int i = slot + 1; i <= mask; i++) {
+			if (keys[i] != 0) {
+				return i;
+			}
+		}
+		return slot <= mask && hasZero ? mask + 1 : -1;
+	}
+
+	public int valueAt(int slot) {
+		return slot > mask ? 0 : keys[slot];
+	}
+
+	/** Passes each value to consumer. */
+	public void forEach(IntConsumer consumer) {
+		for (int k : keys) {
+			if (k != 0) {
+				consumer.accept(k);
+			}
+		}
+		if (hasZero) {
+			consumer.accept(0);
+		}
+	}
+
+	/** Returns the values, in no particular order. */
+	public int[] toArray() {
+		int[] result = new int[size];
+		int n = 0;
+		for (int k : keys) {
+			if (k != 0) {
+				result[n++] = k;
+			}
+		}
+		if (hasZero) {
+			result[n] = 0;
+		}
+		return result;
+	}
+
+	public String toString() {
+		int[] values = toArray();
+		Arrays.sort(values);
+		return Arrays.toString(values);
+	}
+}
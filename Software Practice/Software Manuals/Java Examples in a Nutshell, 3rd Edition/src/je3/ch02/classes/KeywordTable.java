@@ -0,0 +1,142 @@
+package je3.ch02.classes;
+
+/**
+ * Not in the manual. A fixed set of keywords which can be looked up straight
+ * from a region of a char[] buffer, without creating a String. Used by
+ * {@link AbstractTokenizer} to recognize keywords.
+ * <p>
+ * The table is a perfect hash: when it is built, a seed and a power-of-two size
+ * are chosen so that every keyword lands in a slot of its own. A lookup then
+ * hashes the characters once, and compares them against at most one keyword.
+ * (A set in which two keywords share a String hash falls back to probing.)
+ * Keywords are hashed like {@link String#hashCode}, so a caller which has
+ * already computed that hash can pass it in.
+ */
+public class KeywordTable {
+	private final char[][] words;
+	private final int[] indexes;
+	private final int[] hashes;
+	private final int seed;
+	private final int mask;
+	private final boolean perfect;
+
+	/**
+	 * Builds the table. The index of a keyword is its position in the array; if
+	 * a keyword appears more than once, the last index wins.
+	 */
+	public KeywordTable(String[] keywords) {
+		int[] keywordHashes = new int[keywords.length];
+		for (int i = 0; i < keywords.length; i++) {
+			keywordHashes[i] = keywords[i].hashCode();
+		}
+
+		// Try seeds at each size until no two distinct keywords share a slot.
+		// Distinct keywords with the same String hash can never be separated, so
+		// if seeds fail the table grows and eventually falls back to probing.
+		int size = Integer.highestOneBit(Math.max(keywords.length, 1) * 2 - 1) << 1;
+		int chosenSeed = 0;
+		boolean perfect = false;
+		search: for (int attempt = 0; attempt < 8 && size <= 1 << 20; attempt++, size <<= 1) {
+			for (int s = 1; s <= 64; s++) {
+				if (isPerfect(keywords, keywordHashes, (2 * s - 1) * 0x9E3779B9, size - 1)) {
+					chosenSeed = (2 * s - 1) * 0x9E3779B9;
+					perfect = true;
+					break search;
+				}
+			}
+		}
+		if (!perfect) {
+			size = Integer.highestOneBit(Math.max(keywords.length, 1) * 4 - 1) << 1;
+			chosenSeed = 0x9E3779B9;
+		}
+
+		this.perfect = perfect;
+		this.seed = chosenSeed;
+		this.mask = size - 1;
+		this.words = new char[size][];
+		this.indexes = new int[size];
+		this.hashes = new int[size];
+		for (int i = 0; i < keywords.length; i++) {
+			int slot = slot(keywordHashes[i]);
+			while (words[slot] != null && !keywords[i].contentEquals(new String(words[slot]))) {
+				slot = (slot + 1) & mask;
+			}
+			words[slot] = keywords[i].toCharArray();
+			indexes[slot] = i;
+			hashes[slot] = keywordHashes[i];
+		}
+	}
+
+	private static boolean isPerfect(String[] keywords, int[] keywordHashes, int seed, int mask) {
+		String[] slots = new String[mask + 1];
+		for (int i = 0; i < keywords.length; i++) {
+			int slot = mix(keywordHashes[i], seed) & mask;
+			if (slots[slot] != null && !slots[slot].equals(keywords[i])) {
+				return false;
+			}
+			slots[slot] = keywords[i];
+		}
+		return true;
+	}
+
+	private static int mix(int hash, int seed) {
+		int h = hash * seed;
+		return h ^ (h >>> 16);
+	}
+
+	private int slot(int hash) {
+		return mix(hash, seed) & mask;
+	}
+
+	/** The {@link String#hashCode} of text[start..end). */
+	public static int hash(char[] text, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + text[i];
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the index of the keyword equal to text[start..end), or -1. hash
+	 * must be {@link #hash hash(text, start, end)}.
+	 */
+	public int lookup(char[] text, int start, int end, int hash) {
+		int length = end - start;
+		for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+			char[] word = words[slot];
+			if (word == null) {
+				return -1;
+			}
+			if (hashes[slot] == hash && word.length == length && regionMatches(word, text, start)) {
+				return indexes[slot];
+			}
+			if (perfect) {
+				return -1;
+			}
+		}
+	}
+
+	/** Returns the index of the keyword equal to text[start..end), or -1. */
+	public int lookup(char[] text, int start, int end) {
+		return lookup(text, start, end, hash(text, start, end));
+	}
+
+	/** Returns the index of the keyword equal to s, or -1. */
+	public int lookup(CharSequence s) {
+		char[] chars = new char[s.length()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = s.charAt(i);
+		}
+		return lookup(chars, 0, chars.length);
+	}
+
+	private static boolean regionMatches(char[] word, char[] text, int start) {
+		for (int i = 0; i < word.length; i++) {
+			if (word[i] != text[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
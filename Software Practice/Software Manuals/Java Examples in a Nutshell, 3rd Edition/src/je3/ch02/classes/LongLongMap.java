@@ -0,0 +1,299 @@
+package je3.ch02.classes;
+
+import java.util.Arrays;
+
+/**
+ * Not in the manual. A map from long keys to long values without Long or entry
+ * objects, built in the same way as {@link IntIntMap}.
+ * <p>
+ * Keys and values are kept in two parallel arrays, and found by open
+ * addressing with linear probing. A key of 0 marks an empty slot, so the key 0
+ * itself, if present, is kept in an extra slot at the end of the arrays.
+ * Removing a key shifts back the keys which follow it, so the table never
+ * fills up with deleted slots. The table doubles when it is three quarters
+ * full.
+ * <p>
+ * The entries can be visited without an Iterator: {@link #firstSlot} and
+ * {@link #nextSlot} step through the occupied slots, and {@link #keyAt} and
+ * {@link #valueAt} read them; or {@link #forEach} passes each to a callback.
+ */
+public class LongLongMap {
+	/** Receives each entry of the map from {@link #forEach}. */
+	public interface EntryConsumer {
+		void accept(long key, long value);
+	}
+
+	private long[] keys;
+	private long[] values;
+	private int mask;
+	private int size;
+	private boolean hasZeroKey;
+
+	public LongLongMap() {
+		this(16);
+	}
+
+	/** Creates a map which holds expected entries before it grows. */
+	public LongLongMap(int expected) {
+		allocate(tableSize(expected));
+	}
+
+	// The power of two at least 4/3 of expected.
+	static int tableSize(int expected) {
+		long needed = Math.max(4, (long) expected * 4 / 3 + 1);
+		if (needed > 1 << 30) {
+			throw new IllegalArgumentException("Too large: " + expected);
+		}
+		return Integer.highestOneBit((int) needed - 1) << 1;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity + 1];
+		values = new long[capacity + 1];
+		mask = capacity - 1;
+	}
+
+	static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/** The number of entries. */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// The slot holding key, or -1.
+	private int find(long key) {
+		if (key == 0) {
+			return hasZeroKey ? mask + 1 : -1;
+		}
+		for (int i = mix(key) & mask;; i = (i + 1) & mask) {
+			long k = keys[i];
+			if (k == key) {
+				return i;
+			}
+			if (k == 0) {
+				return -1;
+			}
+		}
+	}
+
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	/** Returns the value of key, or defaultValue if the map doesn't contain it. */
+	public long get(long key, long defaultValue) {
+		int slot = find(key);
+		return slot < 0 ? defaultValue : values[slot];
+	}
+
+	/** Returns the value of key, or 0. */
+	public long get(long key) {
+		return get(key, 0);
+	}
+
+	// The slot holding key, adding it with the value 0 if it isn't there.
+	private int insert(long key) {
+		if (key == 0) {
+			if (!hasZeroKey) {
+				hasZeroKey = true;
+				values[mask + 1] = 0;
+				size++;
+			}
+			return mask + 1;
+		}
+		int i = mix(key) & mask;
+		for (long k; (k = keys[i]) != 0; i = (i + 1) & mask) {
+			if (k == key) {
+				return i;
+			}
+		}
+		keys[i] = key;
+		values[i] = 0;
+		if (++size > (mask + 1) / 4 * 3) {
+			rehash((mask + 1) * 2);
+			return find(key);
+		}
+		return i;
+	}
+
+	/** Sets the value of key, and returns its old value, or 0. */
+	public long put(long key, long value) {
+		int slot = insert(key);
+		long old = values[slot];
+		values[slot] = value;
+		return old;
+	}
+
+	/** Adds delta to the value of key, which starts at 0, and returns the new value. */
+	public long addTo(long key, long delta) {
+		int slot = insert(key);
+		return values[slot] += delta;
+	}
+
+	/** Puts each keys[i] with values[i]. */
+	public void putAll(long[] keys, long[] values) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("Lengths differ");
+		}
+		ensureCapacity(size + keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			put(keys[i], values[i]);
+		}
+	}
+
+	/** Puts every entry of another map. */
+	public void putAll(LongLongMap other) {
+		ensureCapacity(size + other.size);
+		for (int slot = other.firstSlot(); slot >= 0; slot = other.nextSlot(slot)) {
+			put(other.keys[slot], other.values[slot]);
+		}
+	}
+
+	/** Grows the table now, if need be, so that it holds expected entries without growing again. */
+	public void ensureCapacity(int expected) {
+		int capacity = tableSize(expected);
+		if (capacity > mask + 1) {
+			rehash(capacity);
+		}
+	}
+
+	/** Removes key, and returns its value, or defaultValue if it wasn't there. */
+	public long remove(long key, long defaultValue) {
+		if (key == 0) {
+			if (!hasZeroKey) {
+				return defaultValue;
+			}
+			hasZeroKey = false;
+			size--;
+			return values[mask + 1];
+		}
+		int slot = find(key);
+		if (slot < 0) {
+			return defaultValue;
+		}
+		long old = values[slot];
+		shiftBack(slot);
+		size--;
+		return old;
+	}
+
+	// Empties a slot, moving back any following keys which would no longer be found.
+	private void shiftBack(int hole) {
+		for (int i = (hole + 1) & mask;; i = (i + 1) & mask) {
+			long k = keys[i];
+			if (k == 0) {
+				keys[hole] = 0;
+				return;
+			}
+			int home = mix(k) & mask;
+			// k may fill the hole if its home is not cyclically within (hole, i].
+			if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i)) {
+				keys[hole] = k;
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		hasZeroKey = false;
+		size = 0;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		int oldCapacity = mask + 1;
+		allocate(capacity);
+		for (int j = 0; j < oldCapacity; j++) {
+			long k = oldKeys[j];
+			if (k != 0) {
+				int i = mix(k) & mask;
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
+		}
+		values[mask + 1] = oldValues[oldCapacity];
+	}
+
+	/** The first occupied slot, or -1 if the map is empty. */
+	public int firstSlot() {
+		return nextSlot(-1);
+	}
+
+	/** The next occupied slot after slot, or -1. The map must not change in between. */
+	public int nextSlot(int slot) {
+		for (int i = slot + 1; i <= mask; i++) {
+			if (keys[i] != 0) {
+				return i;
+			}
+		}
+		return slot <= mask && hasZeroKey ? mask + 1 : -1;
+	}
+
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public long valueAt(int slot) {
+		return values[slot];
+	}
+
+	public void setValueAt(int slot, long value) {
+		values[slot] = value;
+	}
+
+	/** Passes each entry to consumer. */
+	public void forEach(EntryConsumer consumer) {
+		for (int i = 0; i <= mask; i++) {
+			if (keys[i] != 0) {
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+		if (hasZeroKey) {
+			consumer.accept(0, values[mask + 1]);
+		}
+	}
+
+	/** Returns the keys, in no particular order. */
+	public long[] keys() {
+		long[] result = new long[size];
+		int n = 0;
+		for (int slot = firstSlot(); slot >= 0; slot = nextSlot(slot)) {
+			result[n++] = keys[slot];
+		}
+		return result;
+	}
+
+	/** Returns the values, in the same order as keys(). */
+	public long[] values() {
+		long[] result = new long[size];
+		int n = 0;
+		for (int slot = firstSlot(); slot >= 0; slot = nextSlot(slot)) {
+			result[n++] = values[slot];
+		}
+		return result;
+	}
+
+	public String toString() {
+		StringBuilder b = new StringBuilder(size * 20).append('{');
+		for (int slot = firstSlot(); slot >= 0; slot = nextSlot(slot)) {
+			if (b.length() > 1) {
+				b.append(", ");
+			}
+			b.append(keys[slot]).append('=').append(values[slot]);
+		}
+		return b.append('}').toString();
+	}
+}
@@ -0,0 +1,233 @@
+package je3.ch02.classes;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Not in the manual. A map from objects to int values, meant above all for
+ * counting, as a HashMap&lt;String, Integer&gt; is often used, but without an
+ * Integer or an entry object per key. {@link #addTo} adds to a count in one
+ * lookup.
+ * <p>
+ * It is built in the same way as {@link IntIntMap}: keys and values in
+ * parallel arrays, found by linear probing, with null marking an empty slot.
+ * Null keys are not allowed.
+ */
+public class ObjectIntMap<K> {
+	private Object[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	public ObjectIntMap() {
+		this(16);
+	}
+
+	/** Creates a map which holds expected entries before it grows. */
+	public ObjectIntMap(int expected) {
+		allocate(IntIntMap.tableSize(expected));
+	}
+
+	private void allocate(int capacity) {
+		keys = new Object[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int slotOf(Object key, int mask) {
+		return IntIntMap.mix(key.hashCode()) & mask;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// The slot holding key, or -1.
+	private int find(Object key) {
+		for (int i = slotOf(key, mask);; i = (i + 1) & mask) {
+			Object k = keys[i];
+			if (k == null) {
+				return -1;
+			}
+			if (k == key || k.equals(key)) {
+				return i;
+			}
+		}
+	}
+
+	public boolean containsKey(Object key) {
+		return find(key) >= 0;
+	}
+
+	/** Returns the value of key, or defaultValue if the map doesn't contain it. */
+	public int get(Object key, int defaultValue) {
+		int slot = find(key);
+		return slot < 0 ? defaultValue : values[slot];
+	}
+
+	/** Returns the value of key, or 0. */
+	public int get(Object key) {
+		return get(key, 0);
+	}
+
+	// The slot holding key, adding it with the value 0 if it isn't there.
+	private int insert(K key) {
+		if (key == null) {
+			throw new NullPointerException("ObjectIntMap: null key");
+		}
+		int i = slotOf(key, mask);
+		for (Object k; (k = keys[i]) != null; i = (i + 1) & mask) {
+			if (k == key || k.equals(key)) {
+				return i;
+			}
+		}
+		keys[i] = key;
+		values[i] = 0;
+		if (++size > (mask + 1) / 4 * 3) {
+			rehash((mask + 1) * 2);
+			return find(key);
+		}
+		return i;
+	}
+
+	/** Sets the value of key, and returns its old value, or 0. */
+	public int put(K key, int value) {
+		int slot = insert(key);
+		int old = values[slot];
+		values[slot] = value;
+		return old;
+	}
+
+	/** Adds delta to the value of key, which starts at 0, and returns the new value. */
+	public int addTo(K key, int delta) {
+		int slot = insert(key);
+		return values[slot] += delta;
+	}
+
+	/** Adds 1 to the count of each key in an array. */
+	public void addAll(K[] keys) {
+		for (K key : keys) {
+			addTo(key, 1);
+		}
+	}
+
+	/** Adds every value of another map to the value of its key here. */
+	public void addAll(ObjectIntMap<? extends K> other) {
+		ensureCapacity(size + other.size);
+		for (int slot = other.firstSlot(); slot >= 0; slot = other.nextSlot(slot)) {
+			addTo(other.keyAt(slot), other.values[slot]);
+		}
+	}
+
+	/** Grows the table now, if need be, so that it holds expected entries without growing again. */
+	public void ensureCapacity(int expected) {
+		int capacity = IntIntMap.tableSize(expected);
+		if (capacity > mask + 1) {
+			rehash(capacity);
+		}
+	}
+
+	/** Removes key, and returns its value, or defaultValue if it wasn't there. */
+	public int remove(Object key, int defaultValue) {
+		int slot = find(key);
+		if (slot < 0) {
+			return defaultValue;
+		}
+		int old = values[slot];
+		shiftBack(slot);
+		size--;
+		return old;
+	}
+
+	// Empties a slot, moving back any following keys which would no longer be found.
+	private void shiftBack(int hole) {
+		for (int i = (hole + 1) & mask;; i = (i + 1) & mask) {
+			Object k = keys[i];
+			if (k == null) {
+				keys[hole] = null;
+				return;
+			}
+			int home = slotOf(k, mask);
+			if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i)) {
+				keys[hole] = k;
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	private void rehash(int capacity) {
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int j = 0; j < oldKeys.length; j++) {
+			Object k = oldKeys[j];
+			if (k != null) {
+				int i = slotOf(k, mask);
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/** The first occupied slot, or -1 if the map is empty. */
+	public int firstSlot() {
+		return nextSlot(-1);
+	}
+
+	/** The next occupied slot after slot, or -1. The map must not change in between. */
+	public int nextSlot(int slot) {
+		for (int i = slot + 1; i <= mask; i++) {
+			if (keys[i] != null) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public K keyAt(int slot) {
+		return (K) keys[slot];
+	}
+
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+
+	public void setValueAt(int slot, int value) {
+		values[slot] = value;
+	}
+
+	/** Passes each entry to consumer. */
+	@SuppressWarnings("unchecked")
+	public void forEach(ObjIntConsumer<? super K> consumer) {
+		for (int i = 0; i <= mask; i++) {
+			if (keys[i] != null) {
+				consumer.accept((K) keys[i], values[i]);
+			}
+		}
+	}
+
+	public String toString() {
+		StringBuilder b = new StringBuilder(size * 16).append('{');
+		for (int slot = firstSlot(); slot >= 0; slot = nextSlot(slot)) {
+			if (b.length() > 1) {
+				b.append(", ");
+			}
+			b.append(keys[slot]).append('=').append(values[slot]);
+		}
+		return b.append('}').toString();
+	}
+}
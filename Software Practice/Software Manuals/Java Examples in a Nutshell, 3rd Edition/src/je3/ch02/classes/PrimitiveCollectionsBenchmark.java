@@ -0,0 +1,297 @@
+package je3.ch02.classes;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Not in the manual. Compares {@link IntIntMap}, {@link IntSet},
+ * {@link LongLongMap}, {@link IntArrayDeque} and {@link ObjectIntMap} with
+ * their java.util equivalents: first that random operations give the same
+ * results, then the heap each uses for a million entries, and then the rate of
+ * inserts and lookups.
+ * <p>
+ * Usage: java je3.ch02.classes.PrimitiveCollectionsBenchmark [entries]
+ */
+public class PrimitiveCollectionsBenchmark {
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		verify();
+		System.out.println("Heap used by " + n + " entries:");
+		Random random = new Random(1);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = random.nextInt();
+		}
+		String[] words = new String[n];
+		for (int i = 0; i < n; i++) {
+			words[i] = "w" + random.nextInt(n / 4);
+		}
+		footprint("IntIntMap", () -> {
+			IntIntMap m = new IntIntMap();
+			for (int k : keys) {
+				m.put(k, k);
+			}
+			return m;
+		});
+		footprint("HashMap<Integer, Integer>", () -> {
+			Map<Integer, Integer> m = new HashMap<Integer, Integer>();
+			for (int k : keys) {
+				m.put(k, k);
+			}
+			return m;
+		});
+		footprint("IntSet", () -> new IntSet(keys));
+		footprint("HashSet<Integer>", () -> {
+			HashSet<Integer> s = new HashSet<Integer>();
+			for (int k : keys) {
+				s.add(k);
+			}
+			return s;
+		});
+		footprint("LongLongMap", () -> {
+			LongLongMap m = new LongLongMap();
+			for (int k : keys) {
+				m.put(k * 31L, k);
+			}
+			return m;
+		});
+		footprint("HashMap<Long, Long>", () -> {
+			Map<Long, Long> m = new HashMap<Long, Long>();
+			for (int k : keys) {
+				m.put(k * 31L, (long) k);
+			}
+			return m;
+		});
+		footprint("IntArrayDeque", () -> {
+			IntArrayDeque d = new IntArrayDeque();
+			d.addAll(keys);
+			return d;
+		});
+		footprint("ArrayDeque<Integer>", () -> {
+			ArrayDeque<Integer> d = new ArrayDeque<Integer>();
+			for (int k : keys) {
+				d.addLast(k);
+			}
+			return d;
+		});
+
+		System.out.println("Operations per second:");
+		for (int round = 0; round < 3; round++) {
+			time("IntIntMap put+get", 2 * n, () -> {
+				IntIntMap m = new IntIntMap();
+				for (int k : keys) {
+					m.addTo(k, 1);
+				}
+				long sum = 0;
+				for (int k : keys) {
+					sum += m.get(k);
+				}
+				return sum;
+			});
+			time("HashMap<Integer, Integer> put+get", 2 * n, () -> {
+				Map<Integer, Integer> m = new HashMap<Integer, Integer>();
+				for (int k : keys) {
+					m.merge(k, 1, Integer::sum);
+				}
+				long sum = 0;
+				for (int k : keys) {
+					sum += m.get(k);
+				}
+				return sum;
+			});
+			time("IntSet add+contains", 2 * n, () -> {
+				IntSet s = new IntSet();
+				for (int k : keys) {
+					s.add(k);
+				}
+				long hits = 0;
+				for (int k : keys) {
+					hits += s.contains(k + 1) ? 1 : 0;
+				}
+				return hits;
+			});
+			time("HashSet<Integer> add+contains", 2 * n, () -> {
+				HashSet<Integer> s = new HashSet<Integer>();
+				for (int k : keys) {
+					s.add(k);
+				}
+				long hits = 0;
+				for (int k : keys) {
+					hits += s.contains(k + 1) ? 1 : 0;
+				}
+				return hits;
+			});
+			time("LongLongMap put+get", 2 * n, () -> {
+				LongLongMap m = new LongLongMap();
+				for (int k : keys) {
+					m.put(k * 31L, k);
+				}
+				long sum = 0;
+				for (int k : keys) {
+					sum += m.get(k * 31L);
+				}
+				return sum;
+			});
+			time("HashMap<Long, Long> put+get", 2 * n, () -> {
+				Map<Long, Long> m = new HashMap<Long, Long>();
+				for (int k : keys) {
+					m.put(k * 31L, (long) k);
+				}
+				long sum = 0;
+				for (int k : keys) {
+					sum += m.get(k * 31L);
+				}
+				return sum;
+			});
+			time("IntArrayDeque add+remove", 2 * n, () -> {
+				IntArrayDeque d = new IntArrayDeque();
+				long sum = 0;
+				for (int k : keys) {
+					d.addLast(k);
+					if ((k & 1) == 0) {
+						sum += d.removeFirst();
+					}
+				}
+				while (!d.isEmpty()) {
+					sum += d.removeLast();
+				}
+				return sum;
+			});
+			time("ArrayDeque<Integer> add+remove", 2 * n, () -> {
+				ArrayDeque<Integer> d = new ArrayDeque<Integer>();
+				long sum = 0;
+				for (int k : keys) {
+					d.addLast(k);
+					if ((k & 1) == 0) {
+						sum += d.removeFirst();
+					}
+				}
+				while (!d.isEmpty()) {
+					sum += d.removeLast();
+				}
+				return sum;
+			});
+			time("ObjectIntMap<String> count", n, () -> {
+				ObjectIntMap<String> m = new ObjectIntMap<String>();
+				for (String w : words) {
+					m.addTo(w, 1);
+				}
+				return m.size();
+			});
+			time("HashMap<String, Integer> count", n, () -> {
+				Map<String, Integer> m = new HashMap<String, Integer>();
+				for (String w : words) {
+					m.merge(w, 1, Integer::sum);
+				}
+				return m.size();
+			});
+		}
+	}
+
+	// Reports the heap taken by what build() makes, as well as the collector lets us tell.
+	static void footprint(String name, Supplier<Object> build) {
+		long before = usedHeap();
+		Object o = build.get();
+		long after = usedHeap();
+		System.out.printf("  %-28s %,14d bytes%n", name, after - before);
+		if (o.hashCode() == 42) {
+			System.out.println(); // Keeps o alive until after it is measured.
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	static void time(String name, int operations, Supplier<Object> work) {
+		long start = System.nanoTime();
+		Object result = work.get();
+		long nanos = System.nanoTime() - start;
+		System.out.printf("  %-34s %,14.0f (%s)%n", name, operations / (nanos / 1e9), result);
+	}
+
+	// Runs the same random operations on each collection and its java.util equivalent.
+	static void verify() {
+		Random random = new Random(7);
+		IntIntMap intMap = new IntIntMap(4);
+		Map<Integer, Integer> intReference = new HashMap<Integer, Integer>();
+		IntSet set = new IntSet(4);
+		HashSet<Integer> setReference = new HashSet<Integer>();
+		LongLongMap longMap = new LongLongMap(4);
+		Map<Long, Long> longReference = new HashMap<Long, Long>();
+		ObjectIntMap<String> counts = new ObjectIntMap<String>(4);
+		Map<String, Integer> countReference = new HashMap<String, Integer>();
+		IntArrayDeque deque = new IntArrayDeque(2);
+		ArrayDeque<Integer> dequeReference = new ArrayDeque<Integer>();
+		for (int i = 0; i < 2000000; i++) {
+			// Few distinct keys, including 0, so that removals and collisions are common.
+			int k = random.nextInt(5000) - 100;
+			int op = random.nextInt(4);
+			if (op == 0) {
+				check(intMap.remove(k, -1) == intReference.getOrDefault(k, -1), "IntIntMap.remove");
+				intReference.remove(k);
+				check(set.remove(k) == setReference.remove(k), "IntSet.remove");
+				check(longMap.remove(k * 0x100000001L, -1) == longReference.getOrDefault(k * 0x100000001L, -1L),
+						"LongLongMap.remove");
+				longReference.remove(k * 0x100000001L);
+				counts.remove("k" + k, 0);
+				countReference.remove("k" + k);
+			} else {
+				intMap.addTo(k, i);
+				intReference.merge(k, i, Integer::sum);
+				check(set.add(k) == setReference.add(k), "IntSet.add");
+				longMap.put(k * 0x100000001L, i);
+				longReference.put(k * 0x100000001L, (long) i);
+				counts.addTo("k" + k, 1);
+				countReference.merge("k" + k, 1, Integer::sum);
+			}
+			int probe = random.nextInt(5000) - 100;
+			check(intMap.get(probe, -1) == intReference.getOrDefault(probe, -1), "IntIntMap.get");
+			check(set.contains(probe) == setReference.contains(probe), "IntSet.contains");
+			check(longMap.get(probe * 0x100000001L, -1) == longReference.getOrDefault(probe * 0x100000001L, -1L),
+					"LongLongMap.get");
+			check(counts.get("k" + probe) == countReference.getOrDefault("k" + probe, 0), "ObjectIntMap.get");
+			if (random.nextBoolean()) {
+				deque.addLast(k);
+				dequeReference.addLast(k);
+			} else if (random.nextBoolean()) {
+				deque.addFirst(k);
+				dequeReference.addFirst(k);
+			} else if (!dequeReference.isEmpty()) {
+				check(deque.removeFirst() == dequeReference.removeFirst(), "IntArrayDeque.removeFirst");
+			}
+		}
+		check(intMap.size() == intReference.size() && set.size() == setReference.size()
+				&& longMap.size() == longReference.size() && counts.size() == countReference.size()
+				&& deque.size() == dequeReference.size(), "size");
+		long[] sum = new long[1];
+		intMap.forEach((key, value) -> sum[0] += value - intReference.get(key));
+		set.forEach(key -> check(setReference.contains(key), "IntSet.forEach"));
+		counts.forEach((key, value) -> sum[0] += value - countReference.get(key));
+		int[] slots = new int[1];
+		for (int slot = longMap.firstSlot(); slot >= 0; slot = longMap.nextSlot(slot)) {
+			sum[0] += longMap.valueAt(slot) - longReference.get(longMap.keyAt(slot));
+			slots[0]++;
+		}
+		check(sum[0] == 0 && slots[0] == longMap.size(), "iteration");
+		int i = 0;
+		for (int value : dequeReference) {
+			check(deque.get(i++) == value, "IntArrayDeque.get");
+		}
+		System.out.println("All operations agree with java.util");
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			throw new AssertionError(what);
+		}
+	}
+}
@@ -0,0 +1,572 @@
+package je3.ch03.io;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Not in the manual. A background index of directory listings for
+ * {@link FileLister}, so that the AWT event thread never lists, sorts or stats
+ * a directory itself.
+ * <p>
+ * Each directory is read on a pool of threads with Files.walkFileTree() to
+ * depth 1, which supplies the attributes of every entry along with its name,
+ * and the result is cached as a sorted, immutable {@link Listing}. Asking for
+ * a listing returns a CompletableFuture, already complete if the listing is
+ * cached.
+ * <p>
+ * {@link #index} walks a whole tree, each subdirectory as a separate task,
+ * and keeps a recursive size for every directory in it. A directory's total
+ * is the size of its own files plus the totals of its subdirectories; when a
+ * listing changes, only the difference is added to the directory and its
+ * ancestors, so totals grow as the walk proceeds and stay current afterwards.
+ * <p>
+ * Every directory read is registered with a WatchService. When something in
+ * it changes, only that directory is read again; subdirectories which have
+ * appeared are indexed, and those which have gone are dropped, with their
+ * totals. If a directory can't be watched, for instance because the system's
+ * limit on watches has been reached, it is still listed and indexed, but its
+ * listing is not kept up to date. Listeners are told about each new listing on
+ * the executor given to the constructor, such as EventQueue::invokeLater.
+ */
+public class DirectoryIndex implements AutoCloseable {
+	/** The sorted entries of one directory, with their attributes. */
+	public static final class Listing {
+		public final Path directory;
+		private final String[] names;
+		private final boolean[] directories, regular;
+		private final long[] sizes;
+		private final long[] modified;
+		private final boolean[] readable, writable;
+
+		Listing(Path directory, List<Entry> entries) {
+			Collections.sort(entries, (a, b) -> a.name.compareTo(b.name));
+			int n = entries.size();
+			this.directory = directory;
+			names = new String[n];
+			directories = new boolean[n];
+			regular = new boolean[n];
+			sizes = new long[n];
+			modified = new long[n];
+			readable = new boolean[n];
+			writable = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				Entry e = entries.get(i);
+				names[i] = e.name;
+				directories[i] = e.directory;
+				regular[i] = e.regular;
+				sizes[i] = e.size;
+				modified[i] = e.modified;
+				readable[i] = e.readable;
+				writable[i] = e.writable;
+			}
+		}
+
+		private Listing(Listing from, int[] keep) {
+			directory = from.directory;
+			int n = keep.length;
+			names = new String[n];
+			directories = new boolean[n];
+			regular = new boolean[n];
+			sizes = new long[n];
+			modified = new long[n];
+			readable = new boolean[n];
+			writable = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				int j = keep[i];
+				names[i] = from.names[j];
+				directories[i] = from.directories[j];
+				regular[i] = from.regular[j];
+				sizes[i] = from.sizes[j];
+				modified[i] = from.modified[j];
+				readable[i] = from.readable[j];
+				writable[i] = from.writable[j];
+			}
+		}
+
+		public int size() {
+			return names.length;
+		}
+
+		public String name(int i) {
+			return names[i];
+		}
+
+		public boolean isDirectory(int i) {
+			return directories[i];
+		}
+
+		public long length(int i) {
+			return sizes[i];
+		}
+
+		public long lastModified(int i) {
+			return modified[i];
+		}
+
+		public boolean canRead(int i) {
+			return readable[i];
+		}
+
+		public boolean canWrite(int i) {
+			return writable[i];
+		}
+
+		/** The index of name, or a negative number, as from Arrays.binarySearch(). */
+		public int indexOf(String name) {
+			return Arrays.binarySearch(names, name);
+		}
+
+		/** The total size of the regular files directly in this directory. */
+		long fileBytes() {
+			long total = 0;
+			for (int i = 0; i < names.length; i++) {
+				if (regular[i]) {
+					total += sizes[i];
+				}
+			}
+			return total;
+		}
+
+		/** The entries accepted by filter. Call it off the event thread, since filters may stat files. */
+		public Listing filter(FilenameFilter filter) {
+			if (filter == null) {
+				return this;
+			}
+			File dir = directory.toFile();
+			int[] keep = new int[names.length];
+			int n = 0;
+			for (int i = 0; i < names.length; i++) {
+				if (filter.accept(dir, names[i])) {
+					keep[n++] = i;
+				}
+			}
+			return new Listing(this, Arrays.copyOf(keep, n));
+		}
+	}
+
+	static final class Entry {
+		String name;
+		boolean directory, regular, readable, writable;
+		long size, modified;
+	}
+
+	/** The index's record of one directory. Guarded by the index's lock, except listing. */
+	static final class Node {
+		final Path path;
+		volatile Listing listing;
+		CompletableFuture<Listing> loading;
+		WatchKey key;
+		Node parent;
+		final Map<String, Node> children = new HashMap<String, Node>(); // linked subdirectories, by name
+		long own; // the files counted from its latest listing
+		long total; // own files plus linked subdirectories
+		int pending; // unfinished walk tasks in this subtree
+		int changes; // change notices, so a read can tell if it may be stale
+		boolean walked; // its subdirectories are being indexed too
+		boolean removed;
+
+		Node(Path path) {
+			this.path = path;
+		}
+	}
+
+	private final ExecutorService pool;
+	private final Executor callbacks;
+	private final WatchService watcher;
+	private final Thread watchThread;
+	private final Map<Path, Node> nodes = new ConcurrentHashMap<Path, Node>();
+	private final List<Consumer<Listing>> listeners = new CopyOnWriteArrayList<Consumer<Listing>>();
+
+	public DirectoryIndex(int threads, Executor callbacks) throws IOException {
+		this.pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "DirectoryIndex");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+		this.callbacks = callbacks;
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.watchThread = new Thread(this::watch, "DirectoryIndex watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/** Called with every listing which is read or read again. */
+	public void addListener(Consumer<Listing> listener) {
+		listeners.add(listener);
+	}
+
+	private Node node(Path directory) {
+		return nodes.computeIfAbsent(directory.toAbsolutePath().normalize(), Node::new);
+	}
+
+	/** Returns the cached listing of the directory, or null. */
+	public Listing cached(Path directory) {
+		Node node = nodes.get(directory.toAbsolutePath().normalize());
+		return node == null ? null : node.listing;
+	}
+
+	/** Returns the listing of the directory, reading it in the background if it isn't cached. */
+	public CompletableFuture<Listing> list(Path directory) {
+		Node node = node(directory);
+		Listing listing = node.listing;
+		if (listing != null) {
+			return CompletableFuture.completedFuture(listing);
+		}
+		return load(node);
+	}
+
+	/** Returns the listing filtered in the background, so the filter may stat files freely. */
+	public CompletableFuture<Listing> list(Path directory, FilenameFilter filter) {
+		return list(directory).thenApplyAsync(listing -> listing.filter(filter), pool);
+	}
+
+	private CompletableFuture<Listing> load(Node node) {
+		synchronized (this) {
+			if (node.loading == null) {
+				node.loading = CompletableFuture.supplyAsync(() -> read(node), pool);
+			}
+			return node.loading;
+		}
+	}
+
+	/** Indexes the directory and everything below it, in the background. */
+	public void index(Path root) {
+		Node node = node(root);
+		synchronized (this) {
+			if (node.walked) {
+				return;
+			}
+			node.walked = true;
+			addPending(node, 1);
+		}
+		pool.execute(() -> walk(node));
+	}
+
+	/**
+	 * Returns the total size of the files in the directory and all of its
+	 * subdirectories found so far, or -1 if it hasn't been indexed.
+	 */
+	public synchronized long totalSize(Path directory) {
+		Node node = nodes.get(directory.toAbsolutePath().normalize());
+		return node == null || !node.walked ? -1 : node.total;
+	}
+
+	/** Returns true if the directory's tree has been completely indexed. */
+	public synchronized boolean isComplete(Path directory) {
+		Node node = nodes.get(directory.toAbsolutePath().normalize());
+		return node != null && node.walked && node.pending == 0;
+	}
+
+	/** Returns the number of directories in the index. */
+	public int directories() {
+		return nodes.size();
+	}
+
+	/**
+	 * One walk task: read the directory if needed, then index its
+	 * subdirectories. It never waits for a read, since that would tie up a
+	 * pool thread which the read itself may need.
+	 */
+	private void walk(Node node) {
+		Listing cached = node.listing;
+		CompletableFuture<Listing> listing = cached != null ? CompletableFuture.completedFuture(cached) : load(node);
+		listing.whenComplete((read, failure) -> {
+			try {
+				// If the directory has vanished or is unreadable, its total stays as found.
+				if (read != null) {
+					reconcile(node, read);
+				}
+			} finally {
+				synchronized (this) {
+					addPending(node, -1);
+				}
+			}
+		});
+	}
+
+	/** Reads a directory with walkFileTree(), which hands over each entry's attributes. */
+	private Listing read(Node node) {
+		int changes;
+		synchronized (this) {
+			changes = node.changes;
+		}
+		List<Entry> entries = new ArrayList<Entry>();
+		FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				Entry e = new Entry();
+				e.name = file.getFileName().toString();
+				e.directory = attributes.isDirectory();
+				e.regular = attributes.isRegularFile();
+				e.size = attributes.size();
+				e.modified = attributes.lastModifiedTime().toMillis();
+				e.readable = Files.isReadable(file);
+				e.writable = Files.isWritable(file);
+				entries.add(e);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exception) throws IOException {
+				if (file.equals(node.path)) {
+					throw exception;
+				}
+				// Still list an entry which can't be stat'ed, as File.list() would.
+				Entry e = new Entry();
+				e.name = file.getFileName().toString();
+				entries.add(e);
+				return FileVisitResult.CONTINUE;
+			}
+		};
+		try {
+			if (!Files.isDirectory(node.path)) {
+				throw new NotDirectoryException(node.path.toString());
+			}
+			// Watch before reading, so that no change after the read can be missed.
+			synchronized (this) {
+				if (node.key == null && !node.removed) {
+					try {
+						node.key = node.path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+								StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+					} catch (IOException e) {
+						// Out of watches, most likely; the listing just won't refresh itself.
+					}
+				}
+			}
+			Files.walkFileTree(node.path, EnumSet.noneOf(FileVisitOption.class), 1, visitor);
+		} catch (IOException e) {
+			synchronized (this) {
+				node.loading = null;
+			}
+			throw new UncheckedIOException(e);
+		} catch (ClosedWatchServiceException e) {
+			// The index is closing.
+		}
+		Listing listing = new Listing(node.path, entries);
+		synchronized (this) {
+			long own = listing.fileBytes();
+			node.listing = listing;
+			node.loading = null;
+			addTotal(node, own - node.own);
+			node.own = own;
+			if (node.changes != changes) {
+				// Changed while being read, perhaps too late to be seen; read it again.
+				pool.execute(() -> refresh(node));
+			}
+		}
+		for (Consumer<Listing> listener : listeners) {
+			callbacks.execute(() -> listener.accept(listing));
+		}
+		return listing;
+	}
+
+	/**
+	 * Brings a walked directory's subdirectory nodes in line with its listing:
+	 * links and walks new ones, and drops those which have gone.
+	 */
+	private void reconcile(Node node, Listing listing) {
+		List<Node> toWalk = new ArrayList<Node>();
+		synchronized (this) {
+			if (!node.walked || node.removed || node.listing != listing) {
+				// A newer read of the directory will reconcile it.
+				return;
+			}
+			for (int i = 0; i < listing.size(); i++) {
+				if (!listing.isDirectory(i)) {
+					continue;
+				}
+				Node child = node(node.path.resolve(listing.name(i)));
+				if (child.parent != node) {
+					link(child, node);
+				}
+				if (!child.walked) {
+					child.walked = true;
+					addPending(child, 1);
+					toWalk.add(child);
+				}
+			}
+			for (Node child : new ArrayList<Node>(node.children.values())) {
+				if (!isSubdirectory(listing, child)) {
+					remove(child);
+				}
+			}
+		}
+		for (Node child : toWalk) {
+			pool.execute(() -> walk(child));
+		}
+	}
+
+	private static boolean isSubdirectory(Listing listing, Node child) {
+		int i = listing.indexOf(child.path.getFileName().toString());
+		return i >= 0 && listing.isDirectory(i);
+	}
+
+	// The following methods must be called with the index's lock held.
+
+	private void addTotal(Node node, long delta) {
+		for (Node n = node; n != null; n = n.parent) {
+			n.total += delta;
+		}
+	}
+
+	private void addPending(Node node, int delta) {
+		for (Node n = node; n != null; n = n.parent) {
+			n.pending += delta;
+		}
+	}
+
+	private void link(Node child, Node parent) {
+		unlink(child);
+		child.parent = parent;
+		parent.children.put(child.path.getFileName().toString(), child);
+		addTotal(parent, child.total);
+		addPending(parent, child.pending);
+	}
+
+	private void unlink(Node child) {
+		if (child.parent != null) {
+			addTotal(child.parent, -child.total);
+			addPending(child.parent, -child.pending);
+			child.parent.children.remove(child.path.getFileName().toString());
+			child.parent = null;
+		}
+	}
+
+	/** Drops a directory which has gone, and everything linked below it. */
+	private void remove(Node node) {
+		unlink(node);
+		List<Node> subtree = new ArrayList<Node>();
+		subtree.add(node);
+		for (int i = 0; i < subtree.size(); i++) {
+			Node n = subtree.get(i);
+			subtree.addAll(n.children.values());
+			n.removed = true;
+			if (n.key != null) {
+				n.key.cancel();
+			}
+			nodes.remove(n.path);
+		}
+	}
+
+	/** Reads a directory again, and if it's part of a walked tree, reconciles its subdirectories. */
+	private void refresh(Node node) {
+		synchronized (this) {
+			node.listing = null;
+			node.changes++;
+			if (node.walked) {
+				addPending(node, 1);
+			}
+		}
+		if (node.walked) {
+			pool.execute(() -> walk(node));
+		} else {
+			load(node);
+		}
+	}
+
+	/** The watcher thread: read again each directory whose contents change. */
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path directory = (Path) key.watchable();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					// Any event, including OVERFLOW, means the listing is out of date.
+					changed |= event.kind() != null;
+				}
+				Node node = nodes.get(directory);
+				if (!key.reset()) {
+					// The directory itself has gone; its parent's events will drop it from the tree.
+					if (node != null) {
+						synchronized (this) {
+							node.key = null;
+							node.listing = null;
+						}
+					}
+					continue;
+				}
+				if (changed && node != null && !node.removed) {
+					refresh(node);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Closed.
+		}
+	}
+
+	public void close() throws IOException {
+		pool.shutdownNow();
+		watcher.close();
+	}
+
+	/**
+	 * Indexes a tree, reports how long it took, and lists the largest
+	 * subdirectories of its root. With -watch it then stays running and
+	 * prints the root's total whenever a listing changes.
+	 */
+	public static void main(String[] args) throws Exception {
+		boolean watch = args.length > 0 && args[0].equals("-watch");
+		String root = args.length > (watch ? 1 : 0) ? args[watch ? 1 : 0] : System.getProperty("user.dir");
+		Path rootPath = Paths.get(root).toAbsolutePath().normalize();
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		try (DirectoryIndex index = new DirectoryIndex(threads, Runnable::run)) {
+			long start = System.nanoTime();
+			index.index(rootPath);
+			while (!index.isComplete(rootPath)) {
+				Thread.sleep(10);
+			}
+			System.out.printf("Indexed %,d directories, %,d bytes, in %.2f s%n", index.directories(),
+					index.totalSize(rootPath), (System.nanoTime() - start) / 1e9);
+			Listing listing = index.list(rootPath).join();
+			List<String> lines = new ArrayList<String>();
+			for (int i = 0; i < listing.size(); i++) {
+				if (listing.isDirectory(i)) {
+					long size = index.totalSize(rootPath.resolve(listing.name(i)));
+					lines.add(String.format("%,16d  %s", size, listing.name(i)));
+				}
+			}
+			Collections.sort(lines, Collections.reverseOrder());
+			for (String line : lines.subList(0, Math.min(10, lines.size()))) {
+				System.out.println(line);
+			}
+			if (watch) {
+				index.addListener(l -> System.out.printf("%s changed; %s now holds %,d bytes%n", l.directory,
+						rootPath, index.totalSize(rootPath)));
+				Thread.sleep(Long.MAX_VALUE);
+			}
+		}
+	}
+}
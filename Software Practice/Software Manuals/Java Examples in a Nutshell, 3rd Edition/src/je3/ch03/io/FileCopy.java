@@ -16,6 +16,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import je3.ch06.nio.CopyEngine;
 
 /**
  * From Java Examples in a Nutshell, 3rd Edition, pp. 64-66. This class is a
@@ -117,8 +120,7 @@ public class FileCopy {
 			}
 		}
 		/*
-		 * If we've gotten this far, then everything is okay. So we copy the file, a
-		 * buffer of bytes at a time.
+		 * If we've gotten this far, then everything is okay. So we copy the file.
 		 */
 		// Stream of bytes which will be read from a File:
 		FileInputStream fromFileInputStream = null;
@@ -129,22 +131,14 @@ public class FileCopy {
 			fromFileInputStream = new FileInputStream(fromFile);
 			// Create output stream:
 			toFileOutputStream = new FileOutputStream(toFile);
-			// Define a buffer to hold file contents:
-			byte[] buffer = new byte[4096];
-			// How many bytes are in buffer at any time:
-			int bytesRead;
-
 			/*
-			 * Read a chunk of bytes into the buffer, then write them out, looping until we
-			 * reach the end of the file (which is when read() returns -1). Note the
-			 * combination of assignment and comparison in this while loop. This is a common
-			 * I/O programming idiom.
-			 * 
+			 * Not in the manual: the file is copied with the channels' bulk transfer,
+			 * rather than by the manual's loop, which is now copyBuffered().
+			 * CopyEngine.transfer() keeps calling transferTo() until everything has been
+			 * copied, since a single call may copy less.
 			 */
-			// Read until EOF (end of file):
-			while ((bytesRead = fromFileInputStream.read(buffer)) != -1) {
-				toFileOutputStream.write(buffer, 0, bytesRead);
-			}
+			FileChannel fromChannel = fromFileInputStream.getChannel();
+			CopyEngine.transfer(fromChannel, 0, fromChannel.size(), toFileOutputStream.getChannel());
 		}
 		// Always close the streams, even if exceptions were thrown.
 		finally {
@@ -165,6 +159,30 @@ public class FileCopy {
 		}
 	}
 
+	/**
+	 * Not in the manual: the loop copy() used in the manual, which copies a
+	 * buffer of bytes at a time through the streams.
+	 */
+	static void copyBuffered(FileInputStream fromFileInputStream, FileOutputStream toFileOutputStream)
+			throws IOException {
+		// Define a buffer to hold file contents:
+		byte[] buffer = new byte[4096];
+		// How many bytes are in buffer at any time:
+		int bytesRead;
+
+		/*
+		 * Read a chunk of bytes into the buffer, then write them out, looping until we
+		 * reach the end of the file (which is when read() returns -1). Note the
+		 * combination of assignment and comparison in this while loop. This is a common
+		 * I/O programming idiom.
+		 * 
+		 */
+		// Read until EOF (end of file):
+		while ((bytesRead = fromFileInputStream.read(buffer)) != -1) {
+			toFileOutputStream.write(buffer, 0, bytesRead);
+		}
+	}
+
 	/** A convenience method to throw an exception */
 	private static void abort(String message) throws IOException {
 		throw new IOException("FileCopy: " + message);
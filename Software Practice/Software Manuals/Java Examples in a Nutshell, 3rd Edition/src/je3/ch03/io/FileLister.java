@@ -12,6 +12,7 @@ package je3.ch03.io;
 
 import java.awt.BorderLayout;
 import java.awt.Button;
+import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
@@ -27,6 +28,7 @@ import java.awt.TextField;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.util.Date;
 
@@ -37,6 +39,11 @@ import java.util.Date;
  * information about it. Double-clicking on an entry displays it, if a file, or
  * lists it if a directory. An optionally-specified FilenameFilter filters the
  * displayed list.
+ * <p>
+ * Not in the manual: directories are listed, sorted and stat'ed in the
+ * background by a {@link DirectoryIndex}, which hands finished listings back
+ * to the event thread and keeps them up to date as the directory changes.
+ * Selecting a subdirectory starts totalling the size of everything in it.
  */
 public class FileLister extends Frame implements ActionListener, ItemListener {
 
@@ -57,8 +64,10 @@ public class FileLister extends Frame implements ActionListener, ItemListener {
 	private File currentDirectory;
 	// An optional filter for the directory:
 	private FilenameFilter filter;
-	// The directory contents:
-	private String[] files;
+	// The directory contents, with their attributes:
+	private DirectoryIndex.Listing files;
+	// Lists and watches directories in the background:
+	private DirectoryIndex index;
 	// To display dates and time correctly:
 	private DateFormat dateFormatter = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
 
@@ -71,6 +80,14 @@ public class FileLister extends Frame implements ActionListener, ItemListener {
 		// Save the filter, if any:
 		this.filter = filter;
 
+		// Start the background index; finished listings come back on the event thread.
+		try {
+			index = new DirectoryIndex(4, EventQueue::invokeLater);
+		} catch (IOException e) {
+			throw new IllegalStateException("FileLister: " + e);
+		}
+		index.addListener(this::directoryChanged);
+
 		// Destroy the window when the user requests it.
 		addWindowListener(new WindowAdapter() {
 			@Override
@@ -116,8 +133,8 @@ public class FileLister extends Frame implements ActionListener, ItemListener {
 	}
 
 	/**
-	 * This method uses the list() method to get all entries in a directory and then
-	 * displays them in the List component.
+	 * This method asks the index for all entries in a directory and then displays
+	 * them in the List component, when they are ready.
 	 */
 	private void listDirectory(String directoryName) {
 		// Convert the string to a File object, and check that the directory exists.
@@ -126,61 +143,96 @@ public class FileLister extends Frame implements ActionListener, ItemListener {
 			throw new IllegalArgumentException("FileLister: no such directory");
 		}
 
-		// Get the (filtered) directory entries
-		files = targetDirectory.list(filter);
-
-		// Sort the list of filenames.
-		java.util.Arrays.sort(files);
-
-		// Remove any old entries in the list, and add the new ones
+		// Remember this directory for later, and empty the list until it's read.
+		this.currentDirectory = targetDirectory;
+		files = null;
 		list.removeAll();
 		list.add("[Up to Parent Directory]"); // A special case entry
-		for (int i = 0; i < files.length; i++) {
-			list.add(files[i]);
-		}
 
 		// Display directory name in the window title bar and in the details box.
 		this.setTitle(directoryName);
 		details.setText(directoryName);
 
-		// Remember this directory for later.
-		this.currentDirectory = targetDirectory;
+		// Get the (filtered) directory entries in the background.
+		index.list(currentPath(), filter).whenCompleteAsync(this::showListing, EventQueue::invokeLater);
+	}
+
+	/** Not in the manual. The directory currently listed, as the index names it. */
+	private Path currentPath() {
+		return currentDirectory.toPath().toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Not in the manual. Fills the List component with a finished listing, if it
+	 * is still of the directory being viewed, and keeps the selection.
+	 */
+	private void showListing(DirectoryIndex.Listing listing, Throwable failure) {
+		if (failure != null) {
+			details.setText("FileLister: " + failure.getCause());
+			return;
+		}
+		if (!listing.directory.equals(currentPath())) {
+			return;
+		}
+		String selected = list.getSelectedIndex() > 0 ? files.name(list.getSelectedIndex() - 1) : null;
+		files = listing;
+
+		// Remove any old entries in the list, and add the new ones
+		list.removeAll();
+		list.add("[Up to Parent Directory]"); // A special case entry
+		for (int i = 0; i < files.size(); i++) {
+			list.add(files.name(i));
+		}
+		if (selected != null && files.indexOf(selected) >= 0) {
+			list.select(files.indexOf(selected) + 1);
+		}
+	}
+
+	/** Not in the manual. Called by the index, on the event thread, when a listing is read again. */
+	private void directoryChanged(DirectoryIndex.Listing listing) {
+		if (files != null && listing.directory.equals(currentPath()) && listing != files) {
+			index.list(listing.directory, filter).whenCompleteAsync(this::showListing, EventQueue::invokeLater);
+		}
 	}
 
 	/**
-	 * This ItemListener method uses various File methods to obtain information
-	 * about a file or directory. Then it displays that info.
+	 * This ItemListener method gets the information about a file or directory
+	 * which the index read along with its name. Then it displays that info.
 	 **/
 	@Override
 	public void itemStateChanged(ItemEvent e) {
 		// Subtract 1 for the "Up To Parent" entry:
 		int index = list.getSelectedIndex() - 1;
-		if (index < 0) {
+		if (index < 0 || files == null) {
 			return;
 		}
 		// Get the selected entry:
-		String fileName = files[index];
-		// Convert to a parentDirectory/fileName combo:
-		File file = new File(currentDirectory, fileName);
-		// Confirm that the File exists:
-		if (file.exists() == false) {
-			throw new IllegalArgumentException("FileLister: " + "no such file or directory");
-		}
+		String fileName = files.name(index);
 
 		/*
 		 * Get the details about the file or directory, and concatenate them to a
-		 * string.
+		 * string. A directory shows the total size of everything in it, so far as
+		 * the index has counted; selecting it starts the count.
 		 */
 		String fileInfo = fileName;
-		if (file.isDirectory()) {
+		long length = files.length(index);
+		if (files.isDirectory(index)) {
 			fileInfo += File.separator;
+			Path path = currentPath().resolve(fileName);
+			this.index.index(path);
+			if (this.index.totalSize(path) >= 0) {
+				length = this.index.totalSize(path);
+				if (!this.index.isComplete(path)) {
+					fileInfo += " counting:";
+				}
+			}
 		}
-		fileInfo += " " + file.length() + " bytes ";
-		fileInfo += dateFormatter.format(new Date(file.lastModified()));
-		if (file.canRead()) {
+		fileInfo += " " + length + " bytes ";
+		fileInfo += dateFormatter.format(new Date(files.lastModified(index)));
+		if (files.canRead(index)) {
 			fileInfo += " Read";
 		}
-		if (file.canWrite()) {
+		if (files.canWrite(index)) {
 			fileInfo += " Write";
 		}
 
@@ -210,13 +262,13 @@ public class FileLister extends Frame implements ActionListener, ItemListener {
 				displayParentDirectory();
 			}
 			// Otherwise, get filename:
-			else {
-				String name = files[index - 1];
+			else if (files != null) {
+				String name = files.name(index - 1);
 				// Convert to a File:
 				File file = new File(currentDirectory, name);
 				String fullname = file.getAbsolutePath();
 				// List the directory contents:
-				if (file.isDirectory()) {
+				if (files.isDirectory(index - 1)) {
 					listDirectory(fullname);
 				}
 				// Display file:
@@ -227,6 +279,17 @@ public class FileLister extends Frame implements ActionListener, ItemListener {
 		}
 	}
 
+	/** Not in the manual. Stops the background index along with the window. */
+	@Override
+	public void dispose() {
+		super.dispose();
+		try {
+			index.close();
+		} catch (IOException e) {
+			// Nothing more to stop.
+		}
+	}
+
 	/** A convenience method to display the contents of the parent directory. */
 	private void displayParentDirectory() {
 		String parent = currentDirectory.getParent();
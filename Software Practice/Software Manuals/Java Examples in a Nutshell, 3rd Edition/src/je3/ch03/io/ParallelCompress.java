@@ -0,0 +1,691 @@
+package je3.ch03.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Not in the manual. Parallel versions of the two methods of {@link Compress},
+ * in the manner of pigz.
+ * <p>
+ * The input is read in blocks (128KB by default), and the blocks are deflated
+ * at the same time on a pool of threads. Each block is primed with the last
+ * 32KB of the block before it as a preset dictionary, and all but the last
+ * block end with a sync flush, so the compressed blocks can simply be written
+ * one after another to form a single ordinary deflate stream, which compresses
+ * almost as well as a serial one. The CRC-32 of each block is computed by its
+ * own task, and the CRCs are combined as the blocks are written. Only a few
+ * blocks per thread are in memory at once.
+ * <p>
+ * {@link #gzipFile} writes a standard single-member gzip file.
+ * {@link #zipDirectory} includes subdirectories, which Compress skips, and
+ * deflates the blocks of all its files on the pool. Since ZipOutputStream
+ * always deflates the data it is given itself, and cannot accept data which is
+ * already compressed, the zip format is written here directly: each entry has
+ * its CRC and sizes in a data descriptor after its data, and Zip64 records are
+ * used for entries and archives too large for the original format.
+ */
+public class ParallelCompress {
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+	static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private final int threads;
+	private final int blockSize;
+	private final int level;
+
+	public ParallelCompress(int threads, int blockSize, int level) {
+		this.threads = threads;
+		this.blockSize = Math.max(blockSize, DICTIONARY_SIZE);
+		this.level = level;
+	}
+
+	public ParallelCompress() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/** Gzip the contents of the from file and save in the target file. */
+	public void gzipFile(String fromFile, String toFile) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try (FileChannel in = FileChannel.open(Paths.get(fromFile), StandardOpenOption.READ);
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(toFile), 256 * 1024)) {
+			// Header: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+			out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 255 });
+			BlockWriter writer = new BlockWriter(out);
+			new BlockReader(pool, writer).read(in, null);
+			writer.drain();
+			writeInt(out, (int) writer.crc);
+			writeInt(out, (int) writer.length);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Zip the contents of the directory and all of its subdirectories, and save
+	 * it in the zip file. Entry names start with the name of the directory.
+	 */
+	public void zipDirectory(String directory, String zipFile) throws IOException, IllegalArgumentException {
+		Path root = Paths.get(directory);
+		if (!Files.isDirectory(root)) {
+			throw new IllegalArgumentException("Compress: not a directory:  " + directory);
+		}
+		List<Path> paths;
+		try (Stream<Path> walk = Files.walk(root)) {
+			paths = walk.sorted().collect(Collectors.toList());
+		}
+		Path target = Paths.get(zipFile).toAbsolutePath();
+		String prefix = root.toAbsolutePath().normalize().getFileName() + "/";
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try (ZipWriter zip = new ZipWriter(new FileOutputStream(zipFile))) {
+			BlockWriter writer = new BlockWriter(zip.out);
+			BlockReader reader = new BlockReader(pool, writer);
+			for (Path path : paths) {
+				if (path.toAbsolutePath().equals(target)) {
+					continue;
+				}
+				String name = prefix + root.relativize(path).toString().replace(File.separatorChar, '/');
+				long modified = Files.getLastModifiedTime(path).toMillis();
+				if (Files.isDirectory(path)) {
+					if (!name.endsWith("/")) {
+						name += "/";
+					}
+					writer.add(new EntryStart(zip, name, modified, true, 0));
+				} else if (Files.isRegularFile(path)) {
+					try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+						writer.add(new EntryStart(zip, name, modified, false, in.size()));
+						reader.read(in, zip);
+					}
+				}
+			}
+			writer.drain();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads a channel in blocks and submits them for compression. The blocks
+	 * of one stream are chained by their dictionaries, and the last one is
+	 * finished.
+	 */
+	class BlockReader {
+		final ExecutorService pool;
+		final BlockWriter writer;
+
+		BlockReader(ExecutorService pool, BlockWriter writer) {
+			this.pool = pool;
+			this.writer = writer;
+		}
+
+		void read(FileChannel in, ZipWriter zip) throws IOException {
+			byte[] dictionary = null;
+			ByteBuffer block = ByteBuffer.allocate(blockSize);
+			boolean last = false;
+			while (!last) {
+				while (block.hasRemaining() && in.read(block) != -1) {
+				}
+				last = block.hasRemaining() || in.position() >= in.size();
+				byte[] data = Arrays.copyOf(block.array(), block.position());
+				writer.add(pool.submit(new DeflateTask(data, dictionary, last)));
+				if (last && zip != null) {
+					writer.add(new EntryEnd(zip));
+				}
+				int tail = Math.min(DICTIONARY_SIZE, data.length);
+				dictionary = tail == 0 ? dictionary : Arrays.copyOfRange(data, data.length - tail, data.length);
+				block.clear();
+			}
+		}
+	}
+
+	/** A deflated block, with the CRC and length of its input. */
+	static class Block {
+		byte[] data;
+		int size;
+		long crc;
+		int inputLength;
+	}
+
+	private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>();
+
+	class DeflateTask implements Callable<Block> {
+		final byte[] input;
+		final byte[] dictionary;
+		final boolean last;
+
+		DeflateTask(byte[] input, byte[] dictionary, boolean last) {
+			this.input = input;
+			this.dictionary = dictionary;
+			this.last = last;
+		}
+
+		public Block call() {
+			Deflater deflater = deflaters.get();
+			if (deflater == null) {
+				deflater = new Deflater(level, true); // raw deflate, no zlib wrapper
+				deflaters.set(deflater);
+			}
+			deflater.reset();
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(input);
+			if (last) {
+				deflater.finish();
+			}
+			Block block = new Block();
+			block.data = new byte[input.length + (input.length >> 8) + 64];
+			while (true) {
+				int n = deflater.deflate(block.data, block.size, block.data.length - block.size,
+						last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				block.size += n;
+				if (last ? deflater.finished() : block.size < block.data.length) {
+					break;
+				}
+				if (block.size == block.data.length) {
+					block.data = Arrays.copyOf(block.data, block.data.length * 2);
+				}
+			}
+			CRC32 crc = new CRC32();
+			crc.update(input, 0, input.length);
+			block.crc = crc.getValue();
+			block.inputLength = input.length;
+			return block;
+		}
+	}
+
+	/**
+	 * Writes compressed blocks and zip entry markers in the order they were
+	 * added, keeping at most two blocks per thread in flight.
+	 */
+	class BlockWriter {
+		final OutputStream out;
+		final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+		int inFlight;
+		// The CRC and lengths of the current stream so far:
+		long crc, length, compressedLength;
+
+		BlockWriter(OutputStream out) {
+			this.out = out;
+		}
+
+		void add(Object item) throws IOException {
+			queue.add(item);
+			if (item instanceof Future) {
+				inFlight++;
+			}
+			while (inFlight >= threads * 2) {
+				writeNext();
+			}
+		}
+
+		void drain() throws IOException {
+			while (!queue.isEmpty()) {
+				writeNext();
+			}
+		}
+
+		private void writeNext() throws IOException {
+			Object item = queue.poll();
+			if (item instanceof EntryStart) {
+				((EntryStart) item).write();
+				crc = length = compressedLength = 0;
+			} else if (item instanceof EntryEnd) {
+				((EntryEnd) item).zip.endEntry(crc, compressedLength, length);
+			} else {
+				Block block = get((Future<?>) item);
+				inFlight--;
+				out.write(block.data, 0, block.size);
+				crc = crc32Combine(crc, block.crc, block.inputLength);
+				length += block.inputLength;
+				compressedLength += block.size;
+			}
+		}
+	}
+
+	private static Block get(Future<?> future) throws IOException {
+		try {
+			return (Block) future.get();
+		} catch (InterruptedException e) {
+			throw new java.io.InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	static class EntryStart {
+		final ZipWriter zip;
+		final String name;
+		final long modified;
+		final boolean directory;
+		final long size;
+
+		EntryStart(ZipWriter zip, String name, long modified, boolean directory, long size) {
+			this.zip = zip;
+			this.name = name;
+			this.modified = modified;
+			this.directory = directory;
+			this.size = size;
+		}
+
+		void write() throws IOException {
+			zip.startEntry(name, modified, directory, size);
+		}
+	}
+
+	static class EntryEnd {
+		final ZipWriter zip;
+
+		EntryEnd(ZipWriter zip) {
+			this.zip = zip;
+		}
+	}
+
+	/**
+	 * Writes the records of a zip file around entry data which has already been
+	 * deflated. Entries are written with a data descriptor (general purpose
+	 * flag bit 3), since the CRC is only known when the last block is written.
+	 */
+	static class ZipWriter implements AutoCloseable {
+		static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+		// Entries larger than this get Zip64 sizes, in case deflate expands them.
+		static final long ZIP64_ENTRY = 0xF0000000L;
+
+		final CountingOutputStream out;
+		final List<CentralEntry> entries = new ArrayList<CentralEntry>();
+		CentralEntry current;
+
+		static class CentralEntry {
+			byte[] name;
+			int dosTime;
+			boolean directory;
+			boolean zip64;
+			long offset, crc, compressedSize, size;
+		}
+
+		ZipWriter(OutputStream out) {
+			this.out = new CountingOutputStream(new BufferedOutputStream(out, 256 * 1024));
+		}
+
+		void startEntry(String name, long modified, boolean directory, long size) throws IOException {
+			CentralEntry entry = new CentralEntry();
+			entry.name = name.getBytes(StandardCharsets.UTF_8);
+			entry.dosTime = dosTime(modified);
+			entry.directory = directory;
+			entry.zip64 = size >= ZIP64_ENTRY;
+			entry.offset = out.count;
+			entries.add(entry);
+
+			writeInt(out, 0x04034b50);
+			writeShort(out, entry.zip64 ? 45 : 20); // version needed
+			writeShort(out, directory ? 0x0800 : 0x0808); // UTF-8 names, data descriptor
+			writeShort(out, directory ? 0 : 8); // stored or deflated
+			writeInt(out, entry.dosTime);
+			writeInt(out, 0); // CRC and sizes follow the data
+			writeInt(out, entry.zip64 ? -1 : 0);
+			writeInt(out, entry.zip64 ? -1 : 0);
+			writeShort(out, entry.name.length);
+			writeShort(out, entry.zip64 ? 20 : 0);
+			out.write(entry.name);
+			if (entry.zip64) {
+				writeShort(out, 0x0001);
+				writeShort(out, 16);
+				writeLong(out, 0);
+				writeLong(out, 0);
+			}
+			current = directory ? null : entry;
+		}
+
+		void endEntry(long crc, long compressedSize, long size) throws IOException {
+			CentralEntry entry = current;
+			entry.crc = crc;
+			entry.compressedSize = compressedSize;
+			entry.size = size;
+			writeInt(out, 0x08074b50);
+			writeInt(out, (int) crc);
+			if (entry.zip64) {
+				writeLong(out, compressedSize);
+				writeLong(out, size);
+			} else {
+				if (compressedSize >= ZIP64_LIMIT || size >= ZIP64_LIMIT) {
+					throw new IOException(new String(entry.name, StandardCharsets.UTF_8) + " grew while zipping");
+				}
+				writeInt(out, (int) compressedSize);
+				writeInt(out, (int) size);
+			}
+			current = null;
+		}
+
+		public void close() throws IOException {
+			long start = out.count;
+			for (CentralEntry entry : entries) {
+				boolean bigSizes = entry.zip64 || entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+				boolean bigOffset = entry.offset >= ZIP64_LIMIT;
+				int extra = (bigSizes ? 16 : 0) + (bigOffset ? 8 : 0);
+				writeInt(out, 0x02014b50);
+				writeShort(out, 0x0300 | 45); // made by Unix, version 4.5
+				writeShort(out, extra > 0 ? 45 : 20);
+				writeShort(out, entry.directory ? 0x0800 : 0x0808);
+				writeShort(out, entry.directory ? 0 : 8);
+				writeInt(out, entry.dosTime);
+				writeInt(out, (int) entry.crc);
+				writeInt(out, bigSizes ? -1 : (int) entry.compressedSize);
+				writeInt(out, bigSizes ? -1 : (int) entry.size);
+				writeShort(out, entry.name.length);
+				writeShort(out, extra > 0 ? extra + 4 : 0);
+				writeShort(out, 0); // comment length
+				writeShort(out, 0); // disk number
+				writeShort(out, 0); // internal attributes
+				writeInt(out, entry.directory ? 0x41ED0010 : 0x81A40000); // drwxr-xr-x or -rw-r--r--
+				writeInt(out, bigOffset ? -1 : (int) entry.offset);
+				out.write(entry.name);
+				if (extra > 0) {
+					writeShort(out, 0x0001);
+					writeShort(out, extra);
+					if (bigSizes) {
+						writeLong(out, entry.size);
+						writeLong(out, entry.compressedSize);
+					}
+					if (bigOffset) {
+						writeLong(out, entry.offset);
+					}
+				}
+			}
+			long end = out.count;
+			long count = entries.size();
+			if (count >= 0xFFFF || start >= ZIP64_LIMIT || end - start >= ZIP64_LIMIT) {
+				// Zip64 end of central directory record, and its locator
+				writeInt(out, 0x06064b50);
+				writeLong(out, 44);
+				writeShort(out, 45);
+				writeShort(out, 45);
+				writeInt(out, 0);
+				writeInt(out, 0);
+				writeLong(out, count);
+				writeLong(out, count);
+				writeLong(out, end - start);
+				writeLong(out, start);
+				writeInt(out, 0x07064b50);
+				writeInt(out, 0);
+				writeLong(out, end);
+				writeInt(out, 1);
+			}
+			writeInt(out, 0x06054b50);
+			writeShort(out, 0);
+			writeShort(out, 0);
+			writeShort(out, (int) Math.min(count, 0xFFFF));
+			writeShort(out, (int) Math.min(count, 0xFFFF));
+			writeInt(out, (int) Math.min(end - start, ZIP64_LIMIT));
+			writeInt(out, (int) Math.min(start, ZIP64_LIMIT));
+			writeShort(out, 0);
+			out.close();
+		}
+
+		static int dosTime(long millis) {
+			Calendar c = Calendar.getInstance();
+			c.setTimeInMillis(millis);
+			int year = c.get(Calendar.YEAR);
+			if (year < 1980) {
+				return (1 << 21) | (1 << 16);
+			}
+			return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+					| c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+		}
+	}
+
+	static class CountingOutputStream extends java.io.FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	static void writeShort(OutputStream out, int v) throws IOException {
+		out.write(v);
+		out.write(v >>> 8);
+	}
+
+	static void writeInt(OutputStream out, int v) throws IOException {
+		writeShort(out, v);
+		writeShort(out, v >>> 16);
+	}
+
+	static void writeLong(OutputStream out, long v) throws IOException {
+		writeInt(out, (int) v);
+		writeInt(out, (int) (v >>> 32));
+	}
+
+	/**
+	 * Returns the CRC-32 of two sequences joined together, given the CRC of
+	 * each and the length of the second. This is crc32_combine() from zlib.
+	 */
+	static long crc32Combine(long crc1, long crc2, long length2) {
+		if (length2 <= 0) {
+			return crc1;
+		}
+		long[] even = new long[32]; // even-power-of-two zeros operator
+		long[] odd = new long[32]; // odd-power-of-two zeros operator
+		odd[0] = 0xEDB88320L; // the CRC-32 polynomial
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd); // two zero bits
+		gf2MatrixSquare(odd, even); // four zero bits
+		// Apply length2 zero bytes to crc1 (the first square puts the operator
+		// for one zero byte, eight zero bits, in even).
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((length2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			length2 >>= 1;
+			if (length2 == 0) {
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if ((length2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			length2 >>= 1;
+		} while (length2 != 0);
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] matrix, long vector) {
+		long sum = 0;
+		for (int i = 0; vector != 0; i++, vector >>>= 1) {
+			if ((vector & 1) != 0) {
+				sum ^= matrix[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] matrix) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(matrix, matrix[n]);
+		}
+	}
+
+	/**
+	 * Times Compress and ParallelCompress on the same file or directory, and
+	 * checks that the parallel output decompresses to the original.
+	 * Usage: java je3.ch03.io.ParallelCompress$Benchmark <from> [threads]
+	 */
+	public static class Benchmark {
+		public static void main(String[] args) throws Exception {
+			if (args.length < 1) {
+				System.err.println("Usage: java ParallelCompress$Benchmark <from> [threads]");
+				System.exit(0);
+			}
+			File from = new File(args[0]);
+			int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+			boolean isDirectory = from.isDirectory();
+			File serialOut = File.createTempFile("serial", isDirectory ? ".zip" : ".gz");
+			File parallelOut = File.createTempFile("parallel", isDirectory ? ".zip" : ".gz");
+			try {
+				ParallelCompress compress = new ParallelCompress(threads, DEFAULT_BLOCK_SIZE,
+						Deflater.DEFAULT_COMPRESSION);
+				// Compress.zipDirectory leaves out subdirectories, so it is timed on less input.
+				long input = isDirectory ? directorySize(from.toPath(), Integer.MAX_VALUE) : from.length();
+				long serialInput = isDirectory ? directorySize(from.toPath(), 1) : input;
+				for (int round = 0; round < 3; round++) {
+					long start = System.nanoTime();
+					if (isDirectory) {
+						Compress.zipDirectory(from.getPath(), serialOut.getPath());
+					} else {
+						Compress.gzipFile(from.getPath(), serialOut.getPath());
+					}
+					report("Compress", serialInput, serialOut.length(), System.nanoTime() - start);
+
+					start = System.nanoTime();
+					if (isDirectory) {
+						compress.zipDirectory(from.getPath(), parallelOut.getPath());
+					} else {
+						compress.gzipFile(from.getPath(), parallelOut.getPath());
+					}
+					report("ParallelCompress (" + threads + ")", input, parallelOut.length(),
+							System.nanoTime() - start);
+				}
+				System.out.println(isDirectory ? verifyZip(from, parallelOut) : verifyGzip(from, parallelOut));
+			} finally {
+				serialOut.delete();
+				parallelOut.delete();
+			}
+		}
+
+		static void report(String name, long input, long output, long nanos) {
+			System.out.printf("%-24s %8.1f MB/s  %,d -> %,d bytes%n", name, input / (nanos / 1e9) / 1e6, input,
+					output);
+		}
+
+		static long directorySize(Path root, int depth) throws IOException {
+			try (Stream<Path> walk = Files.walk(root, depth)) {
+				return walk.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+			}
+		}
+
+		static String verifyGzip(File original, File gzip) throws IOException {
+			try (InputStream expected = Files.newInputStream(original.toPath());
+					InputStream actual = new GZIPInputStream(Files.newInputStream(gzip.toPath()), 65536)) {
+				return sameContents(expected, actual) ? "gzip output verified" : "gzip output DIFFERS";
+			}
+		}
+
+		static String verifyZip(File directory, File zip) throws IOException {
+			Path parent = directory.getAbsoluteFile().toPath().normalize().getParent();
+			int files = 0;
+			try (ZipFile zipFile = new ZipFile(zip)) {
+				for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements();) {
+					ZipEntry entry = e.nextElement();
+					Path path = parent.resolve(entry.getName());
+					if (entry.isDirectory() != Files.isDirectory(path)) {
+						return "zip entry type DIFFERS: " + entry.getName();
+					}
+					if (!entry.isDirectory()) {
+						try (InputStream expected = Files.newInputStream(path);
+								InputStream actual = zipFile.getInputStream(entry)) {
+							if (!sameContents(expected, actual)) {
+								return "zip entry DIFFERS: " + entry.getName();
+							}
+						}
+						files++;
+					}
+				}
+			}
+			return "zip output verified, " + files + " files";
+		}
+
+		static boolean sameContents(InputStream a, InputStream b) throws IOException {
+			byte[] bufferA = new byte[65536], bufferB = new byte[65536];
+			while (true) {
+				int n = readFully(a, bufferA);
+				int m = readFully(b, bufferB);
+				if (n != m) {
+					return false;
+				}
+				for (int i = 0; i < n; i++) {
+					if (bufferA[i] != bufferB[i]) {
+						return false;
+					}
+				}
+				if (n == 0) {
+					return true;
+				}
+			}
+		}
+
+		static int readFully(InputStream in, byte[] buffer) throws IOException {
+			int total = 0, n;
+			while (total < buffer.length && (n = in.read(buffer, total, buffer.length - total)) != -1) {
+				total += n;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Compress a file or directory in parallel. If no destination name is
+	 * specified, append .gz to a file name or .zip to a directory name.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 3) {
+			System.err.println("Usage: java ParallelCompress <from> [<to>] [threads]");
+			System.exit(0);
+		}
+		File from = new File(args[0]);
+		String to = args.length > 1 ? args[1] : args[0] + (from.isDirectory() ? ".zip" : ".gz");
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		if (new File(to).exists()) {
+			System.err.println("Compress: won't overwrite existing file: " + to);
+			System.exit(0);
+		}
+		ParallelCompress compress = new ParallelCompress(threads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+		if (from.isDirectory()) {
+			compress.zipDirectory(args[0], to);
+		} else {
+			compress.gzipFile(args[0], to);
+		}
+	}
+}
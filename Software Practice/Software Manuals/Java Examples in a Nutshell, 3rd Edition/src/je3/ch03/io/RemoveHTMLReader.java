@@ -21,8 +21,17 @@ import java.io.Reader;
  * FilterReader that strips HTML tags (or anything between pairs of angle
  * brackets) out of a stream of characters. RemoveHtmlReader is a subclass of
  * the abstract FilterReader.
+ * <p>
+ * Not in the manual: whether we are inside a tag is remembered between calls,
+ * so a tag split across two reads is still removed. See {@link HTMLTextReader}
+ * for a reader which also handles comments, scripts and entities.
  */
 public class RemoveHTMLReader extends FilterReader {
+	// Used to remember whether we are "inside" a tag, from one read to the next:
+	private boolean inTag = false;
+	// The buffer for read(), reused so a character read costs no allocation:
+	private final char[] single = new char[1];
+
 	/** A trivial constructor. Just initialize our superclass. */
 	public RemoveHTMLReader(Reader reader) {
 		super(reader);
@@ -56,8 +65,6 @@ public class RemoveHTMLReader extends FilterReader {
 			 */
 			// Index of last non-HTML char:
 			int last = startingPoint;
-			// Used to remember whether we are "inside" a tag:
-			boolean inTag = false;
 			for (int i = startingPoint; i < startingPoint + numberCharactersRead; i++) {
 				// If not in an HTML tag
 				if (inTag == false) {
@@ -91,12 +98,11 @@ public class RemoveHTMLReader extends FilterReader {
 	 **/
 	@Override
 	public int read() throws IOException {
-		char[] buffer = new char[1];
-		int result = read(buffer, 0, 1);
+		int result = read(single, 0, 1);
 		if (result == -1) {
 			return -1;
 		} else {
-			return (int) buffer[0];
+			return (int) single[0];
 		}
 	}
 
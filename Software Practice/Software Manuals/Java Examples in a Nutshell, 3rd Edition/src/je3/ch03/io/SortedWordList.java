@@ -0,0 +1,443 @@
+package je3.ch03.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Not in the manual. A read-optimized, sorted version of {@link WordList}.
+ * <p>
+ * The file keeps WordList's layout, a count and a table of positions in front
+ * of the words, but the words are sorted and unique, and the reader never
+ * seeks or reads: it memory-maps the file when it is opened, and every lookup
+ * is a binary search straight over the mapped bytes. Opening takes the same
+ * time for any size of file, since nothing is loaded until it is touched.
+ *
+ * <pre>
+ *   int   magic       (0x53574c31, "SWL1")
+ *   int   width       (4 or 8: the size of each position)
+ *   long  count
+ *   count + 1 positions, relative to the start of the words; word i is the
+ *         bytes from position i to position i+1
+ *   the words, in UTF-8, with no separators
+ * </pre>
+ *
+ * Words are sorted by their UTF-8 bytes, which is Unicode code point order.
+ * (This is also String.compareTo() order, except that supplementary
+ * characters sort after U+E000..U+FFFF.) A word may be at most 65535 bytes
+ * long, as with writeUTF().
+ * <p>
+ * {@link #build} sorts input of any size with an external merge sort: it
+ * sorts runs that fit in memory, writes each to a temporary file, and merges
+ * the runs with a priority queue, dropping duplicates.
+ */
+public class SortedWordList {
+	static final int MAGIC = 0x53574c31;
+	static final int HEADER = 16;
+	static final int MAX_WORD = 65535;
+	// Each mapping covers 1GB, plus enough overlap that no word is cut off.
+	static final int SEGMENT_BITS = 30;
+	static final long SEGMENT = 1L << SEGMENT_BITS;
+
+	/* These are the instance fields of the SortedWordList class. */
+	private MappedByteBuffer[] segments;
+	private final long count;
+	private final int width;
+	private final long wordsStart;
+
+	/** Opens a file written by {@link #build}. */
+	public SortedWordList(String filename) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			int n = (int) ((size + SEGMENT - 1) / SEGMENT);
+			segments = new MappedByteBuffer[Math.max(n, 1)];
+			for (int i = 0; i < n; i++) {
+				long start = i * SEGMENT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(size - start, SEGMENT + MAX_WORD + 8));
+				segments[i].order(ByteOrder.BIG_ENDIAN);
+			}
+			if (size < HEADER || getInt(0) != MAGIC) {
+				throw new IOException(filename + " is not a SortedWordList file");
+			}
+		}
+		// The mappings stay valid after the channel is closed.
+		width = getInt(4);
+		count = getLong(8);
+		wordsStart = HEADER + (count + 1) * width;
+	}
+
+	private int getInt(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & (SEGMENT - 1)));
+	}
+
+	private long getLong(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & (SEGMENT - 1)));
+	}
+
+	private long position(long index) {
+		long entry = HEADER + index * width;
+		return wordsStart + (width == 4 ? getInt(entry) & 0xFFFFFFFFL : getLong(entry));
+	}
+
+	// Call this method when the list is no longer needed.
+	public void close() {
+		// The mappings are released when they are garbage collected.
+		segments = null;
+	}
+
+	// Return the number of words in the list.
+	public long size() {
+		if (segments == null) {
+			throw new IllegalStateException("already closed");
+		}
+		return count;
+	}
+
+	/** Returns word number index, in sorted order. */
+	public String get(long index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		long start = position(index);
+		int length = (int) (position(index + 1) - start);
+		byte[] bytes = new byte[length];
+		MappedByteBuffer segment = segments[(int) (start >>> SEGMENT_BITS)];
+		int offset = (int) (start & (SEGMENT - 1));
+		for (int i = 0; i < length; i++) {
+			bytes[i] = segment.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares word number index with key, comparing at most limit bytes of
+	 * the word (so that a prefix can be compared with the start of a word).
+	 */
+	private int compare(long index, byte[] key, int limit) {
+		long start = position(index);
+		int length = (int) Math.min(position(index + 1) - start, limit);
+		MappedByteBuffer segment = segments[(int) (start >>> SEGMENT_BITS)];
+		int offset = (int) (start & (SEGMENT - 1));
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int difference = (segment.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length - key.length;
+	}
+
+	/** The number of words before the first word at least key (in the first limit bytes). */
+	private long lowerBound(byte[] key, int limit) {
+		long low = 0, high = size();
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (compare(middle, key, limit) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of words in the list which sort before word. This is
+	 * also the index word has, or would have if it were added.
+	 */
+	public long rank(String word) {
+		return lowerBound(word.getBytes(StandardCharsets.UTF_8), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the index of word, or (-(insertion point) - 1) if it is not in the
+	 * list, like Arrays.binarySearch().
+	 */
+	public long indexOf(String word) {
+		byte[] key = word.getBytes(StandardCharsets.UTF_8);
+		long index = lowerBound(key, Integer.MAX_VALUE);
+		if (index < size() && compare(index, key, Integer.MAX_VALUE) == 0) {
+			return index;
+		}
+		return -index - 1;
+	}
+
+	public boolean contains(String word) {
+		return indexOf(word) >= 0;
+	}
+
+	/**
+	 * Returns {from, to}: the words starting with prefix are those with indexes
+	 * from (inclusive) to to (exclusive).
+	 */
+	public long[] prefixRange(String prefix) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		long from = lowerBound(key, Integer.MAX_VALUE);
+		// Comparing only key.length bytes, every word with the prefix equals it.
+		long low = from, high = size();
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (compare(middle, key, key.length) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return new long[] { from, low };
+	}
+
+	/** Returns up to limit of the words starting with prefix, in order. */
+	public List<String> withPrefix(String prefix, int limit) {
+		long[] range = prefixRange(prefix);
+		List<String> words = new ArrayList<String>();
+		for (long i = range[0]; i < range[1] && words.size() < limit; i++) {
+			words.add(get(i));
+		}
+		return words;
+	}
+
+	/* The rest of the class builds SortedWordList files. */
+
+	/** Compares UTF-8 byte arrays as unsigned bytes: code point order. */
+	static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int difference = (a[i] & 0xff) - (b[i] & 0xff);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Writes the distinct lines of input to a SortedWordList file, in sorted
+	 * order. Blank lines are skipped. At most about runBytes of words are held
+	 * in memory at once; the rest go through temporary files, which are
+	 * deleted when done.
+	 */
+	public static void build(Reader input, String filename, long runBytes) throws IOException {
+		List<File> runs = new ArrayList<File>();
+		try {
+			BufferedReader in = new BufferedReader(input, 1 << 16);
+			List<byte[]> run = new ArrayList<byte[]>();
+			long bytes = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				byte[] word = line.getBytes(StandardCharsets.UTF_8);
+				if (word.length > MAX_WORD) {
+					throw new IOException("Word longer than " + MAX_WORD + " bytes: " + line.substring(0, 40) + "...");
+				}
+				run.add(word);
+				bytes += word.length + 32; // Count the array and list overhead too.
+				if (bytes >= runBytes) {
+					runs.add(writeRun(run));
+					run.clear();
+					bytes = 0;
+				}
+			}
+			if (!run.isEmpty() || runs.isEmpty()) {
+				runs.add(writeRun(run));
+			}
+			merge(runs, filename);
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/** Sorts the words and writes them to a temporary file, each after its length. */
+	private static File writeRun(List<byte[]> words) throws IOException {
+		byte[][] sorted = words.toArray(new byte[words.size()][]);
+		Arrays.sort(sorted, SortedWordList::compareBytes);
+		File file = File.createTempFile("wordrun", ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			for (byte[] word : sorted) {
+				out.writeShort(word.length);
+				out.write(word);
+			}
+		}
+		return file;
+	}
+
+	/** Reads one run back, a word at a time. */
+	private static class RunReader {
+		final DataInputStream in;
+		byte[] word;
+
+		RunReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			advance();
+		}
+
+		void advance() throws IOException {
+			int length;
+			try {
+				length = in.readUnsignedShort();
+			} catch (EOFException e) {
+				word = null;
+				in.close();
+				return;
+			}
+			word = new byte[length];
+			in.readFully(word);
+		}
+	}
+
+	/**
+	 * Merges the runs into the file. The words are written to one temporary file
+	 * and their positions to another, since neither has to fit in memory; then
+	 * the header, the positions and the words are joined into the result.
+	 */
+	private static void merge(List<File> runs, String filename) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(runs.size(), 1),
+				(a, b) -> compareBytes(a.word, b.word));
+		File words = File.createTempFile("words", ".tmp");
+		File positions = File.createTempFile("positions", ".tmp");
+		try {
+			long count = 0, position = 0;
+			try (DataOutputStream wordsOut = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(words), 1 << 16));
+					DataOutputStream positionsOut = new DataOutputStream(
+							new BufferedOutputStream(new FileOutputStream(positions), 1 << 16))) {
+				for (File run : runs) {
+					RunReader reader = new RunReader(run);
+					if (reader.word != null) {
+						queue.add(reader);
+					}
+				}
+				byte[] previous = null;
+				while (!queue.isEmpty()) {
+					RunReader reader = queue.poll();
+					byte[] word = reader.word;
+					if (previous == null || compareBytes(previous, word) != 0) {
+						positionsOut.writeLong(position);
+						wordsOut.write(word);
+						position += word.length;
+						count++;
+						previous = word;
+					}
+					reader.advance();
+					if (reader.word != null) {
+						queue.add(reader);
+					}
+				}
+				positionsOut.writeLong(position);
+			}
+
+			int width = position <= 0xFFFFFFFFL ? 4 : 8;
+			try (FileOutputStream file = new FileOutputStream(filename);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+					DataInputStream positionsIn = new DataInputStream(
+							new BufferedInputStream(new FileInputStream(positions), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(width);
+				out.writeLong(count);
+				for (long i = 0; i <= count; i++) {
+					long p = positionsIn.readLong();
+					if (width == 4) {
+						out.writeInt((int) p);
+					} else {
+						out.writeLong(p);
+					}
+				}
+				out.flush();
+				// Append the words with the channels' bulk transfer.
+				try (FileInputStream wordsIn = new FileInputStream(words)) {
+					FileChannel from = wordsIn.getChannel();
+					FileChannel to = file.getChannel();
+					for (long done = 0, size = from.size(); done < size;) {
+						done += from.transferTo(done, size - done, to);
+					}
+				}
+			}
+		} finally {
+			words.delete();
+			positions.delete();
+		}
+	}
+
+	/**
+	 * Builds a file from lines of words, or searches one.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("build")) {
+			long runBytes = args.length > 3 ? Long.parseLong(args[3]) << 20 : 64L << 20;
+			long start = System.nanoTime();
+			try (Reader in = new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8)) {
+				build(in, args[2], runBytes);
+			}
+			SortedWordList list = new SortedWordList(args[2]);
+			System.out.printf("%,d words in %.2f s%n", list.size(), (System.nanoTime() - start) / 1e9);
+		} else if (args.length >= 3 && args[0].equals("lookup")) {
+			SortedWordList list = new SortedWordList(args[1]);
+			for (int i = 2; i < args.length; i++) {
+				long index = list.indexOf(args[i]);
+				System.out.println(args[i] + ": " + (index >= 0 ? "index " + index : "not found, rank " + list.rank(args[i])));
+			}
+		} else if (args.length == 3 && args[0].equals("prefix")) {
+			SortedWordList list = new SortedWordList(args[1]);
+			long[] range = list.prefixRange(args[2]);
+			System.out.println((range[1] - range[0]) + " words start with \"" + args[2] + "\": "
+					+ list.withPrefix(args[2], 20));
+		} else if (args.length == 2 && args[0].equals("benchmark")) {
+			long start = System.nanoTime();
+			SortedWordList list = new SortedWordList(args[1]);
+			System.out.printf("opened in %.3f ms%n", (System.nanoTime() - start) / 1e6);
+			// Look up words which are in the list, and the same words changed slightly.
+			Random random = new Random(42);
+			String[] words = new String[10000];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = list.get((long) (random.nextDouble() * list.size()));
+				if (i % 2 == 1) {
+					words[i] += "~";
+				}
+			}
+			for (int round = 0; round < 5; round++) {
+				int found = 0;
+				start = System.nanoTime();
+				for (int repeat = 0; repeat < 100; repeat++) {
+					for (String word : words) {
+						if (list.indexOf(word) >= 0) {
+							found++;
+						}
+					}
+				}
+				double nanos = (System.nanoTime() - start) / (100.0 * words.length);
+				System.out.printf("%.0f ns per lookup, %d found%n", nanos, found);
+			}
+		} else {
+			System.err.println("Usage: java je3.ch03.io.SortedWordList build <lines> <file> [runMB]");
+			System.err.println("       java je3.ch03.io.SortedWordList lookup <file> <word>...");
+			System.err.println("       java je3.ch03.io.SortedWordList prefix <file> <prefix>");
+			System.err.println("       java je3.ch03.io.SortedWordList benchmark <file>");
+		}
+	}
+}
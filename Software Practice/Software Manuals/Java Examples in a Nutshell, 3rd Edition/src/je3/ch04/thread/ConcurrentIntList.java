@@ -0,0 +1,345 @@
+package je3.ch04.thread;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Not in the manual. An append-only list of int values for many threads at
+ * once, which, unlike {@link ThreadSafeIntList}, takes no locks.
+ * <p>
+ * The values are kept in segments which double in size, so the list grows by
+ * adding a segment and never copies. An append reserves its slots by
+ * incrementing a counter, writes its values, and then publishes them by
+ * setting their bits in the segment's bitmap. A segment is allocated in
+ * advance by the one thread whose reservation crosses the middle of the segment
+ * before, so appenders almost never find that the segment they need is still
+ * missing; if one does, it yields until it appears.
+ * <p>
+ * {@link #size} is the length of the run of published values at the start of
+ * the list, which only ever grows. Values within it never change, so
+ * {@link #get} of one is a plain array read, and a snapshot of the list, for
+ * {@link #iterator} or {@link #forEach}, is no more than its size at the time.
+ * Values are in the order their slots were reserved, so values appended by one
+ * thread keep their order.
+ */
+public class ConcurrentIntList {
+	// The size of the first segment; segment k holds FIRST << k values.
+	private static final int FIRST_BITS = 10;
+	private static final int FIRST = 1 << FIRST_BITS;
+	// The list holds no more than this:
+	private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+	private static final int SEGMENTS = 22;
+
+	/** One segment of values, and the bits which say which of them are published. */
+	static final class Segment {
+		final int[] values;
+		final AtomicLongArray published;
+
+		Segment(int length) {
+			values = new int[length];
+			published = new AtomicLongArray((length + 63) >>> 6);
+		}
+	}
+
+	private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<Segment>(SEGMENTS);
+	// Slots handed out so far:
+	private final AtomicLong reserved = new AtomicLong();
+	// A run of published values known to start the list:
+	private final AtomicInteger prefix = new AtomicInteger();
+
+	public ConcurrentIntList() {
+		segments.set(0, new Segment(FIRST));
+	}
+
+	// The segment which holds the value at index.
+	private static int segmentOf(int index) {
+		return 31 - Integer.numberOfLeadingZeros((index >>> FIRST_BITS) + 1);
+	}
+
+	// The index of the first value in segment k.
+	private static int base(int k) {
+		return (int) ((((long) 1 << k) - 1) << FIRST_BITS);
+	}
+
+	private static int length(int k) {
+		return (int) Math.min((long) FIRST << k, (long) MAX_SIZE - base(k));
+	}
+
+	// Returns segment k, waiting for the thread which allocates it if it isn't there yet.
+	private Segment segment(int k) {
+		Segment segment;
+		while ((segment = segments.get(k)) == null) {
+			Thread.yield();
+		}
+		return segment;
+	}
+
+	/** Append a value to the list. */
+	public void add(int value) {
+		int index = reserve(1);
+		int k = segmentOf(index);
+		Segment segment = segment(k);
+		int offset = index - base(k);
+		segment.values[offset] = value;
+		long bit = 1L << offset;
+		segment.published.getAndAccumulate(offset >>> 6, bit, (word, b) -> word | b);
+	}
+
+	/** Append all the values in an array, one after another. */
+	public void addAll(int[] values) {
+		addAll(values, 0, values.length);
+	}
+
+	/** Append count values from an array, one after another. */
+	public void addAll(int[] values, int offset, int count) {
+		if (offset < 0 || count < 0 || count > values.length - offset) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (count == 0) {
+			return;
+		}
+		int index = reserve(count);
+		int end = index + count;
+		while (index < end) {
+			int k = segmentOf(index);
+			Segment segment = segment(k);
+			int start = index - base(k);
+			int n = Math.min(end - index, segment.values.length - start);
+			System.arraycopy(values, offset, segment.values, start, n);
+			publish(segment, start, start + n);
+			index += n;
+			offset += n;
+		}
+	}
+
+	/*
+	 * Reserves count slots, and allocates any segment whose turn to be allocated
+	 * falls among them. Allocating never waits for anything, so no thread can
+	 * wait for a segment which will never appear.
+	 */
+	private int reserve(int count) {
+		long start = reserved.getAndAdd(count);
+		if (start + count > MAX_SIZE) {
+			throw new IllegalStateException("ConcurrentIntList: full");
+		}
+		long end = start + count;
+		for (int k = segmentOf((int) start) + 1; k < SEGMENTS; k++) {
+			// Segment k is allocated by whoever reserves the middle slot of segment k - 1.
+			long trigger = base(k - 1) + (length(k - 1) >>> 1);
+			if (trigger >= end) {
+				break;
+			}
+			if (trigger >= start) {
+				segments.compareAndSet(k, null, new Segment(length(k)));
+			}
+		}
+		return (int) start;
+	}
+
+	// Sets the bits of values[from..to) in a segment.
+	private static void publish(Segment segment, int from, int to) {
+		while (from < to) {
+			int word = from >>> 6;
+			int last = Math.min(to, (word + 1) << 6);
+			long bits = (-1L >>> (64 - (last - from))) << from;
+			segment.published.getAndAccumulate(word, bits, (w, b) -> w | b);
+			from = last;
+		}
+	}
+
+	private static boolean isPublished(Segment segment, int offset) {
+		return (segment.published.get(offset >>> 6) & (1L << offset)) != 0;
+	}
+
+	/**
+	 * Return the number of values at the start of the list which have been
+	 * published. Values still being appended after a gap aren't counted yet.
+	 */
+	public int size() {
+		int n = prefix.get();
+		long limit = Math.min(reserved.get(), MAX_SIZE);
+		while (n < limit) {
+			int k = segmentOf(n);
+			Segment segment = segments.get(k);
+			if (segment == null) {
+				break;
+			}
+			int offset = n - base(k);
+			long unpublished = ~segment.published.get(offset >>> 6) >>> (offset & 63);
+			if (unpublished != 0) {
+				n += Long.numberOfTrailingZeros(unpublished);
+				break;
+			}
+			n += 64 - (offset & 63);
+		}
+		n = (int) Math.min(n, limit);
+		return prefix.accumulateAndGet(n, Math::max);
+	}
+
+	/** Return the value at index, if it has been published. */
+	public int get(int index) {
+		if (index >= 0 && index < prefix.get()) {
+			int k = segmentOf(index);
+			return segments.get(k).values[index - base(k)];
+		}
+		if (index >= 0 && index < reserved.get()) {
+			int k = segmentOf(index);
+			Segment segment = segments.get(k);
+			if (segment != null && isPublished(segment, index - base(k))) {
+				return segment.values[index - base(k)];
+			}
+		}
+		throw new IndexOutOfBoundsException(String.valueOf(index));
+	}
+
+	/** Copy the values the list holds now into a new array, and return it. */
+	public int[] toArray() {
+		int size = size();
+		int[] copy = new int[size];
+		for (int k = 0, index = 0; index < size; k++) {
+			int n = Math.min(size - index, length(k));
+			System.arraycopy(segments.get(k).values, 0, copy, index, n);
+			index += n;
+		}
+		return copy;
+	}
+
+	/** Pass each of the values the list holds now to action, in order. */
+	public void forEach(IntConsumer action) {
+		int size = size();
+		for (int k = 0, index = 0; index < size; k++) {
+			int[] values = segments.get(k).values;
+			int n = Math.min(size - index, values.length);
+			for (int i = 0; i < n; i++) {
+				action.accept(values[i]);
+			}
+			index += n;
+		}
+	}
+
+	/** Return an iterator over the values the list holds now. Values appended later aren't seen. */
+	public PrimitiveIterator.OfInt iterator() {
+		final int size = size();
+		return new PrimitiveIterator.OfInt() {
+			int index = 0;
+			int k = 0;
+			int[] values = segments.get(0).values;
+			int offset = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public int nextInt() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				if (offset == values.length) {
+					values = segments.get(++k).values;
+					offset = 0;
+				}
+				index++;
+				return values[offset++];
+			}
+		};
+	}
+
+	/**
+	 * Appends from 1, 4, 16 and 64 threads at once, to a ThreadSafeIntList and to
+	 * a ConcurrentIntList, one value at a time and in batches of 64, checks that
+	 * every value arrived once, and reports the rate of appends.
+	 */
+	public static class Benchmark {
+		interface Appender {
+			void append(int thread, int perThread);
+		}
+
+		public static void main(String[] args) throws Exception {
+			int total = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 22;
+			int[] threadCounts = { 1, 4, 16, 64 };
+			for (int round = 0; round < 2; round++) {
+				for (int threads : threadCounts) {
+					int perThread = total / threads;
+					ThreadSafeIntList locked = new ThreadSafeIntList();
+					run("ThreadSafeIntList.add", threads, perThread, (t, n) -> {
+						for (int i = 0; i < n; i++) {
+							locked.add(t * perThread + i);
+						}
+					});
+					if (locked.size() != threads * perThread) {
+						throw new AssertionError("ThreadSafeIntList lost values");
+					}
+
+					ConcurrentIntList list = new ConcurrentIntList();
+					run("ConcurrentIntList.add", threads, perThread, (t, n) -> {
+						for (int i = 0; i < n; i++) {
+							list.add(t * perThread + i);
+						}
+					});
+					check(list, threads * perThread);
+
+					ConcurrentIntList batched = new ConcurrentIntList();
+					run("ConcurrentIntList.addAll", threads, perThread, (t, n) -> {
+						int[] batch = new int[64];
+						for (int i = 0; i < n; i += batch.length) {
+							int count = Math.min(batch.length, n - i);
+							for (int j = 0; j < count; j++) {
+								batch[j] = t * perThread + i + j;
+							}
+							batched.addAll(batch, 0, count);
+						}
+					});
+					check(batched, threads * perThread);
+				}
+			}
+		}
+
+		static void run(String name, int threads, int perThread, Appender appender) throws InterruptedException {
+			CountDownLatch ready = new CountDownLatch(threads);
+			CountDownLatch go = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(threads);
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				new Thread(() -> {
+					ready.countDown();
+					try {
+						go.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					appender.append(thread, perThread);
+					done.countDown();
+				}).start();
+			}
+			ready.await();
+			long start = System.nanoTime();
+			go.countDown();
+			done.await();
+			long nanos = System.nanoTime() - start;
+			System.out.printf("%-26s %2d threads: %,14.0f appends/s%n", name, threads,
+					(double) threads * perThread / (nanos / 1e9));
+		}
+
+		// Every value 0..count-1 must be there exactly once.
+		static void check(ConcurrentIntList list, int count) {
+			if (list.size() != count) {
+				throw new AssertionError("size " + list.size() + ", expected " + count);
+			}
+			boolean[] seen = new boolean[count];
+			list.forEach(value -> {
+				if (seen[value]) {
+					throw new AssertionError("duplicate " + value);
+				}
+				seen[value] = true;
+			});
+		}
+	}
+}
@@ -20,8 +20,8 @@ package je3.ch04.thread;
  */
 public abstract class TimerTask implements Runnable {
 
-	// Has it been cancelled?
-	boolean cancelled = false;
+	// Has it been cancelled? Volatile, since other threads may cancel it.
+	volatile boolean cancelled = false;
 	// When is it next scheduled?
 	long nextTime = -1;
 	// What is the execution interval?
@@ -30,6 +30,15 @@ public abstract class TimerTask implements Runnable {
 	// Such tasks start some specified interval after the start of the previous.
 	boolean fixedRate;
 
+	/*
+	 * Not in the manual. Used by WheelTimer: the next task in the same wheel
+	 * bucket or submission stack, the turns of the wheel still to pass before it
+	 * is due, and the Runnable which runs it on the timer's executor.
+	 */
+	TimerTask next;
+	long rounds;
+	Runnable dispatch;
+
 	protected TimerTask() {
 	}
 
@@ -0,0 +1,455 @@
+package je3.ch04.thread;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import je3.ch05.net.LatencyHistogram;
+
+/**
+ * Not in the manual. A timer with the API of {@link Timer}, built as a hashed
+ * timing wheel, for programs which schedule and cancel very many tasks, such
+ * as timeouts.
+ * <p>
+ * Time is divided into ticks (10ms by default), and the wheel is an array of
+ * buckets, one per tick, which it visits in turn. A task is put in the bucket
+ * of the tick at which it falls due, with a count of the whole turns of the
+ * wheel still to pass before then, so scheduling costs the same however many
+ * tasks there are. Cancelling a task only sets its flag; it is dropped when
+ * the wheel next reaches its bucket.
+ * <p>
+ * Only the wheel's own thread touches the buckets. Other threads hand it tasks
+ * through a lock-free stack, linked through the tasks themselves, which it
+ * empties at each tick. Tasks which fall due are run on the given Executor, so
+ * a slow task delays no others, or on the wheel's thread if there is none.
+ * <p>
+ * A task runs no earlier than it is due, and no more than a tick late plus
+ * however late the wheel itself is. {@link #getTickLateness} and
+ * {@link #getTaskLateness} report how late the ticks and the tasks have been.
+ */
+public class WheelTimer {
+	private final long tickNanos;
+	private final TimerTask[] wheel;
+	private final int mask;
+	private final Executor executor;
+	private final WheelThread wheelThread;
+
+	// Tasks scheduled by other threads, waiting to go into the wheel:
+	private final AtomicReference<TimerTask> submitted = new AtomicReference<TimerTask>();
+
+	// When tick 0 began, on both clocks:
+	private final long startNanos;
+	private final long startMillis;
+
+	// Lateness, recorded by the wheel thread and copied out by others:
+	private final LatencyHistogram tickLateness = new LatencyHistogram();
+	private final LatencyHistogram taskLateness = new LatencyHistogram();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+
+	/** Creates a timer with 10ms ticks and 512 buckets, running tasks on a non-daemon thread of its own. */
+	public WheelTimer() {
+		this(10, TimeUnit.MILLISECONDS, 512, null, false);
+	}
+
+	/**
+	 * The main constructor. wheelSize is rounded up to a power of two. If
+	 * executor is null, tasks are run on the wheel's thread, as Timer runs them.
+	 */
+	public WheelTimer(long tick, TimeUnit unit, int wheelSize, Executor executor, boolean isDaemon) {
+		if (tick <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException("WheelTimer: tick and wheelSize must be positive");
+		}
+		this.tickNanos = Math.max(unit.toNanos(tick), 1);
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize) {
+			size <<= 1;
+		}
+		this.wheel = new TimerTask[size];
+		this.mask = size - 1;
+		this.executor = executor;
+		this.startMillis = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
+		wheelThread = new WheelThread(isDaemon);
+		wheelThread.start();
+	}
+
+	/** Stop the wheel thread, and discard all scheduled tasks. */
+	public void cancel() {
+		wheelThread.pleaseStop();
+		LockSupport.unpark(wheelThread);
+	}
+
+	/** Schedule a single execution after delay milliseconds. */
+	public void schedule(TimerTask timerTask, long delay) {
+		timerTask.schedule(System.currentTimeMillis() + delay, 0, false);
+		schedule(timerTask);
+	}
+
+	/** Schedule a single execution at the specified time. */
+	public void schedule(TimerTask timerTask, Date time) {
+		timerTask.schedule(time.getTime(), 0, false);
+		schedule(timerTask);
+	}
+
+	/** Schedule a periodic execution starting at the specified time. */
+	public void schedule(TimerTask timerTask, Date firstTime, long period) {
+		timerTask.schedule(firstTime.getTime(), period, false);
+		schedule(timerTask);
+	}
+
+	/** Schedule a periodic execution starting after the specified delay. */
+	public void schedule(TimerTask timerTask, long delay, long period) {
+		timerTask.schedule(System.currentTimeMillis() + delay, period, false);
+		schedule(timerTask);
+	}
+
+	/** Schedule a fixed-rate periodic execution starting after the specified delay. */
+	public void scheduleAtFixedRate(TimerTask timerTask, long delay, long period) {
+		timerTask.schedule(System.currentTimeMillis() + delay, period, true);
+		schedule(timerTask);
+	}
+
+	/** Schedule a fixed-rate periodic execution starting at the specified time. */
+	public void scheduleAtFixedRate(TimerTask task, Date firstTime, long period) {
+		task.schedule(firstTime.getTime(), period, true);
+		schedule(task);
+	}
+
+	// Pushes a task onto the submission stack, for the wheel thread to pick up.
+	void schedule(TimerTask timerTask) {
+		if (wheelThread.stopped) {
+			throw new IllegalStateException("WheelTimer: cancelled");
+		}
+		TimerTask head;
+		do {
+			head = submitted.get();
+			timerTask.next = head;
+		} while (!submitted.compareAndSet(head, timerTask));
+	}
+
+	/** Returns how late the wheel thread has been in starting each tick, in nanoseconds. */
+	public LatencyHistogram getTickLateness() {
+		LatencyHistogram copy = new LatencyHistogram();
+		synchronized (tickLateness) {
+			copy.add(tickLateness);
+		}
+		return copy;
+	}
+
+	/** Returns how long after its scheduled time each task has been handed to the executor, in nanoseconds. */
+	public LatencyHistogram getTaskLateness() {
+		LatencyHistogram copy = new LatencyHistogram();
+		synchronized (taskLateness) {
+			copy.add(taskLateness);
+		}
+		return copy;
+	}
+
+	/** Returns the number of times tasks have fallen due and been run. */
+	public long getExpiredCount() {
+		return expired.get();
+	}
+
+	/** Returns the number of cancelled tasks dropped from the wheel. */
+	public long getDiscardedCount() {
+		return discarded.get();
+	}
+
+	/** The thread which turns the wheel. */
+	class WheelThread extends Thread {
+		volatile boolean stopped = false;
+		// The tick being processed; only this thread uses it.
+		long tick = 0;
+
+		WheelThread(boolean isDaemon) {
+			super("WheelTimer");
+			setDaemon(isDaemon);
+		}
+
+		void pleaseStop() {
+			stopped = true;
+		}
+
+		@Override
+		public void run() {
+			while (stopped == false) {
+				// Sleep until this tick has ended, in case a task falls due at its very end.
+				long deadline = startNanos + (tick + 1) * tickNanos;
+				long now;
+				while ((now = System.nanoTime()) < deadline && stopped == false) {
+					LockSupport.parkNanos(deadline - now);
+				}
+				if (stopped) {
+					break;
+				}
+				synchronized (tickLateness) {
+					tickLateness.record(now - deadline);
+				}
+				transferSubmitted();
+				expire((int) (tick & mask), now);
+				tick++;
+			}
+			// Discard everything:
+			java.util.Arrays.fill(wheel, null);
+			submitted.set(null);
+		}
+
+		// Moves the tasks other threads have submitted into their buckets.
+		private void transferSubmitted() {
+			TimerTask task = submitted.getAndSet(null);
+			while (task != null) {
+				TimerTask following = task.next;
+				if (task.cancelled) {
+					task.next = null;
+					discarded.incrementAndGet();
+				} else {
+					place(task, tick);
+				}
+				task = following;
+			}
+		}
+
+		/*
+		 * Puts a task in the bucket for the tick at which it falls due, or the
+		 * earliest tick given if that has passed. The earliest tick is the first
+		 * the wheel has still to visit: this one, or the next while this one's
+		 * bucket is being expired, so the whole turns are counted from there.
+		 */
+		void place(TimerTask task, long earliest) {
+			long dueNanos = (task.nextTime - startMillis) * 1000000L;
+			long dueTick = Math.max(earliest, (dueNanos + tickNanos - 1) / tickNanos - 1);
+			task.rounds = (dueTick - earliest) >> Integer.numberOfTrailingZeros(wheel.length);
+			int bucket = (int) (dueTick & mask);
+			task.next = wheel[bucket];
+			wheel[bucket] = task;
+		}
+
+		// Runs the tasks in a bucket which are due on this turn, and drops the cancelled ones.
+		private void expire(int bucket, long now) {
+			TimerTask task = wheel[bucket];
+			wheel[bucket] = null;
+			TimerTask keep = null;
+			while (task != null) {
+				TimerTask following = task.next;
+				task.next = null;
+				if (task.cancelled) {
+					discarded.incrementAndGet();
+				} else if (task.rounds > 0) {
+					task.rounds--;
+					task.next = keep;
+					keep = task;
+				} else {
+					synchronized (taskLateness) {
+						long late = now - startNanos - (task.nextTime - startMillis) * 1000000L;
+						taskLateness.record(Math.max(late, 0));
+					}
+					dispatch(task);
+				}
+				task = following;
+			}
+			// Periodic tasks run on this thread may have been put back in the same bucket.
+			while (keep != null) {
+				TimerTask following = keep.next;
+				keep.next = wheel[bucket];
+				wheel[bucket] = keep;
+				keep = following;
+			}
+		}
+	}
+
+	// Runs a task that has fallen due, on the executor if there is one.
+	private void dispatch(TimerTask task) {
+		expired.incrementAndGet();
+		if (executor == null) {
+			// The bucket being expired is this tick's, so the earliest it can go back in is the next.
+			if (runTask(task)) {
+				wheelThread.place(task, wheelThread.tick + 1);
+			}
+			return;
+		}
+		if (task.dispatch == null) {
+			task.dispatch = () -> {
+				if (runTask(task)) {
+					schedule(task);
+				}
+			};
+		}
+		executor.execute(task.dispatch);
+	}
+
+	// Runs a task, and returns true if it wants to run again.
+	private boolean runTask(TimerTask task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			// Unlike Timer, one failing task doesn't stop the others.
+			e.printStackTrace();
+			return false;
+		}
+		return task.reschedule() && wheelThread.stopped == false;
+	}
+
+	/**
+	 * Timer's test program, run on a WheelTimer with a pool of two threads: it
+	 * prints "boom" every half-second and "BOOM" every two seconds, cancels them,
+	 * counts down and stops.
+	 */
+	public static class Test {
+		public static void main(String[] args) {
+			ExecutorService pool = Executors.newFixedThreadPool(2);
+			final WheelTimer timer = new WheelTimer(10, TimeUnit.MILLISECONDS, 64, pool, false);
+			final TimerTask boom = new TimerTask() {
+				@Override
+				public void run() {
+					System.out.println("boom");
+				}
+			};
+			final TimerTask bigBoom = new TimerTask() {
+				@Override
+				public void run() {
+					System.out.println("\tBOOM");
+				}
+			};
+			timer.schedule(boom, 0, 500);
+			timer.schedule(bigBoom, 2000, 2000);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					System.out.println("Time to cancel the threads");
+					boom.cancel();
+					bigBoom.cancel();
+				}
+			}, 5000);
+			timer.scheduleAtFixedRate(new TimerTask() {
+				public int times = 5;
+
+				@Override
+				public void run() {
+					System.out.println(times--);
+					if (times == 0) {
+						System.out.println("Now the timer itself is cancelling");
+						System.out.println("Tick lateness: " + timer.getTickLateness());
+						System.out.println("Task lateness: " + timer.getTaskLateness());
+						timer.cancel();
+						pool.shutdown();
+					}
+				}
+			}, 5500, 500);
+		}
+	}
+
+	/**
+	 * Schedules timeouts from several threads, as a server does for its
+	 * requests, with delays of up to a second, and cancels nine in ten of them
+	 * before they fall due, as a request which completes cancels its timeout.
+	 * Reports the rate at which timeouts were scheduled and cancelled, and how
+	 * late the rest ran, for a WheelTimer and for a ScheduledThreadPoolExecutor,
+	 * whose queue is a heap. (Timer's sorted set treats tasks due in the same
+	 * millisecond as the same task, so it can't be compared.)
+	 */
+	public static class Benchmark {
+		static final int THREADS = 4;
+
+		public static void main(String[] args) throws Exception {
+			int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 250000;
+			for (int round = 0; round < 3; round++) {
+				benchmarkWheel(perThread);
+				benchmarkHeap(perThread);
+			}
+		}
+
+		static final class Timeout extends TimerTask {
+			final long due;
+			final LatencyHistogram lateness;
+
+			Timeout(long delay, LatencyHistogram lateness) {
+				this.due = System.nanoTime() + delay * 1000000L;
+				this.lateness = lateness;
+			}
+
+			@Override
+			public void run() {
+				long late = System.nanoTime() - due;
+				synchronized (lateness) {
+					lateness.record(Math.max(late, 0));
+				}
+			}
+		}
+
+		static void benchmarkWheel(int perThread) throws Exception {
+			ExecutorService pool = Executors.newFixedThreadPool(2);
+			WheelTimer timer = new WheelTimer(10, TimeUnit.MILLISECONDS, 512, pool, true);
+			LatencyHistogram lateness = new LatencyHistogram();
+			long nanos = run(perThread, (random) -> {
+				Timeout timeout = new Timeout(random.nextInt(1000), lateness);
+				timer.schedule(timeout, (timeout.due - System.nanoTime()) / 1000000L);
+				return timeout::cancel;
+			});
+			Thread.sleep(1200);
+			timer.cancel();
+			pool.shutdown();
+			report("WheelTimer", perThread, nanos, lateness);
+			System.out.println("  ticks: " + timer.getTickLateness());
+		}
+
+		static void benchmarkHeap(int perThread) throws Exception {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+			executor.setRemoveOnCancelPolicy(true);
+			LatencyHistogram lateness = new LatencyHistogram();
+			long nanos = run(perThread, (random) -> {
+				Timeout timeout = new Timeout(random.nextInt(1000), lateness);
+				ScheduledFuture<?> future = executor.schedule(timeout, timeout.due - System.nanoTime(),
+						TimeUnit.NANOSECONDS);
+				return () -> future.cancel(false);
+			});
+			Thread.sleep(1200);
+			executor.shutdownNow();
+			report("ScheduledThreadPoolExecutor", perThread, nanos, lateness);
+		}
+
+		interface Scheduler {
+			Runnable schedule(Random random);
+		}
+
+		// Each thread schedules timeouts and cancels nine in ten of them a few schedules later.
+		static long run(int perThread, Scheduler scheduler) throws InterruptedException {
+			CountDownLatch done = new CountDownLatch(THREADS);
+			long start = System.nanoTime();
+			for (int t = 0; t < THREADS; t++) {
+				final long seed = t;
+				new Thread(() -> {
+					Random random = new Random(seed);
+					Runnable[] recent = new Runnable[16];
+					for (int i = 0; i < perThread; i++) {
+						Runnable cancel = recent[i & 15];
+						if (cancel != null && i % 10 != 0) {
+							cancel.run();
+						}
+						recent[i & 15] = scheduler.schedule(random);
+					}
+					done.countDown();
+				}).start();
+			}
+			done.await();
+			return System.nanoTime() - start;
+		}
+
+		static void report(String name, int perThread, long nanos, LatencyHistogram lateness) {
+			double rate = (double) perThread * THREADS / (nanos / 1e9);
+			synchronized (lateness) {
+				System.out.printf("%-28s %,12.0f schedules/s  ran %,d late by %s%n", name, rate,
+						lateness.getCount(), lateness);
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package je3.ch05.net;
+
+/**
+ * Not in the manual. A fixed-size, log-linear histogram of latencies in
+ * nanoseconds, in the spirit of HdrHistogram. Each power of two is divided
+ * into 128 sub-buckets, so any recorded value is reported to within about 1%,
+ * from one nanosecond up to Long.MAX_VALUE, in about 60KB of counters.
+ * <p>
+ * Recording is not synchronized. Give each thread its own histogram and
+ * combine them with {@link #add(LatencyHistogram)} when done.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long totalCount;
+	private long total;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	static int indexFor(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/** The largest value which maps to the given bucket, at most Long.MAX_VALUE. */
+	static long highestValueAt(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long top = index % SUB_BUCKETS + SUB_BUCKETS;
+		if (Long.numberOfLeadingZeros(top + 1) <= shift) {
+			// The bound is 2^63 or more, past the largest long.
+			return Long.MAX_VALUE;
+		}
+		return ((top + 1) << shift) - 1;
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[indexFor(value)]++;
+		totalCount++;
+		total += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/** Adds all the values recorded in another histogram to this one. */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		total += other.total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	public void reset() {
+		java.util.Arrays.fill(counts, 0L);
+		totalCount = total = max = 0;
+		min = Long.MAX_VALUE;
+	}
+
+	public long getCount() {
+		return totalCount;
+	}
+
+	public long getMin() {
+		return totalCount == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return totalCount == 0 ? 0 : (double) total / totalCount;
+	}
+
+	/**
+	 * Returns the value at the given percentile (0.0 - 100.0). The result is
+	 * the upper bound of the bucket holding that value, capped at the largest
+	 * value recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+		rank = Math.max(1, Math.min(rank, totalCount));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), max);
+			}
+		}
+		return max;
+	}
+
+	/** Formats a nanosecond value in the most readable unit. */
+	public static String format(long nanos) {
+		if (nanos < 10_000L) {
+			return nanos + "ns";
+		} else if (nanos < 10_000_000L) {
+			return String.format("%.1fus", nanos / 1e3);
+		} else if (nanos < 10_000_000_000L) {
+			return String.format("%.1fms", nanos / 1e6);
+		}
+		return String.format("%.2fs", nanos / 1e9);
+	}
+
+	public String toString() {
+		return "n=" + totalCount + " mean=" + format((long) getMean()) + " p50=" + format(getValueAtPercentile(50))
+				+ " p99=" + format(getValueAtPercentile(99)) + " p99.9=" + format(getValueAtPercentile(99.9))
+				+ " max=" + format(max);
+	}
+
+	/**
+	 * Checks that every bucket's upper bound is a positive long, no less than
+	 * the bounds below it and no less than the values mapped to it, and that
+	 * values in the highest buckets, up to Long.MAX_VALUE, are reported as
+	 * themselves.
+	 */
+	public static class Test {
+		public static void main(String[] args) {
+			long previous = -1;
+			for (int i = 0; i < BUCKETS; i++) {
+				long bound = highestValueAt(i);
+				if (bound < previous) {
+					throw new AssertionError("bucket " + i + ": bound " + bound + " below " + previous);
+				}
+				previous = bound;
+			}
+			long[] values = { Long.MAX_VALUE, Long.MAX_VALUE - 1, 1L << 62, (1L << 62) - 1, 255, 256, 1 };
+			for (long value : values) {
+				int index = indexFor(value);
+				if (highestValueAt(index) < value) {
+					throw new AssertionError(value + ": bucket " + index + " ends at " + highestValueAt(index));
+				}
+				LatencyHistogram h = new LatencyHistogram();
+				h.record(value);
+				if (h.getValueAtPercentile(50) != value || h.getValueAtPercentile(100) != value) {
+					throw new AssertionError(value + " reported as " + h.getValueAtPercentile(100));
+				}
+			}
+			System.out.println("highest bucket ends at " + highestValueAt(BUCKETS - 1) + "; all checks passed");
+		}
+	}
+}
@@ -0,0 +1,519 @@
+package je3.ch05.net;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Not in the manual. A load generator for the socket servers in this project
+ * (the {@link Server} services, DaytimeServer, and the Learning Java httpd
+ * examples). It opens a number of concurrent connections, driven by one
+ * Selector per thread rather than a thread per connection, and runs a small
+ * request script over each of them at a target rate.
+ * <p>
+ * Latency is measured from the time each transaction was <i>scheduled</i> to
+ * start, not the time it was actually sent. If the server stalls, requests
+ * queued behind the stall are charged for the time they spent waiting, which
+ * corrects for "coordinated omission." The uncorrected service time is
+ * reported alongside for comparison. With a rate of 0 the generator runs
+ * closed-loop, as fast as the server answers, and the two should agree.
+ * <p>
+ * A script file has one step per line:
+ *
+ * <pre>
+ *   send &lt;text&gt;        Send the text; \r, \n, \t and \\ are unescaped.
+ *   expect eof          Read until the server closes the connection.
+ *   expect line         Read through the next newline.
+ *   expect bytes &lt;n&gt;   Read n bytes.
+ *   expect text &lt;text&gt;  Read until the text has been seen.
+ *   close               Reconnect for every transaction.
+ * </pre>
+ *
+ * Blank lines and lines starting with # are ignored. Without a script, the
+ * generator reads one line and closes, which suits the Time service and
+ * DaytimeServer. The -http option builds a one-request HTTP/1.0 script. For
+ * example, to drive the Time service at 5000 transactions per second:
+ *
+ * <pre>
+ *   java je3.ch05.net.Server je3.ch05.net.Server$Time 2726
+ *   java je3.ch05.net.LoadGenerator -c 50 -r 5000 -d 10 localhost 2726
+ * </pre>
+ */
+public class LoadGenerator {
+
+	public static final String usage = "Usage: java LoadGenerator [-c <connections>] [-t <threads>] "
+			+ "[-r <transactions/sec>] [-d <seconds>] [-w <warmup seconds>] [-script <file> | -http <path>] "
+			+ "<host> <port>";
+
+	/** One step of a request script: optional bytes to send, then what to read back. */
+	static class Step {
+		static final int NONE = 0, EOF = 1, LINE = 2, BYTES = 3, TEXT = 4;
+
+		byte[] send;
+		int expect = NONE;
+		int count;
+		byte[] text;
+		int[] failure; // KMP failure function for text
+
+		void expectText(byte[] text) {
+			this.expect = TEXT;
+			this.text = text;
+			this.failure = new int[text.length];
+			for (int i = 1, k = 0; i < text.length; i++) {
+				while (k > 0 && text[i] != text[k]) {
+					k = failure[k - 1];
+				}
+				if (text[i] == text[k]) {
+					k++;
+				}
+				failure[i] = k;
+			}
+		}
+	}
+
+	/** A request script: the steps making up one transaction. */
+	public static class Script {
+		final List<Step> steps = new ArrayList<Step>();
+		boolean close;
+
+		public static Script parse(BufferedReader in) throws IOException {
+			Script script = new Script();
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] words = line.split("\\s+", 3);
+				if (words[0].equals("close")) {
+					script.close = true;
+				} else if (words[0].equals("send") && words.length > 1) {
+					Step step = new Step();
+					step.send = unescape(line.substring(4).trim());
+					script.steps.add(step);
+				} else if (words[0].equals("expect") && words.length > 1) {
+					Step step = script.steps.isEmpty() || script.last().expect != Step.NONE ? new Step()
+							: script.last();
+					if (words[1].equals("eof")) {
+						step.expect = Step.EOF;
+					} else if (words[1].equals("line")) {
+						step.expect = Step.LINE;
+					} else if (words[1].equals("bytes") && words.length == 3) {
+						step.expect = Step.BYTES;
+						step.count = Integer.parseInt(words[2]);
+					} else if (words[1].equals("text") && words.length == 3) {
+						step.expectText(unescape(words[2]));
+					} else {
+						throw new IllegalArgumentException("Bad script line: " + line);
+					}
+					if (step != script.last()) {
+						script.steps.add(step);
+					}
+				} else {
+					throw new IllegalArgumentException("Bad script line: " + line);
+				}
+			}
+			if (script.steps.isEmpty()) {
+				throw new IllegalArgumentException("Empty script");
+			}
+			for (int i = 0; i < script.steps.size() - 1; i++) {
+				if (script.steps.get(i).expect == Step.EOF) {
+					throw new IllegalArgumentException("expect eof must be the last step");
+				}
+			}
+			return script;
+		}
+
+		/** A single HTTP/1.0 GET, read until the server closes the connection. */
+		public static Script http(String host, String path) {
+			Script script = new Script();
+			Step step = new Step();
+			step.send = ("GET " + path + " HTTP/1.0\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+			step.expect = Step.EOF;
+			script.steps.add(step);
+			script.close = true;
+			return script;
+		}
+
+		/** Read a single line, then disconnect. */
+		public static Script line() {
+			Script script = new Script();
+			Step step = new Step();
+			step.expect = Step.LINE;
+			script.steps.add(step);
+			script.close = true;
+			return script;
+		}
+
+		Step last() {
+			return steps.isEmpty() ? null : steps.get(steps.size() - 1);
+		}
+
+		static byte[] unescape(String s) {
+			StringBuilder sb = new StringBuilder(s.length());
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '\\' && i + 1 < s.length()) {
+					char e = s.charAt(++i);
+					c = e == 'r' ? '\r' : e == 'n' ? '\n' : e == 't' ? '\t' : e;
+				}
+				sb.append(c);
+			}
+			return sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/** The state of one client connection. */
+	static class Connection {
+		SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer[] sendBuffers;
+		int step;
+		long received;
+		int matched;
+		boolean busy;
+		long intended; // when the current transaction was scheduled to start
+		long started; // when it actually started
+		long nextIntended;
+	}
+
+	/** One selector thread, driving its share of the connections. */
+	class Worker implements Runnable {
+		final List<Connection> connections = new ArrayList<Connection>();
+		final PriorityQueue<Connection> idle = new PriorityQueue<Connection>(
+				(a, b) -> Long.compare(a.nextIntended, b.nextIntended));
+		final LatencyHistogram corrected = new LatencyHistogram();
+		final LatencyHistogram uncorrected = new LatencyHistogram();
+		final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+		Selector selector;
+		long interval; // nanoseconds between transactions on one connection, 0 if closed-loop
+		long transactions, errors;
+		long measureFrom, endAt;
+
+		public void run() {
+			try {
+				selector = Selector.open();
+				while (true) {
+					long now = System.nanoTime();
+					if (now >= endAt) {
+						break;
+					}
+					while (!idle.isEmpty() && idle.peek().nextIntended <= now) {
+						begin(idle.poll(), now);
+					}
+					long wait = endAt - now;
+					if (!idle.isEmpty()) {
+						wait = Math.min(wait, idle.peek().nextIntended - now);
+					}
+					if (wait <= 0) {
+						selector.selectNow();
+					} else {
+						selector.select(Math.max(1, wait / 1_000_000));
+					}
+					for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+						SelectionKey key = i.next();
+						i.remove();
+						Connection c = (Connection) key.attachment();
+						try {
+							if (!key.isValid()) {
+								continue;
+							}
+							if (key.isConnectable()) {
+								c.channel.finishConnect();
+								startStep(c, 0);
+							} else if (key.isWritable()) {
+								write(c);
+							} else if (key.isReadable()) {
+								read(c);
+							}
+						} catch (IOException e) {
+							fail(c);
+						}
+					}
+				}
+				for (Connection c : connections) {
+					close(c);
+				}
+				selector.close();
+			} catch (IOException e) {
+				System.err.println("LoadGenerator: " + e);
+			}
+		}
+
+		void begin(Connection c, long now) {
+			c.busy = true;
+			c.intended = c.nextIntended;
+			c.started = now;
+			c.nextIntended += interval;
+			try {
+				if (c.channel == null) {
+					c.channel = SocketChannel.open();
+					c.channel.configureBlocking(false);
+					c.key = c.channel.register(selector, 0, c);
+					if (c.channel.connect(address)) {
+						startStep(c, 0);
+					} else {
+						c.key.interestOps(SelectionKey.OP_CONNECT);
+					}
+				} else {
+					startStep(c, 0);
+				}
+			} catch (IOException e) {
+				fail(c);
+			}
+		}
+
+		void startStep(Connection c, int i) throws IOException {
+			if (i == script.steps.size()) {
+				complete(c);
+				return;
+			}
+			c.step = i;
+			c.received = 0;
+			c.matched = 0;
+			ByteBuffer out = c.sendBuffers[i];
+			if (out != null) {
+				out.rewind();
+				write(c);
+			} else {
+				expect(c);
+			}
+		}
+
+		void write(Connection c) throws IOException {
+			ByteBuffer out = c.sendBuffers[c.step];
+			c.channel.write(out);
+			if (out.hasRemaining()) {
+				c.key.interestOps(SelectionKey.OP_WRITE);
+			} else {
+				expect(c);
+			}
+		}
+
+		void expect(Connection c) throws IOException {
+			if (script.steps.get(c.step).expect == Step.NONE) {
+				startStep(c, c.step + 1);
+			} else {
+				c.key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		void read(Connection c) throws IOException {
+			Step step = script.steps.get(c.step);
+			readBuffer.clear();
+			int n = c.channel.read(readBuffer);
+			if (n < 0) {
+				if (step.expect == Step.EOF) {
+					close(c);
+					startStep(c, c.step + 1);
+				} else {
+					fail(c);
+				}
+				return;
+			}
+			boolean done = false;
+			switch (step.expect) {
+			case Step.LINE:
+				for (int i = 0; i < n && !done; i++) {
+					done = readBuffer.get(i) == '\n';
+				}
+				break;
+			case Step.BYTES:
+				c.received += n;
+				done = c.received >= step.count;
+				break;
+			case Step.TEXT:
+				int k = c.matched;
+				for (int i = 0; i < n && !done; i++) {
+					byte b = readBuffer.get(i);
+					while (k > 0 && b != step.text[k]) {
+						k = step.failure[k - 1];
+					}
+					if (b == step.text[k]) {
+						k++;
+					}
+					if (k == step.text.length) {
+						done = true;
+					}
+				}
+				c.matched = k;
+				break;
+			default:
+				// EOF: keep draining.
+			}
+			if (done) {
+				startStep(c, c.step + 1);
+			}
+		}
+
+		void complete(Connection c) {
+			long now = System.nanoTime();
+			if (c.intended >= measureFrom) {
+				corrected.record(now - c.intended);
+				uncorrected.record(now - c.started);
+				transactions++;
+			}
+			if (script.close) {
+				close(c);
+			} else if (c.key != null && c.key.isValid()) {
+				c.key.interestOps(0);
+			}
+			finish(c, now);
+		}
+
+		void fail(Connection c) {
+			if (c.intended >= measureFrom) {
+				errors++;
+			}
+			close(c);
+			finish(c, System.nanoTime());
+		}
+
+		void finish(Connection c, long now) {
+			c.busy = false;
+			if (interval == 0) {
+				c.nextIntended = now;
+			}
+			idle.add(c);
+		}
+
+		void close(Connection c) {
+			if (c.channel != null) {
+				try {
+					c.channel.close();
+				} catch (IOException e) {
+				}
+				c.channel = null;
+				c.key = null;
+			}
+		}
+	}
+
+	final InetSocketAddress address;
+	final Script script;
+
+	public LoadGenerator(InetSocketAddress address, Script script) {
+		this.address = address;
+		this.script = script;
+	}
+
+	/**
+	 * Runs the script over the given number of connections, spread across
+	 * threads, at the given total rate (0 for closed-loop), and prints a
+	 * report. Transactions scheduled during the warmup period are not counted.
+	 */
+	public void run(int connections, int threads, double rate, double seconds, double warmup)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		long measureFrom = start + (long) (warmup * 1e9);
+		long endAt = measureFrom + (long) (seconds * 1e9);
+		long interval = rate > 0 ? (long) (1e9 * connections / rate) : 0;
+
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < threads; i++) {
+			Worker w = new Worker();
+			w.interval = interval;
+			w.measureFrom = measureFrom;
+			w.endAt = endAt;
+			workers.add(w);
+		}
+		for (int i = 0; i < connections; i++) {
+			Connection c = new Connection();
+			c.sendBuffers = new ByteBuffer[script.steps.size()];
+			for (int s = 0; s < c.sendBuffers.length; s++) {
+				byte[] send = script.steps.get(s).send;
+				if (send != null) {
+					c.sendBuffers[s] = ByteBuffer.wrap(send);
+				}
+			}
+			// Stagger the first transactions so they don't all start at once.
+			c.nextIntended = rate > 0 ? start + (long) (i * 1e9 / rate) : start;
+			Worker w = workers.get(i % threads);
+			w.connections.add(c);
+			w.idle.add(c);
+		}
+
+		List<Thread> running = new ArrayList<Thread>();
+		for (Worker w : workers) {
+			Thread t = new Thread(w, "LoadGenerator-" + running.size());
+			t.start();
+			running.add(t);
+		}
+		for (Thread t : running) {
+			t.join();
+		}
+
+		LatencyHistogram corrected = new LatencyHistogram();
+		LatencyHistogram uncorrected = new LatencyHistogram();
+		long transactions = 0, errors = 0;
+		for (Worker w : workers) {
+			corrected.add(w.corrected);
+			uncorrected.add(w.uncorrected);
+			transactions += w.transactions;
+			errors += w.errors;
+		}
+		System.out.println("Target:      " + address + ", " + connections + " connections, " + threads
+				+ " threads, " + (rate > 0 ? rate + " tx/s" : "closed loop"));
+		System.out.printf("Throughput:  %.1f tx/s (%d transactions, %d errors in %.1fs)%n", transactions / seconds,
+				transactions, errors, seconds);
+		System.out.println("Latency:     " + corrected);
+		System.out.println("Service:     " + uncorrected);
+	}
+
+	public static void main(String[] args) {
+		try {
+			int connections = 10, threads = 1;
+			double rate = 0, seconds = 10, warmup = 1;
+			Script script = null;
+			String httpPath = null;
+			int i = 0;
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-c")) {
+					connections = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-t")) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-r")) {
+					rate = Double.parseDouble(args[++i]);
+				} else if (args[i].equals("-d")) {
+					seconds = Double.parseDouble(args[++i]);
+				} else if (args[i].equals("-w")) {
+					warmup = Double.parseDouble(args[++i]);
+				} else if (args[i].equals("-script")) {
+					try (BufferedReader in = new BufferedReader(new FileReader(args[++i]))) {
+						script = Script.parse(in);
+					}
+				} else if (args[i].equals("-http")) {
+					httpPath = args[++i];
+				} else {
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			if (args.length - i != 2) {
+				throw new IllegalArgumentException("Wrong number of args");
+			}
+			String host = args[i];
+			int port = Integer.parseInt(args[i + 1]);
+			if (httpPath != null) {
+				script = Script.http(host, httpPath);
+			} else if (script == null) {
+				script = Script.line();
+			}
+			threads = Math.max(1, Math.min(threads, connections));
+			new LoadGenerator(new InetSocketAddress(host, port), script).run(connections, threads, rate, seconds,
+					warmup);
+		} catch (Exception e) {
+			System.err.println(e);
+			System.err.println(usage);
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package je3.ch05.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Not in the manual. A high-rate datagram receiver, built for the same job as
+ * {@link UDPReceive} but for telemetry rates of hundreds of thousands of
+ * packets a second.
+ * <p>
+ * A single receiver thread drains a non-blocking DatagramChannel into batches
+ * of preallocated direct buffers, and hands each full batch to a pool of
+ * worker threads through a lock-free queue. Drained batches go back through a
+ * second queue for reuse, so the steady state allocates no buffers and
+ * creates no Strings. Sender addresses are kept as returned by the channel and
+ * are never reverse-resolved. If the workers fall behind and no empty batch is
+ * available, packets are still read from the socket (so the kernel buffer
+ * doesn't silently overflow) but are counted as dropped.
+ * <p>
+ * To test, start the receiver and point {@link UDPIngestSender} at it:
+ *
+ * <pre>
+ *   java je3.ch05.net.UDPIngest 7777 4
+ *   java je3.ch05.net.UDPIngestSender localhost 7777 200000 10
+ * </pre>
+ */
+public class UDPIngest implements Runnable {
+	public static final String usage = "Usage: java UDPIngest <port> [<workers>] [<batches>] [<packets/batch>]";
+
+	/**
+	 * Receives each full batch, on one of the worker threads. Packets must be
+	 * read with absolute gets on {@link Batch#buffer()}; the batch is recycled
+	 * as soon as this method returns.
+	 */
+	public interface BatchHandler {
+		void handle(Batch batch);
+	}
+
+	/** A fixed number of packet slots carved out of one direct buffer. */
+	public static final class Batch {
+		final ByteBuffer buffer;
+		final int slotSize;
+		final int[] lengths;
+		final SocketAddress[] senders;
+		int count;
+
+		Batch(int packets, int slotSize) {
+			this.slotSize = slotSize;
+			this.buffer = ByteBuffer.allocateDirect(packets * slotSize);
+			this.lengths = new int[packets];
+			this.senders = new SocketAddress[packets];
+		}
+
+		public int count() {
+			return count;
+		}
+
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+
+		public int offset(int packet) {
+			return packet * slotSize;
+		}
+
+		public int length(int packet) {
+			return lengths[packet];
+		}
+
+		public SocketAddress sender(int packet) {
+			return senders[packet];
+		}
+
+		boolean isFull() {
+			return count == lengths.length;
+		}
+	}
+
+	/**
+	 * A bounded multi-producer, multi-consumer array queue (after Dmitry
+	 * Vyukov). Each slot carries a sequence number, so producers and consumers
+	 * claim slots with a single CAS on the tail or head and never lock.
+	 */
+	static final class BatchQueue {
+		final Batch[] items;
+		final AtomicLongArray sequences;
+		final int mask;
+		final AtomicLong head = new AtomicLong();
+		final AtomicLong tail = new AtomicLong();
+
+		BatchQueue(int capacity) {
+			int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+			items = new Batch[size];
+			sequences = new AtomicLongArray(size);
+			mask = size - 1;
+			for (int i = 0; i < size; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		boolean offer(Batch batch) {
+			long position = tail.get();
+			for (;;) {
+				int index = (int) (position & mask);
+				long difference = sequences.get(index) - position;
+				if (difference == 0) {
+					if (tail.compareAndSet(position, position + 1)) {
+						items[index] = batch;
+						sequences.set(index, position + 1);
+						return true;
+					}
+					position = tail.get();
+				} else if (difference < 0) {
+					return false;
+				} else {
+					position = tail.get();
+				}
+			}
+		}
+
+		Batch poll() {
+			long position = head.get();
+			for (;;) {
+				int index = (int) (position & mask);
+				long difference = sequences.get(index) - (position + 1);
+				if (difference == 0) {
+					if (head.compareAndSet(position, position + 1)) {
+						Batch batch = items[index];
+						items[index] = null;
+						sequences.set(index, position + mask + 1);
+						return batch;
+					}
+					position = head.get();
+				} else if (difference < 0) {
+					return null;
+				} else {
+					position = head.get();
+				}
+			}
+		}
+
+		int size() {
+			return (int) Math.max(0, tail.get() - head.get());
+		}
+	}
+
+	final DatagramChannel channel;
+	final BatchQueue free;
+	final BatchQueue full;
+	final BatchHandler handler;
+	final Thread[] workers;
+	volatile boolean running = true;
+
+	// Written only by the receiver thread.
+	final AtomicLong received = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+	final AtomicLong maxQueueDepth = new AtomicLong();
+	// Written by the workers.
+	final LongAdder processed = new LongAdder();
+
+	/**
+	 * @param port          the UDP port to listen on
+	 * @param workers       the number of threads running the handler
+	 * @param batches       the number of preallocated batches in the ring
+	 * @param packetsPerBatch packets collected before a batch is handed off
+	 * @param maxPacketSize the largest datagram accepted; longer ones are
+	 *                      truncated, as with DatagramSocket
+	 */
+	public UDPIngest(int port, int workers, int batches, int packetsPerBatch, int maxPacketSize,
+			BatchHandler handler) throws IOException {
+		this.channel = DatagramChannel.open();
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024 * 1024);
+		channel.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		this.handler = handler;
+		this.free = new BatchQueue(batches);
+		this.full = new BatchQueue(batches);
+		for (int i = 0; i < batches; i++) {
+			free.offer(new Batch(packetsPerBatch, maxPacketSize));
+		}
+		this.workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			this.workers[i] = new Thread(this::work, "UDPIngest-worker-" + i);
+			this.workers[i].setDaemon(true);
+		}
+	}
+
+	public void start() {
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		Thread receiver = new Thread(this, "UDPIngest-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	public void stop() throws IOException {
+		running = false;
+		channel.close();
+	}
+
+	/** The receiver loop. */
+	public void run() {
+		ByteBuffer overflow = ByteBuffer.allocateDirect(64 * 1024);
+		Batch batch = null;
+		try (Selector selector = Selector.open()) {
+			channel.register(selector, SelectionKey.OP_READ);
+			while (running) {
+				if (batch == null) {
+					batch = free.poll();
+				}
+				SocketAddress sender;
+				if (batch == null) {
+					// Nowhere to put it: read and discard, so the loss is counted.
+					overflow.clear();
+					sender = channel.receive(overflow);
+					if (sender != null) {
+						received.lazySet(received.get() + 1);
+						dropped.lazySet(dropped.get() + 1);
+						continue;
+					}
+				} else {
+					int offset = batch.offset(batch.count);
+					batch.buffer.limit(offset + batch.slotSize).position(offset);
+					sender = channel.receive(batch.buffer);
+					if (sender != null) {
+						batch.lengths[batch.count] = batch.buffer.position() - offset;
+						batch.senders[batch.count++] = sender;
+						received.lazySet(received.get() + 1);
+						if (batch.isFull()) {
+							handOff(batch);
+							batch = null;
+						}
+						continue;
+					}
+				}
+				// The socket is drained; flush what we have rather than wait for more.
+				if (batch != null && batch.count > 0) {
+					handOff(batch);
+					batch = null;
+				}
+				selector.select(100);
+				selector.selectedKeys().clear();
+			}
+		} catch (IOException e) {
+			if (running) {
+				System.err.println("UDPIngest: " + e);
+			}
+		}
+	}
+
+	void handOff(Batch batch) {
+		// The full queue holds every batch, so this cannot fail.
+		full.offer(batch);
+		int depth = full.size();
+		if (depth > maxQueueDepth.get()) {
+			maxQueueDepth.lazySet(depth);
+		}
+	}
+
+	void work() {
+		int idle = 0;
+		while (running) {
+			Batch batch = full.poll();
+			if (batch == null) {
+				if (++idle < 1000) {
+					// Thread.onSpinWait() would be better, but needs Java 9.
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(50_000L);
+				}
+				continue;
+			}
+			idle = 0;
+			try {
+				handler.handle(batch);
+			} catch (RuntimeException e) {
+				System.err.println("UDPIngest handler: " + e);
+			}
+			processed.add(batch.count);
+			batch.count = 0;
+			java.util.Arrays.fill(batch.senders, null);
+			free.offer(batch);
+		}
+	}
+
+	public long getReceived() {
+		return received.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getProcessed() {
+		return processed.sum();
+	}
+
+	public int getQueueDepth() {
+		return full.size();
+	}
+
+	public long getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public static void main(String[] args) {
+		try {
+			if (args.length < 1 || args.length > 4) {
+				throw new IllegalArgumentException("Wrong number of args");
+			}
+			int port = Integer.parseInt(args[0]);
+			int workers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+			int batches = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+			int packetsPerBatch = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+			// The demonstration handler just counts payload bytes.
+			LongAdder bytes = new LongAdder();
+			UDPIngest ingest = new UDPIngest(port, workers, batches, packetsPerBatch, 2048, batch -> {
+				long sum = 0;
+				for (int i = 0; i < batch.count(); i++) {
+					sum += batch.length(i);
+				}
+				bytes.add(sum);
+			});
+			ingest.start();
+			System.out.println("Waiting to receive datagrams on port: " + port);
+
+			long lastReceived = 0;
+			for (;;) {
+				Thread.sleep(1000);
+				long received = ingest.getReceived();
+				System.out.println(String.format("%,d pkt/s  received=%,d processed=%,d dropped=%,d bytes=%,d "
+						+ "queue=%d maxQueue=%d", received - lastReceived, received, ingest.getProcessed(),
+						ingest.getDropped(), bytes.sum(), ingest.getQueueDepth(), ingest.getMaxQueueDepth()));
+				lastReceived = received;
+			}
+		} catch (Exception exception) {
+			System.err.println(exception);
+			System.err.println(usage);
+		}
+	}
+}
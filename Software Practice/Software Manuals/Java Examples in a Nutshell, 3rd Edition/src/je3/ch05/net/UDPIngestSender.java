@@ -0,0 +1,91 @@
+package je3.ch05.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Not in the manual. A rate-limited datagram sender to go with
+ * {@link UDPIngest}. Unlike {@link UDPSend}, which opens a socket per
+ * message, this keeps one connected DatagramChannel and one direct buffer for
+ * its whole life.
+ * <p>
+ * Java has no call to hand the kernel several datagrams at once, so
+ * "batching" here means sending bursts: the rate limiter is consulted once per
+ * burst of packets rather than once per packet, and sleeps off any time the
+ * burst got ahead of schedule. Each packet carries an 8-byte sequence number
+ * followed by filler, up to the requested size.
+ */
+public class UDPIngestSender {
+	public static final String usage = "Usage: java UDPIngestSender <hostname> <port> <packets/sec> <seconds> "
+			+ "[<packet size>] [<burst>]";
+
+	final DatagramChannel channel;
+	final ByteBuffer packet;
+	final int burst;
+	long sequence;
+
+	public UDPIngestSender(String host, int port, int packetSize, int burst) throws IOException {
+		this.channel = DatagramChannel.open();
+		channel.connect(new InetSocketAddress(host, port));
+		this.packet = ByteBuffer.allocateDirect(Math.max(8, packetSize));
+		while (packet.hasRemaining()) {
+			packet.put((byte) 'x');
+		}
+		this.burst = Math.max(1, burst);
+	}
+
+	/**
+	 * Sends at the given average rate for the given time, and returns the
+	 * number of packets sent.
+	 */
+	public long send(double rate, double seconds) throws IOException {
+		long start = System.nanoTime();
+		long end = start + (long) (seconds * 1e9);
+		double nanosPerPacket = 1e9 / rate;
+		long sent = 0;
+		for (long now = start; now < end; now = System.nanoTime()) {
+			long due = (long) ((now - start) / nanosPerPacket) - sent;
+			if (due <= 0) {
+				long ahead = (long) ((sent + 1) * nanosPerPacket) - (now - start);
+				LockSupport.parkNanos(Math.min(ahead, 1_000_000L));
+				continue;
+			}
+			for (long i = Math.min(due, burst); i > 0; i--) {
+				packet.clear();
+				packet.putLong(0, sequence++);
+				channel.write(packet);
+				sent++;
+			}
+		}
+		return sent;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public static void main(String[] args) {
+		try {
+			if (args.length < 4 || args.length > 6) {
+				throw new IllegalArgumentException("Wrong number of arguments");
+			}
+			String host = args[0];
+			int port = Integer.parseInt(args[1]);
+			double rate = Double.parseDouble(args[2]);
+			double seconds = Double.parseDouble(args[3]);
+			int size = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+			int burst = args.length > 5 ? Integer.parseInt(args[5]) : 32;
+
+			UDPIngestSender sender = new UDPIngestSender(host, port, size, burst);
+			long sent = sender.send(rate, seconds);
+			sender.close();
+			System.out.println(String.format("Sent %,d packets (%,.0f/s)", sent, sent / seconds));
+		} catch (Exception exception) {
+			System.err.println(exception);
+			System.err.println(usage);
+		}
+	}
+}
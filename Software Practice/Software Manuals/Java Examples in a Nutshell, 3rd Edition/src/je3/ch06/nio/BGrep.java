@@ -17,6 +17,8 @@ import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -30,16 +32,19 @@ import java.util.regex.PatternSyntaxException;
  * 
  * <pre>
  * Usage:
- *    java BGrep [-e &lt;encoding>] [-i] [-s] &lt;pattern> &lt;filename>...
+ *    java BGrep [-e &lt;encoding>] [-i] [-s] [-p &lt;threads>] &lt;pattern> &lt;filename>...
  * 
  * Options:
  *   -e &lt;encoding> specifies and encoding. UTF-8 is the default
  *   -i enables case-insensitive matching.  Use -s also for non-ASCII text
  *   -s enables strict (but slower) processing of non-ASCII characters
+ *   -p &lt;threads> searches in parallel windows; see ParallelBGrep
  * </pre>
  * 
  * This program requires that each file to be searched must fit into main
- * memory. Thus it will not work with extremely large files. Also, the Run
+ * memory. Thus it will not work with extremely large files, unless the -p
+ * option is used, which searches memory-mapped windows of each file on a
+ * pool of threads and reports byte offsets instead of character positions. Also, the Run
  * Configuration is not working yet with Korean words such as 유리를.
  */
 public class BGrep {
@@ -48,6 +53,8 @@ public class BGrep {
 		String encodingName = "UTF-8";
 		// Start with the default regexp flags:
 		int flags = Pattern.MULTILINE;
+		// Zero means search each file whole, on this thread:
+		int threads = 0;
 
 		try {
 			// First, process any options:
@@ -65,6 +72,9 @@ public class BGrep {
 					flags |= Pattern.UNICODE_CASE;
 					// Allow different representations of the same character to match:
 					flags |= Pattern.CANON_EQ;
+				} else if (option.equals("-p")) {
+					// Search in parallel, in windows:
+					threads = Integer.parseInt(args[nextArgument++]);
 				} else {
 					System.err.println("Unknown option: " + option);
 					usage();
@@ -85,6 +95,13 @@ public class BGrep {
 				usage();
 			}
 
+			// Hand large or parallel searches off to ParallelBGrep.
+			if (threads > 0) {
+				List<String> filenames = Arrays.asList(args).subList(nextArgument, args.length);
+				ParallelBGrep.run(args[nextArgument - 1], flags, charset, threads, filenames);
+				return;
+			}
+
 			// Loop through each of the specified filenames.
 			while (nextArgument < args.length) {
 				String filename = args[nextArgument++];
@@ -147,12 +164,15 @@ public class BGrep {
 		} catch (ArrayIndexOutOfBoundsException e) {
 			// Wrong number of arguments:
 			usage();
+		} catch (IOException | InterruptedException e) {
+			// Only the parallel search gets here; per-file errors are reported as they occur.
+			System.err.println(e);
 		}
 	}
 
 	/** A utility method to display invocation syntax and exit. */
 	public static void usage() {
-		System.err.println("Usage: java BGrep [-e <encoding>] [-i] [-s] <pattern> <filename>...");
+		System.err.println("Usage: java BGrep [-e <encoding>] [-i] [-s] [-p <threads>] <pattern> <filename>...");
 		System.exit(1);
 	}
 }
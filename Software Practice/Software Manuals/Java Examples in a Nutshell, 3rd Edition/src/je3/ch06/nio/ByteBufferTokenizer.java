@@ -145,6 +145,9 @@ public abstract class ByteBufferTokenizer extends AbstractTokenizer {
 					 * multi-byte sequence, and need more bytes before we can decode a character
 					 * from it. Try again (recursively) to get some more bytes.
 					 */
+					if (byteBuffer.hasRemaining()) {
+						carryPartialSequence();
+					}
 					return fillBuffer();
 				}
 			}
@@ -158,6 +161,20 @@ public abstract class ByteBufferTokenizer extends AbstractTokenizer {
 		}
 	}
 
+	/*
+	 * Join the undecoded tail of the current byte buffer to the next one. Without
+	 * this, a multi-byte sequence split across two buffers is never completed,
+	 * since getMoreBytes() is only called once the current buffer is empty. The
+	 * tail is copied first, because a subclass may refill the same buffer.
+	 */
+	private void carryPartialSequence() throws IOException {
+		ByteBuffer partial = ByteBuffer.allocate(byteBuffer.remaining());
+		partial.put(byteBuffer).flip();
+		ByteBuffer next = getMoreBytes();
+		byteBuffer = ByteBuffer.allocate(partial.remaining() + next.remaining());
+		byteBuffer.put(partial).put(next).flip();
+	}
+
 	/**
 	 * Determine if more bytes are available.
 	 * 
@@ -0,0 +1,377 @@
+package je3.ch06.nio;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Not in the manual. A file copier for large files and whole directory trees,
+ * built on the bulk-transfer methods that {@link FileCopy2} demonstrates.
+ * <p>
+ * A single call to FileChannel.transferTo() may move fewer bytes than asked
+ * for, and on many systems moves at most 2GB, so the static {@link #transfer}
+ * and {@link #transferFrom} methods loop until everything has been moved.
+ * <p>
+ * An instance copies files and trees on a pool of threads. Files smaller than
+ * the range size are each copied by one task; larger files are split into
+ * ranges, and each range is copied by its own task through its own pair of
+ * channels, positioned at the range, so the ranges of one file are written at
+ * the same time. Bytes copied are counted as they go, and a progress line with
+ * the transfer rate can be printed at a fixed interval. Modification times are
+ * copied once a file is complete.
+ */
+public class CopyEngine {
+	public static final long DEFAULT_RANGE_SIZE = 256L * 1024 * 1024;
+	// The most moved by one transferTo() call, so progress is reported smoothly.
+	static final long CHUNK = 16L * 1024 * 1024;
+
+	private final int threads;
+	private final long rangeSize;
+	private final AtomicLong bytesCopied = new AtomicLong();
+	private final AtomicInteger filesCopied = new AtomicInteger();
+	private volatile long bytesTotal;
+	private volatile int filesTotal;
+	private PrintStream progress;
+	private long progressMillis;
+
+	public CopyEngine(int threads, long rangeSize) {
+		this.threads = threads;
+		this.rangeSize = Math.max(rangeSize, CHUNK);
+	}
+
+	public CopyEngine() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_RANGE_SIZE);
+	}
+
+	/** Prints a progress line to out every interval milliseconds while copying. */
+	public CopyEngine progress(PrintStream out, long intervalMillis) {
+		this.progress = out;
+		this.progressMillis = intervalMillis;
+		return this;
+	}
+
+	/** The bytes copied so far by the current or the last copyFile() or copyTree(). */
+	public long bytesCopied() {
+		return bytesCopied.get();
+	}
+
+	/** The files copied so far by the current or the last copyFile() or copyTree(). */
+	public int filesCopied() {
+		return filesCopied.get();
+	}
+
+	// Each copy counts, and reports progress, from zero.
+	private void startCounting(long bytes, int files) {
+		bytesCopied.set(0);
+		filesCopied.set(0);
+		bytesTotal = bytes;
+		filesTotal = files;
+	}
+
+	/**
+	 * Copies count bytes of in, starting at position, to out, calling
+	 * transferTo() as often as needed. Stops early only if the file is shorter
+	 * than expected. Returns the number of bytes copied.
+	 */
+	public static long transfer(FileChannel in, long position, long count, WritableByteChannel out)
+			throws IOException {
+		return transfer(in, position, count, out, null);
+	}
+
+	private static long transfer(FileChannel in, long position, long count, WritableByteChannel out,
+			AtomicLong counter) throws IOException {
+		long done = 0;
+		while (done < count) {
+			long n = in.transferTo(position + done, Math.min(count - done, CHUNK), out);
+			if (n <= 0) {
+				if (position + done >= in.size()) {
+					break; // The file shrank.
+				}
+				// No progress, as with a non-blocking channel: copy some by hand.
+				n = copyThroughBuffer(in, position + done, Math.min(count - done, 64 * 1024), out);
+			}
+			done += n;
+			if (counter != null) {
+				counter.addAndGet(n);
+			}
+		}
+		return done;
+	}
+
+	private static long copyThroughBuffer(FileChannel in, long position, long count, WritableByteChannel out)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) count);
+		int n = in.read(buffer, position);
+		if (n <= 0) {
+			return 0;
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		return n;
+	}
+
+	/**
+	 * Copies up to count bytes from in to out, starting at position in out,
+	 * calling transferFrom() as often as needed. Stops early at the end of in.
+	 * Returns the number of bytes copied.
+	 */
+	public static long transferFrom(ReadableByteChannel in, FileChannel out, long position, long count)
+			throws IOException {
+		long done = 0;
+		ByteBuffer probe = null;
+		while (done < count) {
+			long n = out.transferFrom(in, position + done, Math.min(count - done, CHUNK));
+			if (n <= 0) {
+				// transferFrom() can't tell end of stream from no data; a read can.
+				if (probe == null) {
+					probe = ByteBuffer.allocate(64 * 1024);
+				}
+				probe.clear().limit((int) Math.min(probe.capacity(), count - done));
+				if (in.read(probe) < 0) {
+					break;
+				}
+				probe.flip();
+				n = out.write(probe, position + done);
+			}
+			done += n;
+		}
+		return done;
+	}
+
+	/**
+	 * Copies one file. A file larger than the range size is copied as several
+	 * ranges at once. The target's parent directory must exist.
+	 */
+	public void copyFile(Path from, Path to) throws IOException, InterruptedException {
+		startCounting(Files.size(from), 1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ScheduledExecutorService reporter = startProgress();
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			submitFile(pool, from, to, futures);
+			List<IOException> failures = awaitAll(futures);
+			if (!failures.isEmpty()) {
+				throw failures.get(0);
+			}
+		} finally {
+			pool.shutdownNow();
+			stopProgress(reporter);
+		}
+	}
+
+	/**
+	 * Copies a directory and everything in it to a new directory, which must not
+	 * exist yet. Directories are created first; then all files are copied on
+	 * the pool. Symbolic links are copied as links.
+	 */
+	public void copyTree(Path from, Path to) throws IOException, InterruptedException {
+		if (Files.exists(to, LinkOption.NOFOLLOW_LINKS)) {
+			throw new FileAlreadyExistsException(to.toString());
+		}
+		List<Path> paths;
+		try (Stream<Path> walk = Files.walk(from)) {
+			paths = walk.collect(Collectors.toList());
+		}
+		List<Path> files = new ArrayList<Path>();
+		long total = 0;
+		for (Path path : paths) {
+			Path target = to.resolve(from.relativize(path).toString());
+			if (Files.isSymbolicLink(path)) {
+				Files.createSymbolicLink(target, Files.readSymbolicLink(path));
+			} else if (Files.isDirectory(path)) {
+				Files.createDirectories(target);
+			} else if (Files.isRegularFile(path)) {
+				files.add(path);
+				total += Files.size(path);
+			}
+		}
+		startCounting(total, files.size());
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ScheduledExecutorService reporter = startProgress();
+		List<IOException> failures;
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (Path file : files) {
+				submitFile(pool, file, to.resolve(from.relativize(file).toString()), futures);
+			}
+			failures = awaitAll(futures);
+			// Directory times last, since creating their contents changed them.
+			for (Path path : paths) {
+				if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					Path target = to.resolve(from.relativize(path).toString());
+					Files.setLastModifiedTime(target, Files.getLastModifiedTime(path));
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			stopProgress(reporter);
+		}
+		if (!failures.isEmpty()) {
+			IOException e = new IOException("CopyEngine: " + failures.size() + " copies failed", failures.get(0));
+			for (IOException other : failures.subList(1, failures.size())) {
+				e.addSuppressed(other);
+			}
+			throw e;
+		}
+	}
+
+	private void submitFile(ExecutorService pool, Path from, Path to, List<Future<?>> futures) throws IOException {
+		long size = Files.size(from);
+		FileTime modified = Files.getLastModifiedTime(from);
+		if (size <= rangeSize) {
+			futures.add(pool.submit(() -> {
+				try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+						FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+								StandardOpenOption.TRUNCATE_EXISTING)) {
+					transfer(in, 0, size, out, bytesCopied);
+				}
+				Files.setLastModifiedTime(to, modified);
+				filesCopied.incrementAndGet();
+				return null;
+			}));
+			return;
+		}
+		// Size the target first, so that every range can be written in place.
+		try (RandomAccessFile target = new RandomAccessFile(to.toFile(), "rw")) {
+			target.setLength(size);
+		}
+		int ranges = (int) ((size + rangeSize - 1) / rangeSize);
+		AtomicInteger remaining = new AtomicInteger(ranges);
+		for (int i = 0; i < ranges; i++) {
+			long start = i * rangeSize;
+			long count = Math.min(rangeSize, size - start);
+			futures.add(pool.submit(() -> {
+				try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+						FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE)) {
+					out.position(start);
+					long copied = transfer(in, start, count, out, bytesCopied);
+					if (copied < count) {
+						throw new IOException(from + " shrank while it was being copied");
+					}
+				}
+				if (remaining.decrementAndGet() == 0) {
+					Files.setLastModifiedTime(to, modified);
+					filesCopied.incrementAndGet();
+				}
+				return null;
+			}));
+		}
+	}
+
+	/** Waits for every task, and returns the failures of this call, if any. */
+	private List<IOException> awaitAll(List<Future<?>> futures) throws InterruptedException {
+		List<IOException> failures = new ArrayList<IOException>();
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				System.err.println("CopyEngine: " + cause);
+				failures.add(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+			}
+		}
+		return failures;
+	}
+
+	private ScheduledExecutorService startProgress() {
+		if (progress == null) {
+			return null;
+		}
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "CopyEngine progress");
+			t.setDaemon(true);
+			return t;
+		});
+		long start = System.nanoTime();
+		long[] last = { start, bytesCopied.get() };
+		reporter.scheduleAtFixedRate(() -> {
+			long now = System.nanoTime(), bytes = bytesCopied.get();
+			double rate = (bytes - last[1]) / ((now - last[0]) / 1e9);
+			last[0] = now;
+			last[1] = bytes;
+			progress.printf("%,d of %,d MB, %d of %d files, %.1f MB/s%n", bytes >> 20, bytesTotal >> 20,
+					filesCopied.get(), filesTotal, rate / (1 << 20));
+		}, progressMillis, progressMillis, TimeUnit.MILLISECONDS);
+		return reporter;
+	}
+
+	private void stopProgress(ScheduledExecutorService reporter) {
+		if (reporter != null) {
+			reporter.shutdownNow();
+		}
+	}
+
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long rangeSize = DEFAULT_RANGE_SIZE;
+		boolean quiet = false;
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-t")) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-r")) {
+					rangeSize = Long.parseLong(args[++i]) * 1024 * 1024;
+				} else if (args[i].equals("-q")) {
+					quiet = true;
+				} else {
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			if (args.length - i != 2) {
+				throw new IllegalArgumentException("Wrong number of arguments");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java je3.ch06.nio.CopyEngine [-t threads] [-r rangeMB] [-q] <from> <to>");
+			return;
+		}
+		Path from = Paths.get(args[i]), to = Paths.get(args[i + 1]);
+		CopyEngine engine = new CopyEngine(threads, rangeSize);
+		if (!quiet) {
+			engine.progress(System.err, 1000);
+		}
+		try {
+			long start = System.nanoTime();
+			if (Files.isDirectory(from)) {
+				engine.copyTree(from, to);
+			} else {
+				if (Files.isDirectory(to)) {
+					to = to.resolve(from.getFileName());
+				}
+				engine.copyFile(from, to);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Copied %,d bytes in %d files in %.2f s (%.1f MB/s)%n", engine.bytesCopied(),
+					engine.filesCopied(), seconds, engine.bytesCopied() / seconds / (1 << 20));
+		} catch (Exception e) {
+			System.err.println(e);
+		}
+	}
+}
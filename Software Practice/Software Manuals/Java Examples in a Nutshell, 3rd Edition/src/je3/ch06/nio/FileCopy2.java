@@ -63,9 +63,11 @@ public class FileCopy2 {
 			/**
 			 * Bulk-transfer all bytes from one channel to the other. This is a special
 			 * feature of FileChannel channels. See also FileChannel.transferFrom().
+			 * A single transferTo() call may move fewer bytes than requested (at most
+			 * 2GB on many systems), so CopyEngine.transfer() calls it in a loop.
 			 */
 			System.out.println("Copying \"" + args[0] + "\" through a FileChannel");
-			fileInputChannel.transferTo(0, numbytes, writableByteChannelOut);
+			CopyEngine.transfer(fileInputChannel, 0, numbytes, writableByteChannelOut);
 		} catch (IOException e) {
 			/*
 			 * IOExceptions usually have useful informative messages. Display the message if
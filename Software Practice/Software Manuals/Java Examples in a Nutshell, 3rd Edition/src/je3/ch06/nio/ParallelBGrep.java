@@ -0,0 +1,415 @@
+package je3.ch06.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Not in the manual. The search engine behind the -p option of {@link BGrep},
+ * for files too large to map or decode in one piece.
+ * <p>
+ * Each file is mapped in windows (64MB by default), and each window is
+ * searched as a separate task on a worker pool, so windows of one file and
+ * different files are searched at the same time. Consecutive windows overlap,
+ * and a window only reports matches which <i>start</i> inside it, so a match
+ * which crosses a window boundary is found exactly once. Windows searched with
+ * a regular expression begin at the start of a line, so that ^ and $ with
+ * MULTILINE behave as in BGrep, and the Matcher can see the character before
+ * the window. Matches are written out in order, skipping any that begin
+ * inside the previous match, which can only happen across a window boundary.
+ * A regular expression match longer than the overlap (64KB by default) may be
+ * cut short, as may a line longer than the overlap.
+ * <p>
+ * If the pattern has no regular expression metacharacters and the encoding is
+ * ASCII-compatible (UTF-8, US-ASCII, ISO-8859-1), the mapped bytes are
+ * searched directly with Boyer-Moore-Horspool, and nothing is decoded. With
+ * -i this fast path folds ASCII letters only; a non-ASCII pattern with -i goes
+ * through Pattern. Otherwise each window is decoded and searched with
+ * Pattern.
+ * <p>
+ * Results are printed in file and offset order through one buffered channel.
+ * Unlike BGrep, positions are byte offsets, since a character position would
+ * require decoding everything in front of each window. For well-formed input
+ * the offset is exact.
+ */
+public class ParallelBGrep {
+	public static final int DEFAULT_WINDOW = 64 * 1024 * 1024;
+	public static final int DEFAULT_OVERLAP = 64 * 1024;
+	// Bytes mapped in front of each window: the character before it, and the
+	// rest of a UTF-8 character that crosses the boundary.
+	private static final int CONTEXT = 4;
+
+	private static final byte[] FOLD = new byte[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+		}
+	}
+
+	private final Pattern pattern;
+	private final Charset charset;
+	private final boolean utf8;
+	private final boolean singleByte;
+	private final byte[] literal; // null unless the fast path applies
+	private final boolean foldCase;
+	private final int[] shift = new int[256];
+	private final int window;
+	private final int overlap;
+	private final int threads;
+
+	public ParallelBGrep(String regex, int flags, Charset charset, int threads, int window) {
+		this.pattern = Pattern.compile(regex, flags);
+		this.charset = charset;
+		this.utf8 = charset.equals(StandardCharsets.UTF_8);
+		this.singleByte = charset.newEncoder().maxBytesPerChar() == 1.0f;
+		this.threads = threads;
+
+		boolean asciiCompatible = utf8 || charset.equals(StandardCharsets.US_ASCII)
+				|| charset.equals(StandardCharsets.ISO_8859_1);
+		this.foldCase = (flags & Pattern.CASE_INSENSITIVE) != 0;
+		boolean asciiPattern = regex.chars().allMatch(c -> c < 0x80);
+		if (asciiCompatible && isLiteral(regex) && regex.length() > 0 && (!foldCase || asciiPattern)
+				&& (flags & Pattern.CANON_EQ) == 0) {
+			literal = regex.getBytes(charset);
+			for (int i = 0; i < literal.length; i++) {
+				literal[i] = fold(literal[i]);
+			}
+			java.util.Arrays.fill(shift, literal.length);
+			for (int i = 0; i < literal.length - 1; i++) {
+				shift[literal[i] & 0xff] = literal.length - 1 - i;
+			}
+		} else {
+			literal = null;
+		}
+		int overlap = literal != null ? literal.length - 1 : DEFAULT_OVERLAP;
+		this.overlap = overlap;
+		this.window = Math.max(window, 1024);
+	}
+
+	static boolean isLiteral(String regex) {
+		for (int i = 0; i < regex.length(); i++) {
+			if ("\\[](){}.*+?^$|".indexOf(regex.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte fold(byte b) {
+		return foldCase ? FOLD[b & 0xff] : b;
+	}
+
+	/** True if the byte-level fast path is being used. */
+	public boolean isLiteralSearch() {
+		return literal != null;
+	}
+
+	/**
+	 * Searches the files in order, writing "filename:offset: match" lines to
+	 * the channel. Returns the number of matches.
+	 */
+	public long search(List<String> filenames, WritableByteChannel out) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<SearchResult>> inFlight = new ArrayDeque<Future<SearchResult>>();
+		Output output = new Output(out);
+		try {
+			for (String filename : filenames) {
+				long size;
+				try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+					size = channel.size();
+				} catch (IOException e) {
+					System.err.println(e);
+					continue;
+				}
+				if (!utf8 && !singleByte && size > Integer.MAX_VALUE) {
+					System.err.println(filename + ": files over 2GB need a UTF-8 or single-byte encoding");
+					continue;
+				}
+				// Windows can only start mid-character in encodings we know how to resynchronize.
+				long step = utf8 || singleByte ? window : Math.max(size, 1);
+				for (long start = 0; start == 0 || start < size; start += step) {
+					long end = Math.min(size, start + step);
+					inFlight.add(pool.submit(new WindowSearch(filename, start, end, size)));
+					// Keep a bounded number of windows in memory at once.
+					while (inFlight.size() >= threads * 2) {
+						output.write(inFlight.poll());
+					}
+				}
+			}
+			while (!inFlight.isEmpty()) {
+				output.write(inFlight.poll());
+			}
+			output.flush();
+		} finally {
+			pool.shutdownNow();
+		}
+		return output.matches;
+	}
+
+	/**
+	 * Writes the windows' results in order. A window can't know where the last
+	 * match of the window before it ended, so it reports every match starting
+	 * inside it; here those that begin inside the previous match are dropped.
+	 */
+	private static class Output {
+		final WritableByteChannel out;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+		long lastEnd; // of the last match written from the current file
+		long matches;
+
+		Output(WritableByteChannel out) {
+			this.out = out;
+		}
+
+		void write(Future<SearchResult> future) throws IOException, InterruptedException {
+			SearchResult result;
+			try {
+				result = future.get();
+			} catch (ExecutionException e) {
+				System.err.println(e.getCause());
+				return;
+			}
+			if (result.firstWindow) {
+				lastEnd = 0;
+			}
+			byte[] lines = result.output.toByteArray();
+			for (int i = 0, from = 0; i < result.count; from = result.lineEnds[i++]) {
+				if (result.starts[i] < lastEnd) {
+					continue;
+				}
+				lastEnd = result.ends[i];
+				matches++;
+				for (int at = from; at < result.lineEnds[i];) {
+					if (!buffer.hasRemaining()) {
+						flush();
+					}
+					int n = Math.min(buffer.remaining(), result.lineEnds[i] - at);
+					buffer.put(lines, at, n);
+					at += n;
+				}
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/** The matches starting in one window, each with its line of output. */
+	static class SearchResult {
+		boolean firstWindow;
+		int count;
+		long[] starts = new long[16], ends = new long[16];
+		int[] lineEnds = new int[16];
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	}
+
+	/** Searches one window of one file, reporting matches starting in [start, end). */
+	class WindowSearch implements Callable<SearchResult> {
+		final String filename;
+		final long start, end, size;
+		final SearchResult result = new SearchResult();
+		long mapStart;
+
+		WindowSearch(String filename, long start, long end, long size) {
+			this.filename = filename;
+			this.start = start;
+			this.end = end;
+			this.size = size;
+		}
+
+		public SearchResult call() throws IOException {
+			mapStart = Math.max(0, start - CONTEXT);
+			long mapEnd = Math.min(size, end + overlap);
+			MappedByteBuffer bytes;
+			try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+			}
+			result.firstWindow = start == 0;
+			if (literal != null) {
+				searchBytes(bytes, (int) (start - mapStart), (int) (end - mapStart));
+			} else {
+				searchChars(bytes);
+			}
+			return result;
+		}
+
+		void report(long offset, long endOffset, CharSequence text) {
+			SearchResult r = result;
+			if (r.count == r.starts.length) {
+				r.starts = java.util.Arrays.copyOf(r.starts, r.count * 2);
+				r.ends = java.util.Arrays.copyOf(r.ends, r.count * 2);
+				r.lineEnds = java.util.Arrays.copyOf(r.lineEnds, r.count * 2);
+			}
+			String line = filename + ':' + offset + ": " + text + System.lineSeparator();
+			byte[] encoded = line.getBytes(Charset.defaultCharset());
+			r.output.write(encoded, 0, encoded.length);
+			r.starts[r.count] = offset;
+			r.ends[r.count] = endOffset;
+			r.lineEnds[r.count++] = r.output.size();
+		}
+
+		/**
+		 * Boyer-Moore-Horspool over the mapped bytes. Every occurrence is
+		 * reported, even one overlapping the last, for Output to choose from.
+		 */
+		void searchBytes(ByteBuffer bytes, int from, int limit) {
+			int m = literal.length;
+			int n = bytes.limit();
+			byte[] found = new byte[m];
+			int last = m - 1;
+			for (int s = from; s < limit && s <= n - m;) {
+				byte tail = fold(bytes.get(s + last));
+				if (tail == literal[last]) {
+					int j = last - 1;
+					while (j >= 0 && fold(bytes.get(s + j)) == literal[j]) {
+						j--;
+					}
+					if (j < 0) {
+						for (int k = 0; k < m; k++) {
+							found[k] = bytes.get(s + k);
+						}
+						report(mapStart + s, mapStart + s + m, new String(found, charset));
+						s++;
+						continue;
+					}
+				}
+				s += shift[tail & 0xff];
+			}
+		}
+
+		/**
+		 * The first line start at or after pos, looking no further than the
+		 * overlap, as an index into the mapped bytes. Failing that, pos itself,
+		 * moved past the rest of a UTF-8 character. The window before this one
+		 * computes the same boundary as its end, from the same bytes.
+		 */
+		int lineStart(ByteBuffer bytes, long pos) {
+			int p = (int) (pos - mapStart);
+			if (pos == 0 || pos >= size) {
+				return p;
+			}
+			int stop = (int) (Math.min(size, pos + overlap) - mapStart);
+			for (int q = p; q < stop; q++) {
+				if (bytes.get(q - 1) == '\n') {
+					return q;
+				}
+			}
+			if (stop == size - mapStart) {
+				return stop; // the last line runs to the end of the file
+			}
+			while (utf8 && p < stop && p < (int) (pos - mapStart) + 3 && (bytes.get(p) & 0xC0) == 0x80) {
+				p++;
+			}
+			return p;
+		}
+
+		/** Decodes the window and runs the Pattern over it. */
+		void searchChars(ByteBuffer bytes) throws IOException {
+			int from = lineStart(bytes, start);
+			int to = lineStart(bytes, end);
+			if (from >= to) {
+				return;
+			}
+			// Decode from the character before the window, for ^, \b and lookbehind.
+			int context = from;
+			if (mapStart + from > 0) {
+				context--;
+				while (utf8 && context > 0 && (bytes.get(context) & 0xC0) == 0x80) {
+					context--;
+				}
+			}
+			bytes.position(context);
+			CharBuffer chars = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes);
+
+			CharsetEncoder encoder = utf8 || singleByte ? null : charset.newEncoder();
+			Matcher matcher = pattern.matcher(chars);
+			int regionStart = 0;
+			for (int b = context; b < from; regionStart++) {
+				b += encodedLength(chars.get(regionStart));
+			}
+			// The character before the window is visible, but isn't the start of input.
+			matcher.region(regionStart, chars.length()).useTransparentBounds(true).useAnchoringBounds(false);
+			int charIndex = 0;
+			long byteIndex = context;
+			while (matcher.find()) {
+				int matchStart = matcher.start();
+				long matchBytes;
+				if (encoder != null) {
+					byteIndex = context + encoder.encode(CharBuffer.wrap(chars, 0, matchStart)).remaining();
+					matchBytes = encoder.encode(CharBuffer.wrap(chars, matchStart, matcher.end())).remaining();
+				} else {
+					for (; charIndex < matchStart; charIndex++) {
+						byteIndex += encodedLength(chars.get(charIndex));
+					}
+					matchBytes = 0;
+					for (int i = matchStart; i < matcher.end(); i++) {
+						matchBytes += encodedLength(chars.get(i));
+					}
+				}
+				if (byteIndex >= to) {
+					break;
+				}
+				report(mapStart + byteIndex, mapStart + byteIndex + matchBytes, matcher.group());
+			}
+		}
+
+		private int encodedLength(char c) {
+			if (!utf8 || c < 0x80) {
+				return 1;
+			} else if (c < 0x800 || Character.isSurrogate(c)) {
+				// Each half of a surrogate pair accounts for two of its four bytes.
+				return 2;
+			}
+			return 3;
+		}
+	}
+
+	/**
+	 * Runs a parallel search on behalf of BGrep, printing to standard output.
+	 */
+	public static void run(String regex, int flags, Charset charset, int threads, List<String> filenames)
+			throws IOException, InterruptedException {
+		ParallelBGrep grep = new ParallelBGrep(regex, flags, charset, threads, DEFAULT_WINDOW);
+		FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+		grep.search(filenames, stdout.getChannel());
+	}
+
+	public static void main(String[] args) throws Exception {
+		// Run BGrep in parallel mode with the same arguments.
+		List<String> bgrepArgs = new ArrayList<String>();
+		bgrepArgs.add("-p");
+		bgrepArgs.add(String.valueOf(Runtime.getRuntime().availableProcessors()));
+		for (String arg : args) {
+			bgrepArgs.add(arg);
+		}
+		BGrep.main(bgrepArgs.toArray(new String[0]));
+	}
+}
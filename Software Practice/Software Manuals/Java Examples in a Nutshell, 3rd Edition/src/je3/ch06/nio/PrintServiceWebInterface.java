@@ -16,13 +16,10 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.util.Set;
 import java.util.Iterator;
 
-import javax.print.attribute.Attribute;
 import javax.print.PrintService;
 import javax.print.PrintServiceLookup;
 
@@ -39,28 +36,21 @@ import javax.print.PrintServiceLookup;
 public class PrintServiceWebInterface {
 	public static void main(String[] args) throws IOException {
 
-		// Get the character encoders and decoders we'll need.
-		Charset charset = Charset.forName("ISO-8859-1");
-		CharsetEncoder encoder = charset.newEncoder();
-
-		// The HTTP headers we send back to the client are fixed.
-		String headers = "";
-		headers += "HTTP/1.1 200 OK\r\n";
-		headers += "Content-type: text/html\r\n";
-		headers += "Connection: close\r\n";
-		headers += "\r\n";
+		// Find all available PrintService objects to be described.
+		PrintService[] services = PrintServiceLookup.lookupPrintServices(null, null);
 
 		/*
-		 * We'll use two buffers in our response. One holds the fixed headers, and the
-		 * other holds the variable body of the response.
+		 * The page, headers included, is rendered once and kept as a read-only
+		 * ByteBuffer. It is only rebuilt when a PrintServiceAttributeListener reports
+		 * that one of the printers has changed.
 		 */
-		ByteBuffer[] buffers = new ByteBuffer[2];
-		buffers[0] = encoder.encode(CharBuffer.wrap(headers));
-		ByteBuffer body = ByteBuffer.allocateDirect(16 * 1024);
-		buffers[1] = body;
+		PrintStatusPage page = new PrintStatusPage(services, Charset.forName("ISO-8859-1"));
 
-		// Find all available PrintService objects to be described.
-		PrintService[] services = PrintServiceLookup.lookupPrintServices(null, null);
+		/*
+		 * We only need the request bytes to know that the client has asked for
+		 * something, so one scratch buffer serves every client.
+		 */
+		ByteBuffer request = ByteBuffer.allocateDirect(16 * 1024);
 
 		/*
 		 * All of the channels we use in this code will be in non-blocking mode. So we
@@ -146,88 +136,42 @@ public class PrintServiceWebInterface {
 					 * channel from the key.
 					 */
 					SocketChannel client = (SocketChannel) key.channel();
-					/*
-					 * If we got here, it should mean that there is data to be read from the
-					 * channel. But, we double-check here.
-					 */
-					if (!key.isReadable()) {
-						continue;
-					}
-
-					/*
-					 * Now read bytes from the client. We assume that we get all the client's bytes
-					 * in one read operation.
-					 */
-					client.read(body);
-
-					/*
-					 * The data we read should be some kind of HTTP GET request. We don't bother
-					 * checking it however since there is only one page of data we know how to
-					 * return.
-					 */
-					body.clear();
-
-					// Build an HTML document as our response.
-					// The body of the document contains PrintService details.
-					String response = "";
-					response += "  <html>";
-					response += "    <head>";
-					response += "      <title>PrinterStatus</title";
-					response += "    </head>";
-					response += "    <body>";
-					response += "      <h1>Printer Status</h1>";
-					for (int s = 0; s < services.length; s++) {
-						PrintService service = services[s];
-						response += "  <h2>";
-						response += service.getName();
-						response += "  </h2>";
-
-						response += "  <table>";
-
-						Attribute[] attrs = service.getAttributes().toArray();
-						for (int a = 0; a < attrs.length; a++) {
-
-							Attribute attr = attrs[a];
-							response += "<tr>";
-							response += "  <td>";
-							response += attr.getName();
-							response += "  </td>";
-							response += "  <td>";
-							response += attr;
-							response += "  </td>";
-							response += "</tr>";
+					try {
+						if (key.isReadable()) {
+							/*
+							 * Read bytes from the client. We assume that we get all the client's bytes
+							 * in one read operation. The data we read should be some kind of HTTP GET
+							 * request. We don't bother checking it however since there is only one page
+							 * of data we know how to return.
+							 */
+							request.clear();
+							if (client.read(request) < 0) {
+								client.close();
+								continue;
+							}
+
+							/*
+							 * Give the client its own view of the cached page, and ask to be told when
+							 * its channel can take more bytes. A slow reader now only delays itself,
+							 * instead of blocking the selector loop.
+							 */
+							key.attach(page.get());
+							key.interestOps(SelectionKey.OP_WRITE);
+						} else if (key.isWritable()) {
+							ByteBuffer response = (ByteBuffer) key.attachment();
+							client.write(response);
+							if (!response.hasRemaining()) {
+								/*
+								 * Once we've sent our response, we have no more interest in the client
+								 * channel or its SelectionKey. Closing the channel also cancels the key.
+								 */
+								client.close();
+							}
 						}
-						response += "  </table>";
-					}
-					response += "    </body>";
-					response += "  </html>";
-					response += "\r\n";
-
-					// Encode the response into the body ByteBuffer.
-					encoder.reset();
-					encoder.encode(CharBuffer.wrap(response), body, true);
-					encoder.flush(body);
-
-					// Prepare the body buffer to be drained.
-					body.flip();
-					// While there are bytes left to write:
-					while (body.hasRemaining()) {
-						// ...write both header and body buffers.
-						client.write(buffers);
+					} catch (IOException e) {
+						// The client went away. Closing the channel cancels its key.
+						client.close();
 					}
-					// Prepare header buffer for next write.
-					buffers[0].flip();
-					// Prepare body buffer for next read.
-					body.clear();
-
-					/*
-					 * Once we've sent our response, we have no more interest in the client channel
-					 * or its SelectionKey.
-					 */
-					// Close the channel.
-					client.close();
-					// Tell Selector to stop monitoring it.
-					key.cancel();
 				}
 			}
 		}
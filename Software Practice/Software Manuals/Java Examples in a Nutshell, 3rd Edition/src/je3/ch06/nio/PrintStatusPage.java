@@ -0,0 +1,106 @@
+package je3.ch06.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.print.PrintService;
+import javax.print.attribute.Attribute;
+import javax.print.event.PrintServiceAttributeEvent;
+import javax.print.event.PrintServiceAttributeListener;
+
+/**
+ * Not in the manual. The rendered status page served by
+ * {@link PrintServiceWebInterface}, complete with HTTP headers, kept as a
+ * read-only direct ByteBuffer. The page is rebuilt only after one of the
+ * printers reports an attribute change; every other request is answered from
+ * the cached bytes. Each caller gets its own duplicate() of the buffer, so
+ * any number of clients can be drained from it at their own pace.
+ */
+public class PrintStatusPage implements PrintServiceAttributeListener {
+	private final PrintService[] services;
+	private final Charset charset;
+	private final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>(new Snapshot(0, null));
+	private int renders;
+
+	// The page together with the version of the printers' state it shows.
+	static final class Snapshot {
+		final int version;
+		final ByteBuffer page; // null when stale
+
+		Snapshot(int version, ByteBuffer page) {
+			this.version = version;
+			this.page = page;
+		}
+	}
+
+	public PrintStatusPage(PrintService[] services, Charset charset) {
+		this.services = services;
+		this.charset = charset;
+		for (PrintService service : services) {
+			service.addPrintServiceAttributeListener(this);
+		}
+	}
+
+	/** Called by the print service's notifier thread when a printer changes. */
+	public void attributeUpdate(PrintServiceAttributeEvent event) {
+		Snapshot s;
+		do {
+			s = current.get();
+		} while (!current.compareAndSet(s, new Snapshot(s.version + 1, null)));
+	}
+
+	/** Returns a fresh view of the current page, positioned at the start. */
+	public ByteBuffer get() {
+		Snapshot s = current.get();
+		ByteBuffer page = s.page;
+		if (page == null) {
+			page = render();
+			// Fails, leaving the page uncached, if a printer changed meanwhile.
+			current.compareAndSet(s, new Snapshot(s.version, page));
+		}
+		return page.duplicate();
+	}
+
+	public int getRenderCount() {
+		return renders;
+	}
+
+	ByteBuffer render() {
+		renders++;
+		StringBuilder response = new StringBuilder(4096);
+		response.append("  <html>");
+		response.append("    <head>");
+		response.append("      <title>PrinterStatus</title>");
+		response.append("    </head>");
+		response.append("    <body>");
+		response.append("      <h1>Printer Status</h1>");
+		for (PrintService service : services) {
+			response.append("  <h2>").append(service.getName()).append("  </h2>");
+			response.append("  <table>");
+			for (Attribute attr : service.getAttributes().toArray()) {
+				response.append("<tr>");
+				response.append("  <td>").append(attr.getName()).append("  </td>");
+				response.append("  <td>").append(attr).append("  </td>");
+				response.append("</tr>");
+			}
+			response.append("  </table>");
+		}
+		response.append("    </body>");
+		response.append("  </html>");
+		response.append("\r\n");
+		byte[] body = response.toString().getBytes(charset);
+
+		String headers = "";
+		headers += "HTTP/1.1 200 OK\r\n";
+		headers += "Content-type: text/html\r\n";
+		headers += "Content-length: " + body.length + "\r\n";
+		headers += "Connection: close\r\n";
+		headers += "\r\n";
+		byte[] head = headers.getBytes(charset);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(head.length + body.length);
+		buffer.put(head).put(body).flip();
+		return buffer.asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,522 @@
+package je3.ch06.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import je3.ch02.classes.AbstractTokenizer;
+import je3.ch02.classes.Tokenizer;
+
+/**
+ * Not in the manual. Counts the words, or the n-grams of consecutive words, in
+ * a large file on all cores, and prints the most frequent ones.
+ * <p>
+ * The file is cut into segments (16MB by default), each ending just before a
+ * whitespace byte, so no word is split between two segments. Worker threads
+ * take segments in turn, map and decode each one into a reused char array, and
+ * tokenize it with an {@link AbstractTokenizer}. Each worker counts into its
+ * own {@link TermTable}, an open-addressing table of primitive arrays whose
+ * keys are stored in a char arena, so counting allocates nothing per word.
+ * When the workers are done, the tables are merged in parallel, one hash
+ * partition per thread, and the top K are taken from each partition.
+ * <p>
+ * An n-gram which crosses a segment boundary is assembled afterwards from the
+ * first and last n-1 words of each segment, so the counts are exactly those of
+ * a single pass over the file. Words are runs of letters and digits starting
+ * with a letter; everything else only separates words. Segments are only cut
+ * for UTF-8 and single-byte charsets, where a whitespace byte is always a
+ * whitespace character; any other charset is counted as one segment.
+ */
+public class TermCounter {
+	public static final int DEFAULT_SEGMENT = 16 * 1024 * 1024;
+	// How far past a nominal boundary to look for whitespace.
+	static final int BOUNDARY_SEARCH = 64 * 1024;
+
+	private final int n;
+	private final boolean foldCase;
+	private final Charset charset;
+	private final int threads;
+	private final int segmentSize;
+
+	private TermTable[] partitions;
+	private long words;
+
+	public TermCounter(int n, boolean foldCase, Charset charset, int threads, int segmentSize) {
+		if (n < 1) {
+			throw new IllegalArgumentException("n must be at least 1");
+		}
+		this.n = n;
+		this.foldCase = foldCase;
+		this.charset = charset;
+		this.threads = threads;
+		this.segmentSize = Math.max(segmentSize, 2 * BOUNDARY_SEARCH);
+	}
+
+	/** The number of words in the counted file. */
+	public long words() {
+		return words;
+	}
+
+	/** The number of distinct terms counted. */
+	public int distinct() {
+		int total = 0;
+		for (TermTable table : partitions) {
+			total += table.size();
+		}
+		return total;
+	}
+
+	/** The count of one term (n words separated by single spaces), or 0. */
+	public long get(String term) {
+		char[] chars = term.toCharArray();
+		int hash = TermTable.hash(chars, 0, chars.length);
+		return partitions[TermTable.partition(hash, partitions.length)].get(term);
+	}
+
+	/**
+	 * Counts the terms of the file. The counts replace those of any earlier
+	 * call.
+	 */
+	public void count(String filename) throws IOException, InterruptedException {
+		long size;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			size = channel.size();
+		}
+		boolean splittable = charset.equals(StandardCharsets.UTF_8)
+				|| charset.newEncoder().maxBytesPerChar() == 1.0f && isAsciiCompatible(charset);
+		if (!splittable && size > Integer.MAX_VALUE) {
+			throw new IOException(filename + ": files over 2GB need a UTF-8 or single-byte charset");
+		}
+		long step = splittable ? segmentSize : Math.max(size, 1);
+		int segments = (int) Math.max(1, (size + step - 1) / step);
+		SegmentEdges[] edges = new SegmentEdges[segments];
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			// Each worker keeps one table for all of the segments it counts.
+			AtomicInteger nextSegment = new AtomicInteger();
+			List<Future<Worker>> futures = new ArrayList<Future<Worker>>();
+			for (int i = 0; i < threads; i++) {
+				Worker worker = new Worker(filename, size, step, segments, nextSegment, edges);
+				futures.add(pool.submit(worker));
+			}
+			TermTable[] tables = new TermTable[threads];
+			words = 0;
+			for (int i = 0; i < threads; i++) {
+				Worker worker = get(futures.get(i));
+				tables[i] = worker.table;
+				words += worker.words;
+			}
+
+			// The n-grams which cross a segment boundary.
+			TermTable crossing = new TermTable(1024);
+			if (n > 1) {
+				countCrossing(edges, crossing);
+			}
+
+			partitions = merge(pool, tables, crossing);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		byte[] bytes = " \t\r\nAz09".getBytes(charset);
+		return new String(bytes, StandardCharsets.US_ASCII).equals(" \t\r\nAz09");
+	}
+
+	private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private TermTable[] merge(ExecutorService pool, TermTable[] tables, TermTable crossing)
+			throws IOException, InterruptedException {
+		int parts = threads;
+		List<Future<TermTable>> futures = new ArrayList<Future<TermTable>>();
+		for (int p = 0; p < parts; p++) {
+			final int part = p;
+			futures.add(pool.submit(new Callable<TermTable>() {
+				public TermTable call() {
+					TermTable merged = new TermTable(1024);
+					for (TermTable table : tables) {
+						merged.addPartition(table, part, parts);
+					}
+					merged.addPartition(crossing, part, parts);
+					return merged;
+				}
+			}));
+		}
+		TermTable[] merged = new TermTable[parts];
+		for (int p = 0; p < parts; p++) {
+			merged[p] = get(futures.get(p));
+		}
+		return merged;
+	}
+
+	/**
+	 * Counts the n-grams which start in one segment and end in a later one,
+	 * walking the segments in order with the last n-1 words seen so far.
+	 */
+	private void countCrossing(SegmentEdges[] edges, TermTable table) {
+		List<String> carry = new ArrayList<String>();
+		StringBuilder key = new StringBuilder();
+		for (SegmentEdges segment : edges) {
+			List<String> joined = new ArrayList<String>(carry);
+			joined.addAll(segment.head);
+			for (int start = 0; start < carry.size() && start + n <= joined.size(); start++) {
+				key.setLength(0);
+				for (int i = start; i < start + n; i++) {
+					if (i > start) {
+						key.append(' ');
+					}
+					key.append(joined.get(i));
+				}
+				char[] chars = key.toString().toCharArray();
+				table.add(chars, 0, chars.length, 1);
+			}
+			// A segment with fewer than n-1 words is all head, so it joins the carry.
+			if (segment.words >= n - 1) {
+				carry = new ArrayList<String>(segment.tail);
+			} else {
+				carry = joined.subList(Math.max(0, joined.size() - (n - 1)), joined.size());
+				carry = new ArrayList<String>(carry);
+			}
+		}
+	}
+
+	/** The first and last n-1 words of a segment. */
+	static class SegmentEdges {
+		List<String> head = new ArrayList<String>();
+		List<String> tail = new ArrayList<String>();
+		long words;
+	}
+
+	/**
+	 * Returns the k most frequent terms, most frequent first. Terms with equal
+	 * counts are in no particular order.
+	 */
+	public List<Map.Entry<String, Long>> top(int k) {
+		// A min-heap of the best k seen so far; each entry is {partition, slot}.
+		PriorityQueue<int[]> heap = new PriorityQueue<int[]>(k + 1,
+				(a, b) -> Long.compare(partitions[a[0]].countAt(a[1]), partitions[b[0]].countAt(b[1])));
+		for (int p = 0; p < partitions.length; p++) {
+			TermTable table = partitions[p];
+			for (int slot = table.firstSlot(); slot >= 0; slot = table.nextSlot(slot)) {
+				if (heap.size() < k) {
+					heap.add(new int[] { p, slot });
+				} else if (k > 0 && table.countAt(slot) > partitions[heap.peek()[0]].countAt(heap.peek()[1])) {
+					heap.poll();
+					heap.add(new int[] { p, slot });
+				}
+			}
+		}
+		List<Map.Entry<String, Long>> result = new ArrayList<Map.Entry<String, Long>>(heap.size());
+		while (!heap.isEmpty()) {
+			int[] entry = heap.poll();
+			TermTable table = partitions[entry[0]];
+			result.add(0, new java.util.AbstractMap.SimpleImmutableEntry<String, Long>(table.termAt(entry[1]),
+					table.countAt(entry[1])));
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the first whitespace byte at or after position, so that a segment
+	 * boundary never falls inside a word. Both segments beside a boundary
+	 * compute it the same way.
+	 */
+	static long boundary(FileChannel channel, long position, long size) throws IOException {
+		if (position <= 0 || position >= size) {
+			return Math.min(Math.max(position, 0), size);
+		}
+		long end = Math.min(size, position + BOUNDARY_SEARCH);
+		MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+		for (int i = 0; i < bytes.limit(); i++) {
+			byte b = bytes.get(i);
+			if (b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f') {
+				return position + i;
+			}
+		}
+		return end; // A "word" longer than the search is split.
+	}
+
+	/** Counts segments until there are none left. */
+	class Worker implements Callable<Worker> {
+		final String filename;
+		final long size, step;
+		final int segments;
+		final AtomicInteger nextSegment;
+		final SegmentEdges[] edges;
+		final TermTable table = new TermTable(64 * 1024);
+		long words;
+
+		char[] chars = new char[0];
+		char[] key = new char[256];
+		// The text offsets of the last n words, as a ring.
+		final int[] starts = new int[n], ends = new int[n];
+
+		Worker(String filename, long size, long step, int segments, AtomicInteger nextSegment,
+				SegmentEdges[] edges) {
+			this.filename = filename;
+			this.size = size;
+			this.step = step;
+			this.segments = segments;
+			this.nextSegment = nextSegment;
+			this.edges = edges;
+		}
+
+		public Worker call() throws IOException {
+			CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+				int segment;
+				while ((segment = nextSegment.getAndIncrement()) < segments) {
+					long start = boundary(channel, segment * step, size);
+					long end = boundary(channel, (segment + 1) * step, size);
+					MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+					int length = decode(decoder, bytes);
+					edges[segment] = countSegment(length);
+				}
+			}
+			return this;
+		}
+
+		/** Decodes the bytes into chars, and returns the number of chars. */
+		int decode(CharsetDecoder decoder, ByteBuffer bytes) throws IOException {
+			int needed = (int) Math.min(Integer.MAX_VALUE - 8,
+					(long) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()));
+			if (chars.length < needed) {
+				chars = new char[needed];
+			}
+			CharBuffer out = CharBuffer.wrap(chars);
+			decoder.reset();
+			decoder.decode(bytes, out, true);
+			decoder.flush(out);
+			return out.position();
+		}
+
+		SegmentEdges countSegment(int length) throws IOException {
+			SegmentEdges segmentEdges = new SegmentEdges();
+			ArrayTokenizer tokenizer = new ArrayTokenizer(chars, length);
+			tokenizer.tokenizeWords(true).skipSpaces(true).wordRecognizer(LETTERS);
+			long count = 0;
+			int type;
+			while ((type = tokenizer.next()) != Tokenizer.EOF) {
+				if (type != Tokenizer.WORD) {
+					continue;
+				}
+				int ring = (int) (count % n);
+				starts[ring] = tokenizer.start();
+				ends[ring] = tokenizer.end();
+				count++;
+				if (count < n) {
+					segmentEdges.head.add(term(ring));
+				} else {
+					countNgram(count);
+				}
+			}
+			for (long w = Math.max(0, count - (n - 1)); w < count; w++) {
+				segmentEdges.tail.add(term((int) (w % n)));
+			}
+			segmentEdges.words = count;
+			words += count;
+			return segmentEdges;
+		}
+
+		/** Counts the n-gram ending with word number count - 1. */
+		void countNgram(long count) {
+			int length = 0;
+			for (long w = count - n; w < count; w++) {
+				int ring = (int) (w % n);
+				int wordLength = ends[ring] - starts[ring];
+				if (key.length < length + wordLength + 1) {
+					key = java.util.Arrays.copyOf(key, 2 * (length + wordLength + 1));
+				}
+				if (length > 0) {
+					key[length++] = ' ';
+				}
+				for (int i = starts[ring]; i < ends[ring]; i++) {
+					char c = chars[i];
+					key[length++] = foldCase ? Character.toLowerCase(c) : c;
+				}
+			}
+			table.add(key, 0, length, 1);
+		}
+
+		String term(int ring) {
+			StringBuilder s = new StringBuilder(ends[ring] - starts[ring]);
+			for (int i = starts[ring]; i < ends[ring]; i++) {
+				s.append(foldCase ? Character.toLowerCase(chars[i]) : chars[i]);
+			}
+			return s.toString();
+		}
+	}
+
+	static final Tokenizer.WordRecognizer LETTERS = new Tokenizer.WordRecognizer() {
+		public boolean isWordStart(char c) {
+			return Character.isLetter(c);
+		}
+
+		public boolean isWordPart(char c, char firstChar) {
+			return Character.isLetterOrDigit(c);
+		}
+	};
+
+	/**
+	 * Tokenizes a char array which already holds all of its input, without
+	 * copying it, and exposes the token offsets.
+	 */
+	static class ArrayTokenizer extends AbstractTokenizer {
+		final char[] chars;
+		final int length;
+
+		ArrayTokenizer(char[] chars, int length) {
+			this.chars = chars;
+			this.length = length;
+		}
+
+		@Override
+		protected void createBuffer(int bufferSize) {
+			text = chars;
+			numChars = length;
+		}
+
+		@Override
+		protected boolean fillBuffer() {
+			return false;
+		}
+
+		int start() {
+			return tokenStart;
+		}
+
+		int end() {
+			return tokenEnd;
+		}
+	}
+
+	/**
+	 * Counts the terms of any Tokenizer on the calling thread, the way a caller
+	 * had to before. Used to check the parallel counts.
+	 */
+	public static Map<String, Long> countSerially(Tokenizer tokenizer, int n, boolean foldCase) throws IOException {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		tokenizer.tokenizeWords(true).skipSpaces(true).wordRecognizer(LETTERS);
+		String[] ring = new String[n];
+		long count = 0;
+		int type;
+		while ((type = tokenizer.next()) != Tokenizer.EOF) {
+			if (type != Tokenizer.WORD) {
+				continue;
+			}
+			String word = tokenizer.tokenText();
+			ring[(int) (count++ % n)] = foldCase ? word.toLowerCase() : word;
+			if (count >= n) {
+				StringBuilder key = new StringBuilder();
+				for (long w = count - n; w < count; w++) {
+					if (key.length() > 0) {
+						key.append(' ');
+					}
+					key.append(ring[(int) (w % n)]);
+				}
+				counts.merge(key.toString(), 1L, Long::sum);
+			}
+		}
+		return counts;
+	}
+
+	public static void main(String[] args) {
+		int n = 1, k = 20, threads = Runtime.getRuntime().availableProcessors();
+		int segment = DEFAULT_SEGMENT;
+		boolean foldCase = false, verify = false;
+		Charset charset = StandardCharsets.UTF_8;
+		try {
+			int i = 0;
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				String option = args[i];
+				if (option.equals("-n")) {
+					n = Integer.parseInt(args[++i]);
+				} else if (option.equals("-k")) {
+					k = Integer.parseInt(args[++i]);
+				} else if (option.equals("-t")) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (option.equals("-s")) {
+					segment = Integer.parseInt(args[++i]) * 1024 * 1024;
+				} else if (option.equals("-e")) {
+					charset = Charset.forName(args[++i]);
+				} else if (option.equals("-i")) {
+					foldCase = true;
+				} else if (option.equals("-verify")) {
+					verify = true;
+				} else {
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			if (i != args.length - 1) {
+				throw new IllegalArgumentException("Wrong number of arguments");
+			}
+			String filename = args[i];
+
+			TermCounter counter = new TermCounter(n, foldCase, charset, threads, segment);
+			long start = System.nanoTime();
+			counter.count(filename);
+			List<Map.Entry<String, Long>> top = counter.top(k);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			for (Map.Entry<String, Long> entry : top) {
+				System.out.println(entry.getValue() + "\t" + entry.getKey());
+			}
+			System.out.printf("%,d words, %,d distinct %d-grams, %d threads, %.3f s%n", counter.words(),
+					counter.distinct(), n, threads, seconds);
+
+			if (verify) {
+				Map<String, Long> expected;
+				try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+					start = System.nanoTime();
+					expected = countSerially(new MappedFileTokenizer(channel, charset), n, foldCase);
+					seconds = (System.nanoTime() - start) / 1e9;
+				}
+				int mismatches = expected.size() == counter.distinct() ? 0 : 1;
+				for (Map.Entry<String, Long> entry : expected.entrySet()) {
+					if (entry.getValue() != counter.get(entry.getKey())) {
+						mismatches++;
+					}
+				}
+				System.out.printf("serial count: %,d distinct in %.3f s, %s%n", expected.size(), seconds,
+						mismatches == 0 ? "agrees" : "DISAGREES");
+			}
+		} catch (Exception e) {
+			System.err.println(e);
+			System.err.println("Usage: java je3.ch06.nio.TermCounter [-n ngram] [-k top] [-t threads] "
+					+ "[-s segmentMB] [-e encoding] [-i] [-verify] file");
+		}
+	}
+}
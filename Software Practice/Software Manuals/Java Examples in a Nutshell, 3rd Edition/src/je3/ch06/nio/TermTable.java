@@ -0,0 +1,161 @@
+package je3.ch06.nio;
+
+import java.util.Arrays;
+
+/**
+ * Not in the manual. A table of term counts for {@link TermCounter}, meant to
+ * be filled by one thread. Terms are added straight from a region of a char
+ * array; the characters of each new term are copied once into a char arena,
+ * and after that adding a term which is already present allocates nothing.
+ * <p>
+ * Slots are found by open addressing with linear probing. Each slot is a
+ * group of primitives in parallel arrays: the term's hash, its offset and
+ * length in the arena, and its count. A count of zero marks an empty slot.
+ */
+public class TermTable {
+	private int[] hashes;
+	private int[] offsets;
+	private int[] lengths;
+	private long[] counts;
+	private int mask;
+	private int size;
+
+	private char[] arena = new char[4096];
+	private int arenaUsed;
+
+	/** Creates a table with room for about capacity / 2 terms before it grows. */
+	public TermTable(int capacity) {
+		int slots = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		allocate(slots);
+	}
+
+	private void allocate(int slots) {
+		hashes = new int[slots];
+		offsets = new int[slots];
+		lengths = new int[slots];
+		counts = new long[slots];
+		mask = slots - 1;
+	}
+
+	/** The number of distinct terms. */
+	public int size() {
+		return size;
+	}
+
+	/** Hashes chars[offset..offset+length), mixing the bits of the String hash. */
+	static int hash(char[] chars, int offset, int length) {
+		int h = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			h = 31 * h + chars[i];
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 15);
+	}
+
+	/** Adds count to the term chars[offset..offset+length). count must be positive. */
+	public void add(char[] chars, int offset, int length, long count) {
+		add(chars, offset, length, hash(chars, offset, length), count);
+	}
+
+	private void add(char[] chars, int offset, int length, int hash, long count) {
+		int slot = hash & mask;
+		while (counts[slot] != 0) {
+			if (hashes[slot] == hash && lengths[slot] == length && equal(offsets[slot], chars, offset, length)) {
+				counts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (arenaUsed + length > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaUsed + length));
+		}
+		System.arraycopy(chars, offset, arena, arenaUsed, length);
+		hashes[slot] = hash;
+		offsets[slot] = arenaUsed;
+		lengths[slot] = length;
+		counts[slot] = count;
+		arenaUsed += length;
+		if (++size > (mask + 1) / 2) {
+			grow();
+		}
+	}
+
+	private boolean equal(int arenaOffset, char[] chars, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			if (arena[arenaOffset + i] != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		int[] oldHashes = hashes, oldOffsets = offsets, oldLengths = lengths;
+		long[] oldCounts = counts;
+		allocate((mask + 1) * 2);
+		for (int i = 0; i < oldCounts.length; i++) {
+			if (oldCounts[i] != 0) {
+				int slot = oldHashes[i] & mask;
+				while (counts[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot] = oldHashes[i];
+				offsets[slot] = oldOffsets[i];
+				lengths[slot] = oldLengths[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Which of parts partitions a hash belongs to. Uses the high bits, so that
+	 * the terms of one partition still spread over all the slots of a table.
+	 */
+	static int partition(int hash, int parts) {
+		return (int) (((hash >>> 8) * (long) parts) >>> 24);
+	}
+
+	/** Adds the counts of the other table's terms which fall in partition part. */
+	public void addPartition(TermTable other, int part, int parts) {
+		for (int i = 0; i < other.counts.length; i++) {
+			if (other.counts[i] != 0 && partition(other.hashes[i], parts) == part) {
+				add(other.arena, other.offsets[i], other.lengths[i], other.hashes[i], other.counts[i]);
+			}
+		}
+	}
+
+	/** Returns the count of the term, or 0. */
+	public long get(CharSequence term) {
+		char[] chars = term.toString().toCharArray();
+		int hash = hash(chars, 0, chars.length);
+		for (int slot = hash & mask; counts[slot] != 0; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && lengths[slot] == chars.length && equal(offsets[slot], chars, 0, chars.length)) {
+				return counts[slot];
+			}
+		}
+		return 0;
+	}
+
+	// Iteration over the occupied slots: for (s = firstSlot(); s >= 0; s = nextSlot(s))
+
+	public int firstSlot() {
+		return nextSlot(-1);
+	}
+
+	public int nextSlot(int slot) {
+		for (int i = slot + 1; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public long countAt(int slot) {
+		return counts[slot];
+	}
+
+	public String termAt(int slot) {
+		return new String(arena, offsets[slot], lengths[slot]);
+	}
+}
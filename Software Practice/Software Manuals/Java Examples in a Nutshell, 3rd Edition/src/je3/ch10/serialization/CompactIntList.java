@@ -10,11 +10,18 @@
  */
 package je3.ch10.serialization;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Externalizable;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInput;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
 
 import je3.ch02.classes.IntList;
 
@@ -26,12 +33,21 @@ import je3.ch02.classes.IntList;
  * extends the Serializable interface.
  */
 public class CompactIntList extends IntList implements Externalizable {
+	// Not in the manual: the UID the manual's class was given by default, so that
+	// streams it wrote still match this class, whose members have changed.
+	private static final long serialVersionUID = -8566649152345489195L;
+
 	/**
 	 * This version number is here in case a later revision of this class wants to
 	 * modify the externalization format, but still retain compatibility with
 	 * externalized objects written by this version.
+	 * <p>
+	 * Not in the manual: version 2 writes the values with {@link IntCodec}, in
+	 * frames of up to FRAME values, each an int byte count and then the encoded
+	 * bytes. Streams of version 1, a short per value, are still read.
 	 */
-	static final byte version = 1;
+	static final byte version = 2;
+	static final int FRAME = 65536;
 
 	/**
 	 * This method from the Externalizable interface is responsible for saving the
@@ -47,6 +63,26 @@ public class CompactIntList extends IntList implements Externalizable {
 		out.writeByte(version);
 		// Output the number of array elements.
 		out.writeInt(size);
+		// Encode the values a frame at a time, so the buffer stays small.
+		ByteBuffer buffer = ByteBuffer.allocate(IntCodec.maxEncodedLength(Math.min(size, FRAME)));
+		for (int start = 0; start < size; start += FRAME) {
+			buffer.clear();
+			IntCodec.encode(data, start, Math.min(FRAME, size - start), buffer);
+			out.writeInt(buffer.position());
+			out.write(buffer.array(), 0, buffer.position());
+		}
+	}
+
+	// Write the version 1 format, which was writeExternal() in the manual: a
+	// short per value, with an escape for ints.
+	void writeVersion1(ObjectOutput out) throws IOException {
+		// Compact the list to its current size.
+		trim();
+
+		// Start with our version number.
+		out.writeByte(1);
+		// Output the number of array elements.
+		out.writeInt(size);
 		// Now loop through the array:
 		for (int i = 0; i < size; i++) {
 			// The array element to write:
@@ -79,24 +115,49 @@ public class CompactIntList extends IntList implements Externalizable {
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		// Start by reading and verifying the version number.
 		byte v = in.readByte();
-		if (v != version) {
+		if (v != version && v != 1) {
 			throw new IOException("CompactIntList: unknown version number");
 		}
 
 		// Read the number of array elements, and make the array that big.
 		int newsize = in.readInt();
+		if (newsize < 0) {
+			throw new IOException("CompactIntList: negative size");
+		}
 		// A protected method inherited from IntList:
 		setCapacity(newsize);
 		// Save this size.
 		this.size = newsize;
 
-		// Now read that many values from the stream.
-		for (int i = 0; i < newsize; i++) {
-			short n = in.readShort();
-			if (n != Short.MIN_VALUE) {
-				data[i] = n;
-			} else {
-				data[i] = in.readInt();
+		if (v == 1) {
+			// Now read that many values from the stream.
+			for (int i = 0; i < newsize; i++) {
+				short n = in.readShort();
+				if (n != Short.MIN_VALUE) {
+					data[i] = n;
+				} else {
+					data[i] = in.readInt();
+				}
+			}
+			return;
+		}
+
+		int maxLength = IntCodec.maxEncodedLength(Math.min(newsize, FRAME));
+		byte[] bytes = new byte[maxLength];
+		for (int start = 0; start < newsize; start += FRAME) {
+			int length = in.readInt();
+			if (length < 0 || length > maxLength) {
+				throw new IOException("CompactIntList: bad frame length " + length);
+			}
+			in.readFully(bytes, 0, length);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+			try {
+				IntCodec.decode(buffer, data, start, Math.min(FRAME, newsize - start));
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				throw new IOException("CompactIntList: corrupt data", e);
+			}
+			if (buffer.hasRemaining()) {
+				throw new IOException("CompactIntList: corrupt data");
 			}
 		}
 	}
@@ -127,4 +188,97 @@ public class CompactIntList extends IntList implements Externalizable {
 		status += "\".";
 		System.out.println(status);
 	}
+
+	/**
+	 * Not in the manual. Reads a CompactIntList written through ObjectOutputStream
+	 * by the manual's class, in version 1, and checks its values; then writes it
+	 * in version 2 and reads it back.
+	 * <p>
+	 * Usage: java je3.ch10.serialization.CompactIntList$Test
+	 */
+	public static class Test {
+		// The manual's class writing these values, with its default serialVersionUID:
+		static final int[] VALUES = { 0, 1, -1, 31999, 32767, -32767, -32768, 32768, 123456, Integer.MIN_VALUE,
+				Integer.MAX_VALUE };
+		static final String VERSION_1 = "rO0ABXNyACVqZTMuY2gxMC5zZXJpYWxpemF0aW9uLkNvbXBhY3RJbnRMaXN0iR0l++cLwNUMAAB4cHcv"
+				+ "AQAAAAsAAAAB//98/3//gAGAAP//gACAAAAAgACAAAAB4kCAAIAAAACAAH////94";
+
+		public static void main(String[] args) throws Exception {
+			CompactIntList expected = new CompactIntList();
+			for (int value : VALUES) {
+				expected.add(value);
+			}
+			byte[] stream = java.util.Base64.getDecoder().decode(VERSION_1);
+			CompactIntList list = (CompactIntList) new ObjectInputStream(new ByteArrayInputStream(stream))
+					.readObject();
+			if (!list.equals(expected)) {
+				throw new AssertionError("version 1 stream read wrongly");
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(list);
+			out.close();
+			CompactIntList copy = (CompactIntList) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+					.readObject();
+			if (!copy.equals(expected)) {
+				throw new AssertionError("version 2 stream read wrongly");
+			}
+			System.out.println("Version 1 stream read, and rewritten in version 2, correctly.");
+		}
+	}
+
+	/**
+	 * Not in the manual. Writes lists of a million values in version 1 and
+	 * version 2 and compares their sizes and times, after checking that both read
+	 * back the same values. The lists are sorted IDs, small counts and random
+	 * ints.
+	 * <p>
+	 * Usage: java je3.ch10.serialization.CompactIntList$Benchmark
+	 */
+	public static class Benchmark {
+		public static void main(String[] args) throws Exception {
+			Random random = new Random(1);
+			int n = 1000000;
+			CompactIntList ids = new CompactIntList(), counts = new CompactIntList(), ints = new CompactIntList();
+			for (int i = 0, id = 0; i < n; i++) {
+				ids.add(id += 1 + random.nextInt(20));
+				counts.add(random.nextInt(100));
+				ints.add(random.nextInt());
+			}
+			run("sorted IDs", ids);
+			run("small counts", counts);
+			run("random ints", ints);
+		}
+
+		static void run(String name, CompactIntList list) throws IOException, ClassNotFoundException {
+			for (int v = 1; v <= 2; v++) {
+				byte[] bytes = null;
+				long writeNanos = Long.MAX_VALUE, readNanos = Long.MAX_VALUE;
+				for (int round = 0; round < 5; round++) {
+					long start = System.nanoTime();
+					ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					ObjectOutputStream out = new ObjectOutputStream(buffer);
+					if (v == 1) {
+						list.writeVersion1(out);
+					} else {
+						list.writeExternal(out);
+					}
+					out.close();
+					bytes = buffer.toByteArray();
+					writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+
+					start = System.nanoTime();
+					CompactIntList copy = new CompactIntList();
+					copy.readExternal(new ObjectInputStream(new ByteArrayInputStream(bytes)));
+					readNanos = Math.min(readNanos, System.nanoTime() - start);
+					if (!copy.equals(list)) {
+						throw new AssertionError(name + ": version " + v + " did not round-trip");
+					}
+				}
+				System.out.printf("%-14s version %d: %,10d bytes (%.2f per value), write %3d ms, read %3d ms%n", name,
+						v, bytes.length, (double) bytes.length / list.size(), writeNanos / 1000000,
+						readNanos / 1000000);
+			}
+		}
+	}
 }
@@ -0,0 +1,512 @@
+package je3.ch10.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Not in the manual. Makes deep copies of Serializable object graphs, as
+ * {@link Serializer#deepclone} does, but by copying fields directly instead of
+ * writing and reading a stream.
+ * <p>
+ * The first time a class is seen, a copy plan is built for it and cached: the
+ * fields serialization would write (non-static, non-transient, in Serializable
+ * classes), split into primitive and reference fields, and the constructor
+ * serialization would use, which runs only the no-argument constructor of the
+ * first non-Serializable superclass. Strings, boxed primitives, enums and other
+ * immutable types are shared rather than copied. Arrays are copied element by
+ * element, or all at once when their elements need no copying. The common
+ * java.util collections and maps are rebuilt from copies of their contents.
+ * <p>
+ * An identity map from originals to copies keeps shared objects shared and
+ * lets cycles be copied. Transient fields are left at their default values,
+ * as after deserialization.
+ * <p>
+ * A class that controls its own serialization, with writeObject(),
+ * readObject(), writeReplace(), readResolve() or Externalizable, cannot be
+ * copied field by field, and what it writes may refer back into the rest of
+ * the graph. When the copy reaches an object of such a class, it is abandoned
+ * and the whole graph is serialized and read back instead, so sharing and
+ * cycles through that object are kept as serialization keeps them.
+ */
+public final class DeepCopier {
+	// Builds the plan for each class once.
+	private static final ClassValue<Plan> PLANS = new ClassValue<Plan>() {
+		@Override
+		protected Plan computeValue(Class<?> type) {
+			return planFor(type);
+		}
+	};
+
+	private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+	private DeepCopier() {
+	}
+
+	/**
+	 * Returns a deep copy of object. Throws UncheckedIOException, wrapping a
+	 * NotSerializableException, if the graph holds an object that serialization
+	 * would refuse.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T copy(T object) {
+		try {
+			return (T) new DeepCopier().copyOf(object);
+		} catch (SerializeWhole e) {
+			return (T) serialized(object);
+		}
+	}
+
+	// Copy a graph the way Serializer.deepclone() did: write it out and read it back.
+	static Object serialized(Object object) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(object);
+			out.close();
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+			return in.readObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Return the copy of o, making it if it hasn't been made yet.
+	Object copyOf(Object o) {
+		if (o == null) {
+			return null;
+		}
+		Plan plan = PLANS.get(o.getClass());
+		if (plan == IMMUTABLE) {
+			return o;
+		}
+		Object copy = copies.get(o);
+		if (copy != null) {
+			return copy;
+		}
+		return plan.copy(o, this);
+	}
+
+	// Plans call this as soon as the copy exists, before copying what it refers to.
+	void remember(Object original, Object copy) {
+		copies.put(original, copy);
+	}
+
+	/** How to copy objects of one class. */
+	abstract static class Plan {
+		abstract Object copy(Object original, DeepCopier copier);
+	}
+
+	static final Plan IMMUTABLE = new Plan() {
+		Object copy(Object original, DeepCopier copier) {
+			return original;
+		}
+	};
+
+	private static final List<Class<?>> IMMUTABLE_TYPES = Arrays.<Class<?>>asList(String.class, Integer.class,
+			Long.class, Short.class, Byte.class, Character.class, Boolean.class, Float.class, Double.class,
+			BigInteger.class, BigDecimal.class, UUID.class, Class.class);
+
+	static Plan planFor(Class<?> type) {
+		if (isImmutable(type)) {
+			return IMMUTABLE;
+		}
+		if (type.isArray()) {
+			Class<?> component = type.getComponentType();
+			if (component.isPrimitive() || (isImmutable(component) && Modifier.isFinal(component.getModifiers()))) {
+				return new FlatArrayPlan();
+			}
+			return new ArrayPlan();
+		}
+		Plan plan = collectionPlan(type);
+		if (plan != null) {
+			return plan;
+		}
+		if (!Serializable.class.isAssignableFrom(type)) {
+			return new RefusePlan(type);
+		}
+		if (customSerialization(type)) {
+			return new SerializedPlan();
+		}
+		try {
+			return new FieldPlan(type);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// No serialization constructor here, or fields we may not open.
+			return new SerializedPlan();
+		}
+	}
+
+	private static boolean isImmutable(Class<?> type) {
+		return IMMUTABLE_TYPES.contains(type) || Enum.class.isAssignableFrom(type)
+				|| type.getName().startsWith("java.time.");
+	}
+
+	// Does the class or a superclass take over its own serialization?
+	private static boolean customSerialization(Class<?> type) {
+		if (Externalizable.class.isAssignableFrom(type) || type.getSuperclass() != null
+				&& type.getSuperclass().getName().equals("java.lang.Record")) {
+			return true;
+		}
+		for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+			for (Method m : c.getDeclaredMethods()) {
+				String name = m.getName();
+				if (!Modifier.isStatic(m.getModifiers()) && (name.equals("writeObject") || name.equals("readObject")
+						|| name.equals("readObjectNoData") || name.equals("writeReplace")
+						|| name.equals("readResolve"))) {
+					return true;
+				}
+			}
+			try {
+				c.getDeclaredField("serialPersistentFields");
+				return true;
+			} catch (NoSuchFieldException e) {
+				// The usual case.
+			}
+		}
+		return false;
+	}
+
+	/** Copies a Serializable object field by field. */
+	static final class FieldPlan extends Plan {
+		private final Constructor<?> constructor;
+		private final Field[] primitives;
+		private final char[] kinds; // the JVM type letter of each primitive field
+		private final Field[] references;
+
+		FieldPlan(Class<?> type) throws ReflectiveOperationException {
+			constructor = serializationConstructor(type);
+			List<Field> p = new ArrayList<Field>(), r = new ArrayList<Field>();
+			for (Class<?> c = type; Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if ((f.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) == 0) {
+						f.setAccessible(true);
+						(f.getType().isPrimitive() ? p : r).add(f);
+					}
+				}
+			}
+			primitives = p.toArray(new Field[p.size()]);
+			references = r.toArray(new Field[r.size()]);
+			kinds = new char[primitives.length];
+			for (int i = 0; i < kinds.length; i++) {
+				kinds[i] = Array.newInstance(primitives[i].getType(), 0).getClass().getName().charAt(1);
+			}
+		}
+
+		Object copy(Object original, DeepCopier copier) {
+			try {
+				Object copy = constructor.newInstance();
+				copier.remember(original, copy);
+				for (int i = 0; i < primitives.length; i++) {
+					Field f = primitives[i];
+					switch (kinds[i]) {
+					case 'I':
+						f.setInt(copy, f.getInt(original));
+						break;
+					case 'J':
+						f.setLong(copy, f.getLong(original));
+						break;
+					case 'Z':
+						f.setBoolean(copy, f.getBoolean(original));
+						break;
+					case 'D':
+						f.setDouble(copy, f.getDouble(original));
+						break;
+					case 'F':
+						f.setFloat(copy, f.getFloat(original));
+						break;
+					case 'B':
+						f.setByte(copy, f.getByte(original));
+						break;
+					case 'S':
+						f.setShort(copy, f.getShort(original));
+						break;
+					default:
+						f.setChar(copy, f.getChar(original));
+					}
+				}
+				for (Field f : references) {
+					f.set(copy, copier.copyOf(f.get(original)));
+				}
+				return copy;
+			} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalStateException("Cannot copy " + original.getClass().getName(), e);
+			}
+		}
+	}
+
+	// sun.reflect.ReflectionFactory, which serialization itself uses to make objects.
+	private static Object reflectionFactory;
+	private static Method newConstructorForSerialization;
+
+	// A constructor that runs only the first non-Serializable superclass's no-argument constructor.
+	private static synchronized Constructor<?> serializationConstructor(Class<?> type)
+			throws ReflectiveOperationException {
+		Class<?> base = type;
+		while (Serializable.class.isAssignableFrom(base)) {
+			base = base.getSuperclass();
+		}
+		Constructor<?> baseConstructor = base.getDeclaredConstructor();
+		if (newConstructorForSerialization == null) {
+			Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+			reflectionFactory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+			newConstructorForSerialization = factoryClass.getMethod("newConstructorForSerialization", Class.class,
+					Constructor.class);
+		}
+		Constructor<?> constructor = (Constructor<?>) newConstructorForSerialization.invoke(reflectionFactory, type,
+				baseConstructor);
+		constructor.setAccessible(true);
+		return constructor;
+	}
+
+	/** Copies an array of primitives or of immutable values in one step. */
+	static final class FlatArrayPlan extends Plan {
+		Object copy(Object original, DeepCopier copier) {
+			int length = Array.getLength(original);
+			Object copy = Array.newInstance(original.getClass().getComponentType(), length);
+			System.arraycopy(original, 0, copy, 0, length);
+			copier.remember(original, copy);
+			return copy;
+		}
+	}
+
+	/** Copies an array of references, copying each element. */
+	static final class ArrayPlan extends Plan {
+		Object copy(Object original, DeepCopier copier) {
+			Object[] from = (Object[]) original;
+			Object[] copy = (Object[]) Array.newInstance(original.getClass().getComponentType(), from.length);
+			copier.remember(original, copy);
+			for (int i = 0; i < from.length; i++) {
+				copy[i] = copier.copyOf(from[i]);
+			}
+			return copy;
+		}
+	}
+
+	/** Makes an empty collection or map of the same kind as the original. */
+	interface Maker {
+		Object make(Object original, DeepCopier copier);
+	}
+
+	// Only exact classes: a subclass may add state that adding the elements would miss.
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Plan collectionPlan(Class<?> type) {
+		if (type == ArrayList.class) {
+			return new CollectionPlan((o, c) -> new ArrayList<Object>(((Collection<?>) o).size()));
+		} else if (type == LinkedList.class) {
+			return new CollectionPlan((o, c) -> new LinkedList<Object>());
+		} else if (type == ArrayDeque.class) {
+			return new CollectionPlan((o, c) -> new ArrayDeque<Object>(((Collection<?>) o).size()));
+		} else if (type == HashSet.class) {
+			return new CollectionPlan((o, c) -> new HashSet<Object>(capacity(((Collection<?>) o).size())));
+		} else if (type == LinkedHashSet.class) {
+			return new CollectionPlan((o, c) -> new LinkedHashSet<Object>(capacity(((Collection<?>) o).size())));
+		} else if (type == TreeSet.class) {
+			return new CollectionPlan(
+					(o, c) -> new TreeSet<Object>((Comparator) c.copyOf(((TreeSet<?>) o).comparator())));
+		} else if (type == HashMap.class) {
+			return new MapPlan((o, c) -> new HashMap<Object, Object>(capacity(((Map<?, ?>) o).size())));
+		} else if (type == TreeMap.class) {
+			return new MapPlan(
+					(o, c) -> new TreeMap<Object, Object>((Comparator) c.copyOf(((TreeMap<?, ?>) o).comparator())));
+		}
+		return null;
+	}
+
+	private static int capacity(int size) {
+		return Math.max(16, (int) (size / 0.75f) + 1);
+	}
+
+	static final class CollectionPlan extends Plan {
+		private final Maker maker;
+
+		CollectionPlan(Maker maker) {
+			this.maker = maker;
+		}
+
+		@SuppressWarnings("unchecked")
+		Object copy(Object original, DeepCopier copier) {
+			Collection<Object> copy = (Collection<Object>) maker.make(original, copier);
+			copier.remember(original, copy);
+			for (Object element : (Collection<?>) original) {
+				copy.add(copier.copyOf(element));
+			}
+			return copy;
+		}
+	}
+
+	static final class MapPlan extends Plan {
+		private final Maker maker;
+
+		MapPlan(Maker maker) {
+			this.maker = maker;
+		}
+
+		@SuppressWarnings("unchecked")
+		Object copy(Object original, DeepCopier copier) {
+			Map<Object, Object> copy = (Map<Object, Object>) maker.make(original, copier);
+			copier.remember(original, copy);
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) original).entrySet()) {
+				copy.put(copier.copyOf(e.getKey()), copier.copyOf(e.getValue()));
+			}
+			return copy;
+		}
+	}
+
+	/** For an object that serializes itself: gives up, so that copy() serializes the whole graph. */
+	static final class SerializedPlan extends Plan {
+		Object copy(Object original, DeepCopier copier) {
+			throw SerializeWhole.INSTANCE;
+		}
+	}
+
+	/** Unwinds a copy that has reached an object only serialization can copy. */
+	private static final class SerializeWhole extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		static final SerializeWhole INSTANCE = new SerializeWhole();
+
+		private SerializeWhole() {
+			super(null, null, false, false);
+		}
+	}
+
+	/** Fails as serialization does for a class that isn't Serializable. */
+	static final class RefusePlan extends Plan {
+		private final String name;
+
+		RefusePlan(Class<?> type) {
+			name = type.getName();
+		}
+
+		Object copy(Object original, DeepCopier copier) {
+			throw new UncheckedIOException(new NotSerializableException(name));
+		}
+	}
+
+	/**
+	 * Copies chains of {@link Serializer.DataStructure} and a graph of
+	 * collections with {@link Serializer#deepcloneSerialized} and with
+	 * DeepCopier. It checks that the copies agree and prints the copies made per
+	 * second.
+	 * <p>
+	 * Usage: java je3.ch10.serialization.DeepCopier$Benchmark
+	 */
+	public static class Benchmark {
+		public static void main(String[] args) throws Exception {
+			Serializer.DataStructure chain = new Serializer.DataStructure();
+			chain.message = "node 0";
+			chain.data = new int[] { 0 };
+			for (int i = 1; i < 20; i++) {
+				Serializer.DataStructure d = new Serializer.DataStructure();
+				d.message = chain.message;
+				d.data = chain.data;
+				d.next = chain.next;
+				chain.message = "node " + i;
+				chain.data = new int[] { i, i * 2, i * 3 };
+				chain.next = d;
+			}
+			Serializer.DataStructure copy = DeepCopier.copy(chain);
+			if (!Arrays.equals(serialize(copy), serialize(Serializer.deepcloneSerialized(chain)))) {
+				throw new AssertionError("copies differ");
+			}
+			chain.next.data[0] = -1;
+			if (copy.next.data[0] == -1 || copy.next.next.message != chain.next.next.message) {
+				throw new AssertionError("not a deep copy");
+			}
+
+			// A configuration-like graph, with a cycle and a shared list.
+			Map<String, Object> config = new HashMap<String, Object>();
+			List<Object> servers = new ArrayList<Object>();
+			for (int i = 0; i < 10; i++) {
+				Map<String, Object> server = new TreeMap<String, Object>();
+				server.put("host", "host" + i);
+				server.put("port", 8000 + i);
+				server.put("weights", new double[] { 0.5, 0.25 });
+				servers.add(server);
+			}
+			config.put("servers", servers);
+			config.put("backup", servers);
+			config.put("tags", new LinkedHashSet<String>(Arrays.asList("a", "b", "c")));
+			config.put("self", config);
+			Map<String, Object> configCopy = DeepCopier.copy(config);
+			if (configCopy.get("self") != configCopy || configCopy.get("servers") != configCopy.get("backup")
+					|| configCopy.get("servers") == servers
+					|| !Arrays.equals(serialize(configCopy.get("servers")),
+							serialize(Serializer.deepcloneSerialized((Serializable) servers)))) {
+				throw new AssertionError("config copy is wrong");
+			}
+
+			// A cycle through a class with its own writeObject(), which only serialization can copy.
+			Map<String, Object> root = new HashMap<String, Object>();
+			Map<String, Object> child = new LinkedHashMap<String, Object>();
+			child.put("parent", root);
+			root.put("child", child);
+			root.put("alias", child);
+			Map<?, ?> rootCopy = DeepCopier.copy(root);
+			Map<?, ?> childCopy = (Map<?, ?>) rootCopy.get("child");
+			if (childCopy.get("parent") != rootCopy || rootCopy.get("alias") != childCopy || childCopy == child) {
+				throw new AssertionError("copy through a custom-serialized map is wrong");
+			}
+			System.out.println("Copies agree with Serializer.deepclone");
+
+			for (int round = 0; round < 3; round++) {
+				time("DataStructure, serialization", 2000, () -> Serializer.deepcloneSerialized(chain));
+				time("DataStructure, DeepCopier", 200000, () -> DeepCopier.copy(chain));
+				time("config graph, serialization", 2000, () -> Serializer.deepcloneSerialized((Serializable) config));
+				time("config graph, DeepCopier", 200000, () -> DeepCopier.copy(config));
+			}
+		}
+
+		interface Work {
+			Object run() throws Exception;
+		}
+
+		static void time(String name, int count, Work work) throws Exception {
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				work.run();
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.printf("  %-30s %,12.0f copies/s%n", name, count / (nanos / 1e9));
+		}
+
+		static byte[] serialize(Object o) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(o);
+			out.close();
+			return bytes.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package je3.ch10.serialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Not in the manual. Encodes arrays of int values compactly into a ByteBuffer,
+ * and decodes them again, for {@link CompactIntList}.
+ * <p>
+ * The values are cut into blocks of 128, and each block is written in
+ * whichever of four forms is smallest for it, named by a leading byte:
+ * <dl>
+ * <dt>VARINT</dt>
+ * <dd>each value zigzag-encoded, so that small negative numbers are small too,
+ * then written 7 bits per byte, low bits first, with the top bit of each byte
+ * set if more follow. Values near zero take one or two bytes.</dd>
+ * <dt>DELTA</dt>
+ * <dd>the same, but of the difference between each value and the one before
+ * it (the first from 0). Sorted IDs have small differences.</dd>
+ * <dt>PACKED</dt>
+ * <dd>"frame of reference": the smallest value of the block in 4 bytes, a byte
+ * giving a number of bits b, and then each value minus the smallest in b bits,
+ * packed without gaps. Values in a small range take few bits however large
+ * they are.</dd>
+ * <dt>DELTA_PACKED</dt>
+ * <dd>the first value in 4 bytes, then the differences, packed as PACKED
+ * packs values.</dd>
+ * </dl>
+ * Differences are taken with int arithmetic, and may overflow; adding them
+ * back overflows in the same way, so every int[] round-trips exactly. Blocks
+ * stand alone, so the choice is made afresh for each.
+ */
+public final class IntCodec {
+	static final int BLOCK = 128;
+
+	static final byte VARINT = 1;
+	static final byte DELTA = 2;
+	static final byte PACKED = 3;
+	static final byte DELTA_PACKED = 4;
+
+	private IntCodec() {
+	}
+
+	/** The most bytes that {@link #encode} can write for count values. */
+	public static int maxEncodedLength(int count) {
+		long blocks = (count + (long) BLOCK - 1) / BLOCK;
+		// No block is larger than PACKED with 32 bits: kind, base, bits and 4 bytes a value.
+		long max = count * 4L + blocks * 6;
+		if (max > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many values: " + count);
+		}
+		return (int) max;
+	}
+
+	/** Writes count values from an array into out, choosing the form of each block. */
+	public static void encode(int[] values, int offset, int count, ByteBuffer out) {
+		if (offset < 0 || count < 0 || count > values.length - offset) {
+			throw new IndexOutOfBoundsException();
+		}
+		int[] deltas = new int[BLOCK];
+		for (int start = offset, end = offset + count; start < end; start += BLOCK) {
+			int n = Math.min(BLOCK, end - start);
+			int min = values[start], max = min, varint = 0, delta = 0;
+			int dmin = 0, dmax = 0, previous = 0;
+			for (int i = 0; i < n; i++) {
+				int v = values[start + i];
+				int d = v - previous;
+				previous = v;
+				deltas[i] = d;
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+				varint += varintLength(zigzag(v));
+				delta += varintLength(zigzag(d));
+				if (i == 1) {
+					dmin = dmax = d;
+				} else if (i > 1) {
+					dmin = Math.min(dmin, d);
+					dmax = Math.max(dmax, d);
+				}
+			}
+			int bits = bitsFor(min, max);
+			int dbits = bitsFor(dmin, dmax);
+			int packed = 5 + (n * bits + 7) / 8;
+			int deltaPacked = 9 + ((n - 1) * dbits + 7) / 8;
+
+			int best = Math.min(Math.min(varint, delta), Math.min(packed, deltaPacked));
+			if (best == deltaPacked) {
+				out.put(DELTA_PACKED);
+				out.putInt(values[start]);
+				pack(deltas, 1, n - 1, dmin, dbits, out);
+			} else if (best == packed) {
+				out.put(PACKED);
+				pack(values, start, n, min, bits, out);
+			} else if (best == delta) {
+				out.put(DELTA);
+				for (int i = 0; i < n; i++) {
+					putVarint(zigzag(deltas[i]), out);
+				}
+			} else {
+				out.put(VARINT);
+				for (int i = 0; i < n; i++) {
+					putVarint(zigzag(values[start + i]), out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads count values written by {@link #encode} from in into an array. Throws
+	 * IllegalArgumentException if the bytes were not written by encode(), or
+	 * BufferUnderflowException if they end too soon.
+	 */
+	public static void decode(ByteBuffer in, int[] values, int offset, int count) {
+		if (offset < 0 || count < 0 || count > values.length - offset) {
+			throw new IndexOutOfBoundsException();
+		}
+		for (int start = offset, end = offset + count; start < end; start += BLOCK) {
+			int n = Math.min(BLOCK, end - start);
+			byte kind = in.get();
+			switch (kind) {
+			case VARINT:
+				for (int i = start; i < start + n; i++) {
+					values[i] = unzigzag(getVarint(in));
+				}
+				break;
+			case DELTA:
+				for (int i = start, previous = 0; i < start + n; i++) {
+					values[i] = previous += unzigzag(getVarint(in));
+				}
+				break;
+			case PACKED:
+				unpack(in, values, start, n);
+				break;
+			case DELTA_PACKED:
+				values[start] = in.getInt();
+				unpack(in, values, start + 1, n - 1);
+				for (int i = start + 1; i < start + n; i++) {
+					values[i] += values[i - 1];
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown block kind " + kind);
+			}
+		}
+	}
+
+	static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+
+	static int unzigzag(int z) {
+		return (z >>> 1) ^ -(z & 1);
+	}
+
+	static int varintLength(int v) {
+		// 1 byte for up to 7 significant bits, 2 for up to 14, and so on.
+		return (31 - Integer.numberOfLeadingZeros(v | 1)) / 7 + 1;
+	}
+
+	static void putVarint(int v, ByteBuffer out) {
+		while ((v & ~0x7F) != 0) {
+			out.put((byte) (v | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	static int getVarint(ByteBuffer in) {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new IllegalArgumentException("Varint longer than 5 bytes");
+	}
+
+	// The number of bits needed for max - min, taken as unsigned.
+	private static int bitsFor(int min, int max) {
+		return 32 - Integer.numberOfLeadingZeros(max - min);
+	}
+
+	// Write base and bits, then each value - base in bits bits, low bits first.
+	private static void pack(int[] values, int start, int n, int base, int bits, ByteBuffer out) {
+		out.putInt(base);
+		out.put((byte) bits);
+		long buffer = 0;
+		int filled = 0;
+		for (int i = start; i < start + n; i++) {
+			buffer |= ((values[i] - base) & 0xFFFFFFFFL) << filled;
+			filled += bits;
+			while (filled >= 8) {
+				out.put((byte) buffer);
+				buffer >>>= 8;
+				filled -= 8;
+			}
+		}
+		if (filled > 0) {
+			out.put((byte) buffer);
+		}
+	}
+
+	private static void unpack(ByteBuffer in, int[] values, int start, int n) {
+		int base = in.getInt();
+		int bits = in.get();
+		if (bits < 0 || bits > 32) {
+			throw new IllegalArgumentException("Bad bit width " + bits);
+		}
+		long valueMask = (1L << bits) - 1;
+		long buffer = 0;
+		int filled = 0;
+		for (int i = start; i < start + n; i++) {
+			while (filled < bits) {
+				buffer |= (in.get() & 0xFFL) << filled;
+				filled += 8;
+			}
+			values[i] = (int) (buffer & valueMask) + base;
+			buffer >>>= bits;
+			filled -= bits;
+		}
+	}
+}
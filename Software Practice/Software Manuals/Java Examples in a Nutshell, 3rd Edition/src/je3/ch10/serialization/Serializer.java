@@ -19,6 +19,7 @@ import java.io.ObjectOutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 
 /**
  * From Java Examples in a Nutshell, 3rd Edition, pp. 242-244. This class
@@ -58,8 +59,26 @@ public class Serializer {
 	 * This differs from the clone() method of an object, which is usually
 	 * implemented to produce a "shallow" clone, that copies only references to
 	 * other objects, instead of deep-copying all referenced objects.
+	 * <p>
+	 * Not in the manual: this now hands the work to {@link DeepCopier}, which
+	 * copies the same fields that serialization would without writing them to a
+	 * stream. The version that serializes through a pipe is
+	 * {@link #deepcloneSerialized}.
 	 */
 	static Object deepclone(final Serializable serializableObject) throws IOException, ClassNotFoundException {
+		try {
+			return DeepCopier.copy(serializableObject);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * The book's deepclone(): serialize serializableObject in another thread, into
+	 * a pipe, and deserialize the copy from the other end.
+	 */
+	static Object deepcloneSerialized(final Serializable serializableObject)
+			throws IOException, ClassNotFoundException {
 		/*
 		 * Create a connected pair of "piped" streams. We'll write bytes to one, and
 		 * read them from the other.
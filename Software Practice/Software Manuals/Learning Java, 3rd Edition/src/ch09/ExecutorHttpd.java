@@ -4,18 +4,50 @@ import java.net.*;
 import java.io.*;
 import java.util.concurrent.*;
 
+import ch13.StaticContentCache;
 import ch13.TinyHttpdConnection;
 
 /**
  * From Learning Java, 3rd Edition, p. 284. Not clear yet how to use this.
+ *
+ * Usage: ExecutorHttpd [-virtual] [-cache megabytes] [port]
+ *
+ * With -virtual, each request runs on its own virtual thread (on JVMs which
+ * support them; otherwise on a cached thread pool), so a few slow clients no
+ * longer stall the server. With -cache, file contents are held in a
+ * StaticContentCache and conditional GETs are honored.
  */
 public class ExecutorHttpd {
-	ExecutorService executor = Executors.newFixedThreadPool(3);
+	ExecutorService executor;
+	StaticContentCache cache;
+
+	public ExecutorHttpd() {
+		this(Executors.newFixedThreadPool(3), null);
+	}
+
+	public ExecutorHttpd(ExecutorService executor, StaticContentCache cache) {
+		this.executor = executor;
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns a thread-per-task executor using virtual threads. Looked up
+	 * reflectively so this still compiles for older targets; falls back to a
+	 * cached pool of platform threads.
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			System.out.println("Virtual threads not available, using a cached thread pool");
+			return Executors.newCachedThreadPool();
+		}
+	}
 
 	public void start(int port) throws IOException {
 		final ServerSocket ss = new ServerSocket(port);
 		while (!executor.isShutdown()) {
-			executor.submit(new TinyHttpdConnection(ss.accept()));
+			executor.submit(new TinyHttpdConnection(ss.accept(), cache));
 		}
 		ss.close();
 	}
@@ -25,10 +57,25 @@ public class ExecutorHttpd {
 		executor.shutdown();
 		executor.awaitTermination(30, TimeUnit.SECONDS);
 		executor.shutdownNow();
+		if (cache != null)
+			System.out.println(cache);
 	}
 
 	public static void main(String argv[]) throws Exception {
 		// new ExecutorHttpd().start(Integer.parseInt(argv[0]));
-		new ExecutorHttpd().start(Integer.parseInt("1234"));
+		int port = 1234;
+		ExecutorService executor = null;
+		StaticContentCache cache = null;
+		for (int i = 0; i < argv.length; i++) {
+			if (argv[i].equals("-virtual"))
+				executor = newVirtualThreadPerTaskExecutor();
+			else if (argv[i].equals("-cache"))
+				cache = new StaticContentCache(Long.parseLong(argv[++i]) * 1024 * 1024);
+			else
+				port = Integer.parseInt(argv[i]);
+		}
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(3);
+		new ExecutorHttpd(executor, cache).start(port);
 	}
 }
@@ -0,0 +1,93 @@
+package ch09;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Not in the manual. A RingQueue for any number of producers and consumers.
+ * <p>
+ * Each slot has a sequence number saying whose turn it is. A slot at position
+ * p is free for the producer that claims p when its sequence is p, and holds
+ * a message for the consumer that claims p when its sequence is p + 1. A
+ * producer claims a position with a compare-and-set on tail, fills the slot,
+ * and sets the sequence to p + 1; a consumer claims with a compare-and-set on
+ * head, empties the slot, and sets the sequence to p + capacity, handing it to
+ * the producer one lap later. Threads contend only on the counter of their own
+ * side. drainTo() claims a whole run of filled slots with one compare-and-set.
+ */
+public class MpmcRingQueue<E> extends RingQueue<E> {
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong(), head = new AtomicLong();
+
+	public MpmcRingQueue(int capacity) {
+		super(capacity);
+		sequences = new AtomicLongArray(buffer.length);
+		for (int i = 0; i < buffer.length; i++)
+			sequences.set(i, i);
+	}
+
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		while (true) {
+			long p = tail.get();
+			int i = (int) p & mask;
+			long turn = sequences.get(i) - p;
+			if (turn == 0) {
+				if (tail.compareAndSet(p, p + 1)) {
+					buffer[i] = e;
+					sequences.set(i, p + 1);
+					signalTakers();
+					return true;
+				}
+			} else if (turn < 0)
+				return false; // the slot still holds the message from a lap ago
+		}
+	}
+
+	public E poll() {
+		while (true) {
+			long p = head.get();
+			int i = (int) p & mask;
+			long turn = sequences.get(i) - (p + 1);
+			if (turn == 0) {
+				if (head.compareAndSet(p, p + 1)) {
+					E e = elementAt(i);
+					buffer[i] = null;
+					sequences.set(i, p + buffer.length);
+					signalPutters();
+					return e;
+				}
+			} else if (turn < 0)
+				return null; // not filled yet
+		}
+	}
+
+	public int drainTo(Collection<? super E> batch, int max) {
+		while (true) {
+			long p = head.get();
+			int n = 0;
+			while (n < max && n < buffer.length && sequences.get((int) (p + n) & mask) == p + n + 1)
+				n++;
+			if (n == 0)
+				return 0;
+			// The slots stay filled until this thread releases them.
+			if (head.compareAndSet(p, p + n)) {
+				for (int k = 0; k < n; k++) {
+					int i = (int) (p + k) & mask;
+					batch.add(elementAt(i));
+					buffer[i] = null;
+					sequences.set(i, p + k + buffer.length);
+				}
+				for (int k = 0; k < n; k++)
+					signalPutters();
+				return n;
+			}
+		}
+	}
+
+	public int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+}
@@ -0,0 +1,239 @@
+package ch09;
+
+import java.util.*;
+
+/**
+ * Not in the manual. The Producer and Consumer example rebuilt on a
+ * {@link RingQueue}, with any number of producers and consumers. Producers
+ * put a dated message each second; consumers take whatever messages are
+ * waiting, up to a batch at a time, every two seconds. With one of each the
+ * queue is an {@link SpscRingQueue}, otherwise an {@link MpmcRingQueue}.
+ * <p>
+ * Usage: java ch09.RingPipeline [producers] [consumers]
+ */
+public class RingPipeline {
+	static final int MAXQUEUE = 5;
+	static final int BATCH = 16;
+
+	static <E> RingQueue<E> newQueue(int producers, int consumers, int capacity) {
+		if (producers == 1 && consumers == 1)
+			return new SpscRingQueue<E>(capacity);
+		return new MpmcRingQueue<E>(capacity);
+	}
+
+	static class RingProducer implements Runnable {
+		RingQueue<String> queue;
+		String name;
+
+		RingProducer(String name, RingQueue<String> queue) {
+			this.name = name;
+			this.queue = queue;
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					queue.put(name + ": " + new Date());
+					Thread.sleep(1000);
+				}
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	static class RingConsumer implements Runnable {
+		RingQueue<String> queue;
+		String name;
+
+		RingConsumer(String name, RingQueue<String> queue) {
+			this.name = name;
+			this.queue = queue;
+		}
+
+		public void run() {
+			List<String> batch = new ArrayList<String>();
+			try {
+				while (true) {
+					batch.clear();
+					queue.takeBatch(batch, BATCH);
+					for (String message : batch)
+						System.out.println(name + " got message: " + message);
+					Thread.sleep(2000);
+				}
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	public static void main(String args[]) {
+		int producers = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		RingQueue<String> queue = newQueue(producers, consumers, MAXQUEUE);
+		for (int i = 1; i <= producers; i++)
+			new Thread(new RingProducer("Producer " + i, queue)).start();
+		for (int i = 1; i <= consumers; i++)
+			new Thread(new RingConsumer("Consumer " + i, queue)).start();
+	}
+
+	/**
+	 * Hands a few million messages from producers to consumers, through the
+	 * monitor scheme of Producer (an ArrayList with wait() and notifyAll()), a
+	 * RingQueue taken one message at a time, and a RingQueue drained in batches.
+	 * Prints messages per second and the latency from put to take.
+	 * <p>
+	 * Usage: java ch09.RingPipeline$Benchmark [messages] [producers] [consumers]
+	 * [capacity]
+	 */
+	public static class Benchmark {
+		// Latency is sampled for one message in this many.
+		static final int SAMPLE = 64;
+
+		static final class Message {
+			final long sent = System.nanoTime();
+		}
+
+		static final Message STOP = new Message();
+
+		interface Handoff {
+			void put(Message m) throws InterruptedException;
+
+			// Take at least one message into batch, and at most max.
+			void take(List<Message> batch, int max) throws InterruptedException;
+		}
+
+		/** Producer's scheme, with notifyAll() so that several consumers are safe. */
+		static class MonitorQueue implements Handoff {
+			private final List<Message> messages = new ArrayList<Message>();
+			private final int capacity;
+
+			MonitorQueue(int capacity) {
+				this.capacity = capacity;
+			}
+
+			public synchronized void put(Message m) throws InterruptedException {
+				while (messages.size() >= capacity)
+					wait();
+				messages.add(m);
+				notifyAll();
+			}
+
+			public synchronized void take(List<Message> batch, int max) throws InterruptedException {
+				while (messages.size() == 0)
+					wait();
+				batch.add(messages.remove(0));
+				notifyAll();
+			}
+		}
+
+		public static void main(String[] args) throws Exception {
+			int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+			int producers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+			int consumers = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+			int capacity = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+			System.out.println(messages + " messages, " + producers + " producers, " + consumers
+					+ " consumers, capacity " + capacity);
+			for (int round = 0; round < 3; round++) {
+				run("monitor", new MonitorQueue(capacity), messages, producers, consumers);
+				RingQueue<Message> one = newQueue(producers, consumers, capacity);
+				run(one.getClass().getSimpleName(), new Handoff() {
+					public void put(Message m) throws InterruptedException {
+						one.put(m);
+					}
+
+					public void take(List<Message> batch, int max) throws InterruptedException {
+						batch.add(one.take());
+					}
+				}, messages, producers, consumers);
+				RingQueue<Message> batched = newQueue(producers, consumers, capacity);
+				run(batched.getClass().getSimpleName() + " batch", new Handoff() {
+					public void put(Message m) throws InterruptedException {
+						batched.put(m);
+					}
+
+					public void take(List<Message> batch, int max) throws InterruptedException {
+						batched.takeBatch(batch, max);
+					}
+				}, messages, producers, consumers);
+			}
+		}
+
+		static void run(String name, Handoff queue, int messages, int producers, int consumers)
+				throws InterruptedException {
+			Thread[] producerThreads = new Thread[producers];
+			Thread[] consumerThreads = new Thread[consumers];
+			long[][] latencies = new long[consumers][];
+			int[] counts = new int[consumers];
+			long start = System.nanoTime();
+			for (int c = 0; c < consumers; c++) {
+				final int id = c;
+				consumerThreads[c] = new Thread(() -> {
+					long[] samples = new long[messages / SAMPLE + 1];
+					int n = 0, taken = 0;
+					List<Message> batch = new ArrayList<Message>();
+					try {
+						while (true) {
+							batch.clear();
+							queue.take(batch, 256);
+							long now = System.nanoTime();
+							for (int i = 0; i < batch.size(); i++) {
+								Message m = batch.get(i);
+								if (m == STOP) {
+									// Pass on any other consumers' STOPs taken in the same batch.
+									for (int j = i + 1; j < batch.size(); j++)
+										queue.put(batch.get(j));
+									latencies[id] = Arrays.copyOf(samples, n);
+									counts[id] = taken;
+									return;
+								}
+								if (taken++ % SAMPLE == 0 && n < samples.length)
+									samples[n++] = now - m.sent;
+							}
+						}
+					} catch (InterruptedException e) {
+					}
+				});
+				consumerThreads[c].start();
+			}
+			for (int p = 0; p < producers; p++) {
+				int share = messages / producers + (p < messages % producers ? 1 : 0);
+				producerThreads[p] = new Thread(() -> {
+					try {
+						for (int i = 0; i < share; i++)
+							queue.put(new Message());
+					} catch (InterruptedException e) {
+					}
+				});
+				producerThreads[p].start();
+			}
+			for (Thread t : producerThreads)
+				t.join();
+			// One STOP for each consumer; a consumer stops reading at its first.
+			for (int c = 0; c < consumers; c++)
+				queue.put(STOP);
+			for (Thread t : consumerThreads)
+				t.join();
+			long nanos = System.nanoTime() - start;
+
+			int total = 0;
+			long[] all = new long[0];
+			for (int c = 0; c < consumers; c++) {
+				total += counts[c];
+				int at = all.length;
+				all = Arrays.copyOf(all, at + latencies[c].length);
+				System.arraycopy(latencies[c], 0, all, at, latencies[c].length);
+			}
+			if (total != messages)
+				throw new IllegalStateException(name + ": " + total + " of " + messages + " messages arrived");
+			Arrays.sort(all);
+			System.out.printf("  %-22s %,12.0f msgs/s   latency p50 %,9d ns  p99 %,11d ns  max %,11d ns%n", name,
+					messages / (nanos / 1e9), percentile(all, 50), percentile(all, 99), percentile(all, 100));
+		}
+
+		static long percentile(long[] sorted, double p) {
+			if (sorted.length == 0)
+				return 0;
+			int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+		}
+	}
+}
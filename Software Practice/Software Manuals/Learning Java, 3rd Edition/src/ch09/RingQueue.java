@@ -0,0 +1,125 @@
+package ch09;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Not in the manual. A bounded queue kept in a ring of slots, to hand messages
+ * between threads without the single monitor of Producer: see
+ * {@link SpscRingQueue} for one producer and one consumer, and
+ * {@link MpmcRingQueue} for any number of each.
+ * <p>
+ * offer(), poll() and drainTo() never block. put() and take() wait when the
+ * queue is full or empty: first by spinning, then by yielding, and only then
+ * by parking. A parked thread is woken by the next thread to make room or add
+ * a message, so an uncontended handoff costs no lock and no system call.
+ */
+public abstract class RingQueue<E> {
+	static final int SPINS = 64, YIELDS = 16;
+
+	final Object[] buffer;
+	final int mask;
+
+	// Threads parked waiting for a message, and for room.
+	private final Queue<Thread> takers = new ConcurrentLinkedQueue<Thread>();
+	private final Queue<Thread> putters = new ConcurrentLinkedQueue<Thread>();
+
+	RingQueue(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity: " + capacity);
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		buffer = new Object[size];
+		mask = size - 1;
+	}
+
+	/** Adds e if there is room, and returns whether it did. */
+	public abstract boolean offer(E e);
+
+	/** Removes and returns the first message, or null if there is none. */
+	public abstract E poll();
+
+	/**
+	 * Removes up to max messages that are ready, in order, into batch, and
+	 * returns how many. It takes them all in one step where it can.
+	 */
+	public abstract int drainTo(Collection<? super E> batch, int max);
+
+	/** The number of messages in the queue, which may change at once. */
+	public abstract int size();
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/** Adds e, waiting for room if the queue is full. */
+	public void put(E e) throws InterruptedException {
+		if (e == null)
+			throw new NullPointerException();
+		for (int tries = 0; !offer(e); tries++)
+			pause(tries, putters, () -> size() >= buffer.length);
+	}
+
+	/** Removes and returns the first message, waiting for one if need be. */
+	public E take() throws InterruptedException {
+		E e;
+		for (int tries = 0; (e = poll()) == null; tries++)
+			pause(tries, takers, this::isEmpty);
+		return e;
+	}
+
+	/** Waits for at least one message, then drains up to max into batch. */
+	public int takeBatch(Collection<? super E> batch, int max) throws InterruptedException {
+		int n;
+		for (int tries = 0; (n = drainTo(batch, max)) == 0; tries++)
+			pause(tries, takers, this::isEmpty);
+		return n;
+	}
+
+	interface Condition {
+		boolean holds();
+	}
+
+	private void pause(int tries, Queue<Thread> waiters, Condition blocked) throws InterruptedException {
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		if (tries < SPINS)
+			return;
+		if (tries < SPINS + YIELDS) {
+			Thread.yield();
+			return;
+		}
+		Thread me = Thread.currentThread();
+		waiters.add(me);
+		// Look again after registering, so a wakeup sent in between is not missed.
+		if (blocked.holds())
+			LockSupport.park(this);
+		waiters.remove(me);
+	}
+
+	// Subclasses call these after adding and removing messages.
+	void signalTakers() {
+		wake(takers);
+	}
+
+	void signalPutters() {
+		wake(putters);
+	}
+
+	private static void wake(Queue<Thread> waiters) {
+		if (!waiters.isEmpty()) {
+			Thread t = waiters.poll();
+			if (t != null)
+				LockSupport.unpark(t);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	final E elementAt(int index) {
+		return (E) buffer[index];
+	}
+}
@@ -0,0 +1,372 @@
+package ch09;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import java.net.*;
+import java.io.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Not in the manual. A SiteTimer for many endpoints at once.
+ * <p>
+ * Each endpoint is probed on its own schedule: every interval, a scheduler
+ * thread starts a probe on a virtual thread (or a pooled thread on JVMs
+ * without them), unless the endpoint's previous probe is still running. A
+ * probe times a full GET with System.nanoTime() and gives up at the timeout,
+ * so a slow or dead endpoint never holds up the others, as the CyclicBarrier
+ * in SiteTimer does. Each endpoint keeps a RollingHistogram of its recent
+ * latencies, and a report of percentiles is printed every few seconds.
+ * <p>
+ * Usage: java ch09.SiteProber [-interval ms] [-timeout ms] [-report seconds]
+ * url ... <br>
+ * or: java ch09.SiteProber -demo, which probes a local stand-in server with
+ * fast, slow, failing and hanging endpoints.
+ */
+public class SiteProber {
+	final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "SiteProber scheduler");
+		t.setDaemon(true);
+		return t;
+	});
+	final ExecutorService probes;
+	final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+	final long intervalMillis, timeoutMillis;
+
+	/** One probed URL and what has been seen of it. */
+	public static class Endpoint {
+		final String url;
+		final RollingHistogram latency;
+		final AtomicBoolean inFlight = new AtomicBoolean();
+		final AtomicLong ok = new AtomicLong(), failed = new AtomicLong(), timedOut = new AtomicLong(),
+				skipped = new AtomicLong();
+		volatile String lastError;
+
+		Endpoint(String url, long windowMillis) {
+			this.url = url;
+			latency = new RollingHistogram(6, TimeUnit.MILLISECONDS.toNanos(windowMillis));
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public RollingHistogram getLatency() {
+			return latency;
+		}
+
+		public long getOk() {
+			return ok.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		public long getTimedOut() {
+			return timedOut.get();
+		}
+
+		/** Probes not started because the one before was still running. */
+		public long getSkipped() {
+			return skipped.get();
+		}
+	}
+
+	/**
+	 * Percentiles are kept over the last six windows of windowMillis each, so
+	 * they follow changes in an endpoint's latency.
+	 */
+	public SiteProber(List<String> urls, long intervalMillis, long timeoutMillis, long windowMillis,
+			ExecutorService probes) {
+		for (String url : urls)
+			endpoints.add(new Endpoint(url, windowMillis));
+		this.intervalMillis = intervalMillis;
+		this.timeoutMillis = timeoutMillis;
+		this.probes = probes;
+	}
+
+	public List<Endpoint> getEndpoints() {
+		return Collections.unmodifiableList(endpoints);
+	}
+
+	/** Starts probing, spreading the endpoints' first probes over one interval. */
+	public void start() {
+		for (int i = 0; i < endpoints.size(); i++) {
+			Endpoint e = endpoints.get(i);
+			long offset = intervalMillis * i / endpoints.size();
+			scheduler.scheduleAtFixedRate(() -> launch(e), offset, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	void launch(Endpoint e) {
+		if (!e.inFlight.compareAndSet(false, true)) {
+			e.skipped.incrementAndGet();
+			return;
+		}
+		try {
+			probes.execute(() -> {
+				try {
+					probe(e);
+				} finally {
+					e.inFlight.set(false);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			e.inFlight.set(false);
+		}
+	}
+
+	void probe(Endpoint e) {
+		HttpURLConnection connection = null;
+		ScheduledFuture<?> deadline = null;
+		long start = System.nanoTime();
+		try {
+			connection = (HttpURLConnection) new URL(e.url).openConnection();
+			connection.setConnectTimeout((int) timeoutMillis);
+			connection.setReadTimeout((int) timeoutMillis);
+			connection.setUseCaches(false);
+			// The timeouts apply to each connect and read; this bounds the whole probe.
+			HttpURLConnection c = connection;
+			deadline = scheduler.schedule(c::disconnect, timeoutMillis, TimeUnit.MILLISECONDS);
+			int code = connection.getResponseCode();
+			InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				while (in.read(buffer) >= 0)
+					;
+				in.close();
+			}
+			long nanos = System.nanoTime() - start;
+			if (code >= 400) {
+				e.lastError = "HTTP " + code;
+				e.failed.incrementAndGet();
+			} else {
+				e.latency.record(nanos);
+				e.ok.incrementAndGet();
+			}
+		} catch (IOException ex) {
+			long nanos = System.nanoTime() - start;
+			e.lastError = ex.toString();
+			if (ex instanceof SocketTimeoutException || nanos >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis))
+				e.timedOut.incrementAndGet();
+			else
+				e.failed.incrementAndGet();
+		} finally {
+			if (deadline != null)
+				deadline.cancel(false);
+		}
+	}
+
+	/**
+	 * Returns a table of the endpoints, fastest median first, and then those with
+	 * no recent successful probes.
+	 */
+	public String report() {
+		List<Endpoint> sorted = new ArrayList<Endpoint>(endpoints);
+		Map<Endpoint, long[]> percentiles = new HashMap<Endpoint, long[]>();
+		for (Endpoint e : sorted)
+			percentiles.put(e, e.latency.percentiles(50, 90, 99, 100));
+		// percentiles() gives zeros for an endpoint with no successful probes; put those last, not first.
+		sorted.sort(Comparator.comparing((Endpoint e) -> percentiles.get(e)[3] == 0)
+				.thenComparingLong(e -> percentiles.get(e)[0]));
+		StringBuilder b = new StringBuilder();
+		b.append(String.format("%-40s %7s %9s %9s %9s %9s %6s %6s %6s%n", "endpoint", "ok", "p50 ms", "p90 ms",
+				"p99 ms", "max ms", "fail", "tmout", "skip"));
+		for (Endpoint e : sorted) {
+			long[] p = percentiles.get(e);
+			b.append(String.format("%-40.40s %7d %9.2f %9.2f %9.2f %9.2f %6d %6d %6d%n", e.url, e.ok.get(),
+					p[0] / 1e6, p[1] / 1e6, p[2] / 1e6, p[3] / 1e6, e.failed.get(), e.timedOut.get(),
+					e.skipped.get()));
+		}
+		return b.toString();
+	}
+
+	public void stop() {
+		scheduler.shutdownNow();
+		probes.shutdownNow();
+	}
+
+	/**
+	 * Counts of latencies in buckets, kept for a ring of time windows so that old
+	 * values age out. Each power of two is split into 16 buckets, so a reported
+	 * percentile is within about 6% of the true one. Safe for any number of
+	 * threads.
+	 */
+	public static class RollingHistogram {
+		static final int SUB_BITS = 4;
+		static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+		private final long[][] counts;
+		private final long[] maxima;
+		private final long[] epochs; // which window each slot holds
+		private final long windowNanos;
+
+		public RollingHistogram(int windows, long windowNanos) {
+			counts = new long[windows][BUCKETS];
+			maxima = new long[windows];
+			epochs = new long[windows];
+			Arrays.fill(epochs, Long.MIN_VALUE);
+			this.windowNanos = windowNanos;
+		}
+
+		static int bucket(long value) {
+			if (value < 1 << SUB_BITS)
+				return (int) Math.max(value, 0);
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+			return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & ((1 << SUB_BITS) - 1));
+		}
+
+		// The largest value that falls in bucket b.
+		static long highest(int b) {
+			if (b < 1 << SUB_BITS)
+				return b;
+			int shift = (b >>> SUB_BITS) - 1;
+			long lowest = (long) ((1 << SUB_BITS) + (b & ((1 << SUB_BITS) - 1))) << shift;
+			return lowest + (1L << shift) - 1;
+		}
+
+		public void record(long nanos) {
+			record(nanos, System.nanoTime());
+		}
+
+		synchronized void record(long value, long now) {
+			int slot = slot(now);
+			counts[slot][bucket(value)]++;
+			maxima[slot] = Math.max(maxima[slot], value);
+		}
+
+		// The slot for the window holding time now, emptied if it held an older window.
+		private int slot(long now) {
+			// nanoTime() may be negative, so round down rather than toward zero.
+			long epoch = Math.floorDiv(now, windowNanos);
+			int slot = (int) Math.floorMod(epoch, (long) counts.length);
+			if (epochs[slot] != epoch) {
+				Arrays.fill(counts[slot], 0);
+				maxima[slot] = 0;
+				epochs[slot] = epoch;
+			}
+			return slot;
+		}
+
+		/** The number of values recorded in the current windows. */
+		public long getCount() {
+			long n = 0;
+			for (long c : merged(System.nanoTime()))
+				n += c;
+			return n;
+		}
+
+		/**
+		 * Returns the value at each percentile (0 to 100) over the current windows, or
+		 * zeros if nothing has been recorded.
+		 */
+		public synchronized long[] percentiles(double... percentiles) {
+			long now = System.nanoTime();
+			long[] merged = merged(now);
+			long total = 0, max = 0;
+			for (long c : merged)
+				total += c;
+			long oldest = Math.floorDiv(now, windowNanos) - counts.length;
+			for (int w = 0; w < counts.length; w++)
+				if (epochs[w] > oldest)
+					max = Math.max(max, maxima[w]);
+			long[] result = new long[percentiles.length];
+			if (total == 0)
+				return result;
+			for (int i = 0; i < percentiles.length; i++) {
+				long rank = Math.max(1, (long) Math.ceil(percentiles[i] / 100 * total));
+				long seen = 0;
+				for (int b = 0; b < BUCKETS; b++) {
+					seen += merged[b];
+					if (seen >= rank) {
+						result[i] = Math.min(highest(b), max);
+						break;
+					}
+				}
+			}
+			return result;
+		}
+
+		private synchronized long[] merged(long now) {
+			long[] merged = new long[BUCKETS];
+			long oldest = Math.floorDiv(now, windowNanos) - counts.length;
+			for (int w = 0; w < counts.length; w++)
+				if (epochs[w] > oldest)
+					for (int b = 0; b < BUCKETS; b++)
+						merged[b] += counts[w][b];
+			return merged;
+		}
+	}
+
+	/**
+	 * A local HTTP server standing in for real endpoints: /fast answers at once,
+	 * /slow after 200 ms, /jitter after 0 to 100 ms, /error with a 500, and
+	 * /hang after a minute. Close it with stop(0), and shut down its executor.
+	 */
+	public static HttpServer startStandIn() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/fast", x -> reply(x, 200, 0));
+		server.createContext("/slow", x -> reply(x, 200, 200));
+		server.createContext("/jitter", x -> reply(x, 200, ThreadLocalRandom.current().nextInt(100)));
+		server.createContext("/error", x -> reply(x, 500, 0));
+		server.createContext("/hang", x -> reply(x, 200, 60000));
+		server.setExecutor(ExecutorHttpd.newVirtualThreadPerTaskExecutor());
+		server.start();
+		return server;
+	}
+
+	private static void reply(com.sun.net.httpserver.HttpExchange exchange, int code, long delayMillis)
+			throws IOException {
+		try {
+			Thread.sleep(delayMillis);
+		} catch (InterruptedException e) {
+		}
+		byte[] body = "ok\n".getBytes("US-ASCII");
+		exchange.sendResponseHeaders(code, body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		long interval = 1000, timeout = 2000, report = 5;
+		List<String> urls = new ArrayList<String>();
+		HttpServer standIn = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-interval"))
+				interval = Long.parseLong(args[++i]);
+			else if (args[i].equals("-timeout"))
+				timeout = Long.parseLong(args[++i]);
+			else if (args[i].equals("-report"))
+				report = Long.parseLong(args[++i]);
+			else if (args[i].equals("-demo")) {
+				standIn = startStandIn();
+				String base = "http://localhost:" + standIn.getAddress().getPort();
+				for (String path : new String[] { "/fast", "/slow", "/jitter", "/error", "/hang" })
+					urls.add(base + path);
+				interval = 250;
+				timeout = 1000;
+				report = 2;
+			} else
+				urls.add(args[i]);
+		}
+		if (urls.isEmpty()) {
+			System.out.println("Usage: [-interval ms] [-timeout ms] [-report seconds] <url1> <url2> ... | -demo");
+			System.exit(0);
+		}
+		SiteProber prober = new SiteProber(urls, interval, timeout, report * 1000,
+				ExecutorHttpd.newVirtualThreadPerTaskExecutor());
+		prober.start();
+		for (int round = 0; standIn == null || round < 5; round++) {
+			Thread.sleep(report * 1000);
+			System.out.print(prober.report());
+			System.out.println("------------------");
+		}
+		prober.stop();
+		standIn.stop(0);
+		// Interrupts the handlers still holding /hang open.
+		((ExecutorService) standIn.getExecutor()).shutdownNow();
+	}
+}
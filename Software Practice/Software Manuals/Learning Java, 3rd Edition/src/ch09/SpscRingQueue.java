@@ -0,0 +1,72 @@
+package ch09;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Not in the manual. A RingQueue for exactly one producer thread and one
+ * consumer thread. The producer alone moves tail and the consumer alone moves
+ * head, so neither needs a compare-and-set: each writes its own counter and
+ * reads the other's. Each also keeps the last value it read of the other's
+ * counter, and reads it again only when the ring looks full (or empty).
+ */
+public class SpscRingQueue<E> extends RingQueue<E> {
+	// The next slot to write, and the next to read.
+	private final AtomicLong tail = new AtomicLong(), head = new AtomicLong();
+	private long headSeen; // used only by the producer
+	private long tailSeen; // used only by the consumer
+
+	public SpscRingQueue(int capacity) {
+		super(capacity);
+	}
+
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		long t = tail.get();
+		if (t - headSeen >= buffer.length) {
+			headSeen = head.get();
+			if (t - headSeen >= buffer.length)
+				return false;
+		}
+		buffer[(int) t & mask] = e;
+		tail.set(t + 1);
+		signalTakers();
+		return true;
+	}
+
+	public E poll() {
+		long h = head.get();
+		if (h >= tailSeen) {
+			tailSeen = tail.get();
+			if (h >= tailSeen)
+				return null;
+		}
+		int i = (int) h & mask;
+		E e = elementAt(i);
+		buffer[i] = null;
+		head.set(h + 1);
+		signalPutters();
+		return e;
+	}
+
+	public int drainTo(Collection<? super E> batch, int max) {
+		long h = head.get();
+		tailSeen = tail.get();
+		int n = (int) Math.min(tailSeen - h, max);
+		if (n <= 0)
+			return 0;
+		for (int k = 0; k < n; k++) {
+			int i = (int) (h + k) & mask;
+			batch.add(elementAt(i));
+			buffer[i] = null;
+		}
+		head.set(h + n);
+		signalPutters();
+		return n;
+	}
+
+	public int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+}
@@ -0,0 +1,410 @@
+package ch12;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Not in the manual. An asynchronous logger to use instead of LoggerDaemon,
+ * whose PipedWriter synchronizes on every write and waits a second at a time
+ * when its small buffer is full.
+ * <p>
+ * Lines go into a ring of preallocated entries. Any number of threads may
+ * call log(): each claims a slot with a compare-and-set on the claim counter,
+ * encodes its line as UTF-8 into the slot's own byte array, and publishes the
+ * slot by writing its sequence number. One consumer thread takes published
+ * slots in order, copies as many as are ready into a direct buffer, frees the
+ * slots, and writes the whole batch to a FileChannel at once.
+ * <p>
+ * When the ring is full, the Policy decides: BLOCK makes the caller wait for
+ * room, DROP discards the line, and SAMPLE starts keeping only one line in
+ * sampleRate once the ring is half full (and drops the rest, and everything
+ * once it is full). Counters report lines written, dropped and sampled out,
+ * and the deepest the ring has been.
+ */
+public class AsyncLogger implements Closeable {
+	public enum Policy {
+		BLOCK, DROP, SAMPLE
+	}
+
+	static final int BATCH_BYTES = 256 * 1024;
+
+	/** A preallocated slot. sequence is the claim number of the line it holds. */
+	static final class Entry {
+		volatile long sequence = -1;
+		byte[] bytes = new byte[256];
+		int length;
+	}
+
+	final Entry[] ring;
+	final int mask;
+	final Policy policy;
+	final int sampleRate;
+	final FileChannel channel;
+	final Thread consumer;
+
+	// The next sequence number to claim, and the first one not yet consumed.
+	// The consumer sets claimed to CLOSED when it stops, so no later claim can
+	// succeed and leave a line unwritten.
+	static final long CLOSED = Long.MIN_VALUE;
+	final AtomicLong claimed = new AtomicLong();
+	volatile long consumed;
+	volatile boolean consumerWaiting;
+	volatile boolean closing;
+
+	final AtomicLong dropped = new AtomicLong();
+	final AtomicLong sampledOut = new AtomicLong();
+	final AtomicLong sampleCounter = new AtomicLong();
+	final AtomicLong maxDepth = new AtomicLong();
+	volatile long written;
+	// Every line before this sequence number is in the file.
+	volatile long synced;
+	volatile long bytesWritten;
+
+	public AsyncLogger(Path file, int capacity, Policy policy, int sampleRate) throws IOException {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		ring = new Entry[size];
+		for (int i = 0; i < size; i++)
+			ring[i] = new Entry();
+		mask = size - 1;
+		this.policy = policy;
+		this.sampleRate = Math.max(sampleRate, 1);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		consumer = new Thread(this::consume, "AsyncLogger " + file);
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	public AsyncLogger(Path file) throws IOException {
+		this(file, 64 * 1024, Policy.BLOCK, 1);
+	}
+
+	/**
+	 * Logs one line; a newline is added. Returns false if the line was dropped
+	 * or sampled out, or if the logger closed while this call was waiting.
+	 */
+	public boolean log(CharSequence line) {
+		if (closing)
+			throw new IllegalStateException("Logger is closed");
+		long sequence = claim();
+		if (sequence < 0)
+			return false;
+		Entry entry = ring[(int) (sequence & mask)];
+		encode(line, entry);
+		entry.sequence = sequence; // Publish.
+		if (consumerWaiting)
+			LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/**
+	 * Claims the next slot, or returns -1 if the policy says to skip the line or
+	 * the logger is closing.
+	 */
+	private long claim() {
+		int spins = 0;
+		while (true) {
+			long sequence = claimed.get();
+			if (sequence == CLOSED) {
+				dropped.incrementAndGet();
+				return -1;
+			}
+			long depth = sequence - consumed;
+			if (depth >= ring.length) {
+				// A consumer that has stopped will never make room.
+				if (policy != Policy.BLOCK || closing) {
+					dropped.incrementAndGet();
+					return -1;
+				}
+				// Full: wait for the consumer to free a slot.
+				if (consumerWaiting)
+					LockSupport.unpark(consumer);
+				if (++spins < 100)
+					Thread.yield();
+				else
+					LockSupport.parkNanos(10000);
+				continue;
+			}
+			if (policy == Policy.SAMPLE && depth >= ring.length / 2
+					&& sampleCounter.getAndIncrement() % sampleRate != 0) {
+				sampledOut.incrementAndGet();
+				return -1;
+			}
+			if (claimed.compareAndSet(sequence, sequence + 1)) {
+				depth++;
+				long max;
+				while (depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth))
+					;
+				return sequence;
+			}
+		}
+	}
+
+	/** Encodes the line and a newline as UTF-8 into the entry's bytes. */
+	static void encode(CharSequence line, Entry entry) {
+		int n = line.length();
+		if (entry.bytes.length < n * 3 + 1)
+			entry.bytes = new byte[Math.max(entry.bytes.length * 2, n * 3 + 1)];
+		byte[] b = entry.bytes;
+		int p = 0;
+		for (int i = 0; i < n; i++) {
+			char c = line.charAt(i);
+			if (c < 0x80) {
+				b[p++] = (byte) c;
+			} else if (c < 0x800) {
+				b[p++] = (byte) (0xC0 | c >> 6);
+				b[p++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(line.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, line.charAt(++i));
+				b[p++] = (byte) (0xF0 | cp >> 18);
+				b[p++] = (byte) (0x80 | cp >> 12 & 0x3F);
+				b[p++] = (byte) (0x80 | cp >> 6 & 0x3F);
+				b[p++] = (byte) (0x80 | cp & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				b[p++] = '?';
+			} else {
+				b[p++] = (byte) (0xE0 | c >> 12);
+				b[p++] = (byte) (0x80 | c >> 6 & 0x3F);
+				b[p++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		b[p++] = '\n';
+		entry.length = p;
+	}
+
+	/** The consumer thread: batch the published lines and write them. */
+	void consume() {
+		ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+		long next = consumed;
+		int idle = 0;
+		try {
+			while (true) {
+				Entry entry = ring[(int) (next & mask)];
+				if (entry.sequence == next) {
+					// A line longer than the batch is written in pieces.
+					int offset = 0;
+					while (offset < entry.length) {
+						int n = Math.min(batch.remaining(), entry.length - offset);
+						batch.put(entry.bytes, offset, n);
+						offset += n;
+						if (!batch.hasRemaining())
+							writeBatch(batch);
+					}
+					next++;
+					written++;
+					// Free slots as soon as they're copied, not after the write.
+					if ((next & 63) == 0)
+						consumed = next;
+					idle = 0;
+					continue;
+				}
+				// Nothing more is ready: free the slots and write what we have.
+				consumed = next;
+				if (batch.position() > 0) {
+					writeBatch(batch);
+					synced = next;
+					continue;
+				}
+				synced = next;
+				// Fails if a line was claimed meanwhile; write that first.
+				if (closing && claimed.compareAndSet(next, CLOSED))
+					break;
+				if (++idle < 100) {
+					Thread.yield();
+				} else {
+					consumerWaiting = true;
+					if (ring[(int) (next & mask)].sequence != next && !closing)
+						LockSupport.parkNanos(1000000);
+					consumerWaiting = false;
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("AsyncLogger: " + e);
+			closing = true;
+			claimed.set(CLOSED);
+		}
+	}
+
+	private void writeBatch(ByteBuffer batch) throws IOException {
+		batch.flip();
+		while (batch.hasRemaining())
+			bytesWritten += channel.write(batch);
+		batch.clear();
+	}
+
+	/** Waits until every line logged before this call has been written. */
+	public void flush() {
+		long target = claimed.get();
+		while (synced < target && consumer.isAlive()) {
+			LockSupport.unpark(consumer);
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	/** Writes the remaining lines and closes the file. */
+	public void close() throws IOException {
+		closing = true;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+	public long written() {
+		return written;
+	}
+
+	public long dropped() {
+		return dropped.get();
+	}
+
+	public long sampledOut() {
+		return sampledOut.get();
+	}
+
+	public long maxDepth() {
+		return maxDepth.get();
+	}
+
+	public long bytesWritten() {
+		return bytesWritten;
+	}
+
+	/** The number of lines waiting to be written. */
+	public long depth() {
+		long sequence = claimed.get();
+		return sequence == CLOSED ? 0 : sequence - consumed;
+	}
+
+	/**
+	 * A Writer for code which wants one, such as a PrintWriter. Each line is
+	 * logged when its newline is written. Unlike LoggerDaemon's writers, it is
+	 * not shared: give each thread its own.
+	 */
+	public Writer writer() {
+		return new Writer() {
+			final StringBuilder line = new StringBuilder();
+
+			public void write(char[] chars, int offset, int length) {
+				for (int i = offset; i < offset + length; i++) {
+					if (chars[i] == '\n') {
+						log(line);
+						line.setLength(0);
+					} else if (chars[i] != '\r') {
+						line.append(chars[i]);
+					}
+				}
+			}
+
+			public void flush() {
+			}
+
+			public void close() {
+				if (line.length() > 0) {
+					log(line);
+					line.setLength(0);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Compares the piped LoggerDaemon approach with AsyncLogger under each
+	 * policy: threads log lines as fast as they can to a temporary file.
+	 * Usage: java ch12.AsyncLogger [threads] [linesPerThread]
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int lines = args.length > 1 ? Integer.parseInt(args[1]) : 250000;
+		Path file = Files.createTempFile("AsyncLogger", ".log");
+		try {
+			for (int round = 0; round < 2; round++) {
+				Files.write(file, new byte[0]);
+				runPiped(file, threads, Math.min(lines, 50000));
+				for (Policy policy : Policy.values()) {
+					Files.write(file, new byte[0]);
+					try (AsyncLogger logger = new AsyncLogger(file, 16 * 1024, policy, 10)) {
+						long start = System.nanoTime();
+						run(threads, lines, line -> logger.log(line));
+						double producerSeconds = (System.nanoTime() - start) / 1e9;
+						logger.flush();
+						double seconds = (System.nanoTime() - start) / 1e9;
+						System.out.printf(
+								"%-6s %,12.0f lines/s logged, %,12.0f lines/s written; written %,d dropped %,d "
+										+ "sampled out %,d max depth %,d%n",
+								policy, threads * (double) lines / producerSeconds, logger.written() / seconds,
+								logger.written(), logger.dropped(), logger.sampledOut(), logger.maxDepth());
+					}
+					long fileLines;
+					try (Stream<String> stream = Files.lines(file)) {
+						fileLines = stream.count();
+					}
+					if (policy == Policy.BLOCK && fileLines != (long) threads * lines)
+						System.out.println("BLOCK lost lines: " + fileLines);
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	interface LineSink {
+		void log(String line) throws IOException;
+	}
+
+	static void run(int threads, int lines, LineSink sink) throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(() -> {
+				try {
+					for (int i = 0; i < lines; i++)
+						sink.log("thread " + id + " request " + i + " handled in 42 ms");
+				} catch (IOException e) {
+					System.err.println(e);
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+	}
+
+	/** The LoggerDaemon pattern, with its reader writing the lines to the file. */
+	static void runPiped(Path file, int threads, int lines) throws Exception {
+		PipedReader in = new PipedReader();
+		Thread reader = new Thread(() -> {
+			try (BufferedReader bin = new BufferedReader(in);
+					BufferedWriter out = Files.newBufferedWriter(file)) {
+				String s;
+				while ((s = bin.readLine()) != null) {
+					out.write(s);
+					out.newLine();
+				}
+			} catch (IOException e) {
+			}
+		});
+		reader.start();
+		PipedWriter pipe = new PipedWriter(in);
+		long start = System.nanoTime();
+		// Each thread gets its own PrintWriter, as from LoggerDaemon.getWriter().
+		ThreadLocal<PrintWriter> writers = ThreadLocal.withInitial(() -> new PrintWriter(pipe));
+		run(threads, lines, line -> {
+			PrintWriter writer = writers.get();
+			writer.println(line);
+			writer.flush();
+		});
+		pipe.close();
+		reader.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Piped  %,12.0f lines/s%n", threads * (double) lines / seconds);
+	}
+}
@@ -17,7 +17,19 @@ public class CopyChannels3 {
 		FileOutputStream outStream = new FileOutputStream(toFileName);
 		FileChannel out = outStream.getChannel();
 
-		in.transferTo(0, (int) in.size(), out);
+		// transferTo() may copy fewer bytes than asked for (at most 2GB on
+		// many systems), so keep calling it until the whole file is copied.
+		long size = in.size();
+		long position = 0;
+		while (position < size) {
+			long n = in.transferTo(position, size - position, out);
+			if (n <= 0) {
+				if (position >= in.size())
+					break; // The file shrank while we were copying it.
+				throw new IOException("transferTo() made no progress at byte " + position);
+			}
+			position += n;
+		}
 
 		in.close();
 		inStream.close();
@@ -3,7 +3,10 @@ package ch12;
 import java.io.*;
 
 /**
- * From Learning Java, 3rd Edition, p. 401.
+ * From Learning Java, 3rd Edition, p. 401. Every write to a piped stream
+ * synchronizes on the pipe, and a writer waits a second at a time when the
+ * pipe's small buffer is full; see AsyncLogger for a logger which doesn't
+ * stall the threads that use it.
  */
 class LoggerDaemon extends Thread {
 
@@ -2,11 +2,20 @@ package ch13;
 
 import java.rmi.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class MyServer extends java.rmi.server.UnicastRemoteObject implements RemoteServer {
 
 	private static final long serialVersionUID = -1921291835805476493L;
 
+	/*
+	 * asyncExecute() used to start a new thread per call. Calls now share a
+	 * bounded pool; once its queue is full the calling RMI thread runs the work
+	 * itself, which slows down callers instead of piling up threads.
+	 */
+	static final ExecutorService asyncPool = new ThreadPoolExecutor(4, 4, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(256), new ThreadPoolExecutor.CallerRunsPolicy());
+
 	public MyServer() throws RemoteException {
 	}
 
@@ -20,7 +29,7 @@ public class MyServer extends java.rmi.server.UnicastRemoteObject implements Rem
 	}
 
 	public void asyncExecute(final WorkRequest request, final WorkListener listener) throws RemoteException {
-		new Thread() {
+		asyncPool.execute(new Runnable() {
 			public void run() {
 				try {
 					Thread.sleep(1000);
@@ -34,7 +43,7 @@ public class MyServer extends java.rmi.server.UnicastRemoteObject implements Rem
 					System.out.println(e); // error calling client
 				}
 			}
-		}.start();
+		});
 	}
 
 	public static void main(String args[]) {
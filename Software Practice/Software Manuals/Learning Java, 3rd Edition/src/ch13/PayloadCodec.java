@@ -0,0 +1,105 @@
+package ch13;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Not in the manual. Encodes the requests and results carried by
+ * PipelinedServer and PipelinedClient. Each payload is written into its own
+ * frame, so a codec never needs to keep state between calls.
+ */
+public interface PayloadCodec {
+	void encode(Object value, DataOutputStream out) throws IOException;
+
+	Object decode(DataInputStream in) throws IOException;
+
+	/**
+	 * Plain Java serialization, one ObjectOutputStream per payload. Handles any
+	 * Serializable request, but resends the stream header and class
+	 * descriptors every time.
+	 */
+	public static class Serializing implements PayloadCodec {
+		public void encode(Object value, DataOutputStream out) throws IOException {
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			oos.writeObject(value);
+			oos.flush();
+		}
+
+		public Object decode(DataInputStream in) throws IOException {
+			try {
+				return new ObjectInputStream(in).readObject();
+			} catch (ClassNotFoundException e) {
+				throw new InvalidObjectException(e.toString());
+			}
+		}
+	}
+
+	/**
+	 * A compact codec which writes a one-byte type tag followed by the fields
+	 * of the value. Types are registered with a tag and a pair of functions;
+	 * anything unregistered falls back to Java serialization.
+	 */
+	public static class Tagged implements PayloadCodec {
+		public interface Writer<T> {
+			void write(T value, DataOutputStream out) throws IOException;
+		}
+
+		public interface Reader<T> {
+			T read(DataInputStream in) throws IOException;
+		}
+
+		static final int NULL = 0, SERIALIZED = 1;
+
+		private final Map<Class<?>, Integer> tags = new HashMap<Class<?>, Integer>();
+		private final Writer<?>[] writers = new Writer<?>[256];
+		private final Reader<?>[] readers = new Reader<?>[256];
+		private final Serializing fallback = new Serializing();
+
+		/** A codec which already knows the types used by the chapter's examples. */
+		public Tagged() {
+			register(2, Integer.class, (v, out) -> out.writeInt(v), in -> in.readInt());
+			register(3, String.class, (v, out) -> out.writeUTF(v), in -> in.readUTF());
+			register(4, Date.class, (v, out) -> out.writeLong(v.getTime()), in -> new Date(in.readLong()));
+			register(5, DateRequest.class, (v, out) -> {
+			}, in -> new DateRequest());
+			register(6, MyCalculation.class, (v, out) -> out.writeInt(v.n), in -> new MyCalculation(in.readInt()));
+		}
+
+		/** Types must be registered before the codec is shared between threads. */
+		public <T> void register(int tag, Class<T> type, Writer<T> writer, Reader<T> reader) {
+			if (tag <= SERIALIZED || tag > 255)
+				throw new IllegalArgumentException("Tag " + tag + " is reserved or out of range");
+			tags.put(type, tag);
+			writers[tag] = writer;
+			readers[tag] = reader;
+		}
+
+		@SuppressWarnings("unchecked")
+		public void encode(Object value, DataOutputStream out) throws IOException {
+			if (value == null) {
+				out.writeByte(NULL);
+				return;
+			}
+			Integer tag = tags.get(value.getClass());
+			if (tag == null) {
+				out.writeByte(SERIALIZED);
+				fallback.encode(value, out);
+			} else {
+				out.writeByte(tag);
+				((Writer<Object>) writers[tag]).write(value, out);
+			}
+		}
+
+		public Object decode(DataInputStream in) throws IOException {
+			int tag = in.readUnsignedByte();
+			if (tag == NULL)
+				return null;
+			if (tag == SERIALIZED)
+				return fallback.decode(in);
+			Reader<?> reader = readers[tag];
+			if (reader == null)
+				throw new StreamCorruptedException("Unknown payload tag " + tag);
+			return reader.read(in);
+		}
+	}
+}
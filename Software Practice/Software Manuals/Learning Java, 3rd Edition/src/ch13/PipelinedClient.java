@@ -0,0 +1,129 @@
+package ch13;
+
+import java.net.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Not in the manual. The client side of PipelinedServer. submit() writes a
+ * request frame and returns at once with a CompletableFuture; a reader thread
+ * matches each response to its future by request id, in whatever order the
+ * server sends them.
+ */
+public class PipelinedClient implements Closeable {
+	final Socket server;
+	final PayloadCodec codec;
+	final DataOutputStream out;
+	final Map<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+	final AtomicLong nextId = new AtomicLong();
+
+	public PipelinedClient(String host, int port, PayloadCodec codec) throws IOException {
+		this.server = new Socket(host, port);
+		server.setTcpNoDelay(true);
+		this.codec = codec;
+		this.out = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+		Thread reader = new Thread(this::readResponses, "PipelinedClient " + server);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Sends a request. Set flush to false to queue several requests into one
+	 * write; call flush() when done.
+	 */
+	public CompletableFuture<Object> submit(Request request, boolean flush) throws IOException {
+		long id = nextId.incrementAndGet();
+		CompletableFuture<Object> result = new CompletableFuture<Object>();
+		pending.put(id, result);
+		try {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+			codec.encode(request, new DataOutputStream(payload));
+			synchronized (out) {
+				PipelinedServer.writeFrame(out, id, PipelinedServer.OK, payload);
+				if (flush)
+					out.flush();
+			}
+		} catch (IOException | RuntimeException e) {
+			// No response will come for a request that wasn't sent.
+			pending.remove(id);
+			result.completeExceptionally(e);
+			throw e;
+		}
+		return result;
+	}
+
+	public CompletableFuture<Object> submit(Request request) throws IOException {
+		return submit(request, true);
+	}
+
+	public void flush() throws IOException {
+		synchronized (out) {
+			out.flush();
+		}
+	}
+
+	void readResponses() {
+		IOException failure = null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(server.getInputStream()));
+			while (true) {
+				byte[] frame = PipelinedServer.readFrame(in, in.readInt());
+				DataInputStream fields = new DataInputStream(new ByteArrayInputStream(frame));
+				long id = fields.readLong();
+				byte status = fields.readByte();
+				CompletableFuture<Object> result = pending.remove(id);
+				if (result == null)
+					continue;
+				if (status == PipelinedServer.OK)
+					result.complete(codec.decode(fields));
+				else
+					result.completeExceptionally(new RemoteException(fields.readUTF()));
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+		for (CompletableFuture<Object> result : pending.values())
+			result.completeExceptionally(failure);
+		pending.clear();
+	}
+
+	public void close() throws IOException {
+		server.close();
+	}
+
+	/** An exception thrown by a request on the server. */
+	public static class RemoteException extends IOException {
+		private static final long serialVersionUID = 3541781237260466453L;
+
+		RemoteException(String message) {
+			super(message);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: PipelinedClient <hostname> <portNumber> [requests]");
+			return;
+		}
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		try (PipelinedClient client = new PipelinedClient(args[0], Integer.parseInt(args[1]),
+				new PayloadCodec.Tagged())) {
+			System.out.println(client.submit(new DateRequest()).get());
+			System.out.println(client.submit(new MyCalculation(2)).get());
+
+			long start = System.nanoTime();
+			List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>(count);
+			for (int i = 0; i < count; i++)
+				results.add(client.submit(new MyCalculation(i), i % 64 == 63));
+			client.flush();
+			long sum = 0;
+			for (CompletableFuture<Object> result : results)
+				sum += (Integer) result.get();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d pipelined requests in %.2fs (%.0f/s), checksum %d%n", count, seconds,
+					count / seconds, sum);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package ch13;
+
+import java.net.*;
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Not in the manual. A pipelined version of Server. Instead of one
+ * ObjectInputStream/ObjectOutputStream conversation per connection, requests
+ * and responses travel in frames:
+ *
+ * <pre>
+ *   int length    (of everything after this field)
+ *   long id       (chosen by the client, echoed in the response)
+ *   byte status   (OK or ERROR; always OK in requests)
+ *   payload       (encoded by a PayloadCodec; an error message for ERROR)
+ * </pre>
+ *
+ * A client can send many requests without waiting. Each connection's reader
+ * hands requests to a pool shared by all connections, and the results are
+ * written back as soon as they are ready, in whatever order they finish, so
+ * a slow WorkRequest no longer holds up the ones behind it. The pool's queue
+ * is bounded; when it is full the reader runs the request itself, which stops
+ * it reading until the server catches up.
+ */
+public class PipelinedServer {
+	static final byte OK = 0, ERROR = 1;
+	static final int MAX_FRAME = 16 * 1024 * 1024;
+
+	final PayloadCodec codec;
+	final ExecutorService pool;
+
+	public PipelinedServer(PayloadCodec codec, int threads, int queueSize) {
+		this.codec = codec;
+		this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	public void serve(int port) throws IOException {
+		try (ServerSocket ss = new ServerSocket(port)) {
+			while (true) {
+				Socket client = ss.accept();
+				client.setTcpNoDelay(true);
+				Thread reader = new Thread(new PipelinedConnection(client), "PipelinedServer " + client);
+				reader.setDaemon(true);
+				reader.start();
+			}
+		}
+	}
+
+	static Object processRequest(Object request) {
+		if (request instanceof DateRequest)
+			return new java.util.Date();
+		else if (request instanceof WorkRequest)
+			return ((WorkRequest) request).execute();
+		else
+			return null;
+	}
+
+	/** Reads the frame following the length field; returns its payload bytes. */
+	static byte[] readFrame(DataInputStream in, int length) throws IOException {
+		if (length < 9 || length > MAX_FRAME)
+			throw new StreamCorruptedException("Bad frame length " + length);
+		byte[] frame = new byte[length];
+		in.readFully(frame);
+		return frame;
+	}
+
+	/**
+	 * Writes one frame. The caller must hold the stream's lock, so that frames
+	 * from different threads are not interleaved.
+	 */
+	static void writeFrame(DataOutputStream out, long id, byte status, ByteArrayOutputStream payload)
+			throws IOException {
+		out.writeInt(9 + payload.size());
+		out.writeLong(id);
+		out.writeByte(status);
+		payload.writeTo(out);
+	}
+
+	static ByteArrayOutputStream errorPayload(Exception e) {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+		try {
+			new DataOutputStream(payload).writeUTF(String.valueOf(e));
+		} catch (IOException impossible) {
+		}
+		return payload;
+	}
+
+	class PipelinedConnection implements Runnable {
+		final Socket client;
+		final DataOutputStream out;
+
+		PipelinedConnection(Socket client) throws IOException {
+			this.client = client;
+			this.out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+		}
+
+		public void run() {
+			// Closing the socket's input stream closes the socket.
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()))) {
+				while (true) {
+					int length;
+					try {
+						length = in.readInt();
+					} catch (EOFException e) { // Normal EOF
+						break;
+					}
+					byte[] frame = readFrame(in, length);
+					DataInputStream fields = new DataInputStream(new ByteArrayInputStream(frame));
+					long id = fields.readLong();
+					fields.readByte();
+					Object request;
+					try {
+						request = codec.decode(fields);
+					} catch (IOException | RuntimeException e) {
+						// The frame was read whole, so the stream is still in step.
+						respond(id, ERROR, errorPayload(e));
+						continue;
+					}
+					pool.execute(() -> respond(id, request));
+				}
+			} catch (IOException e) {
+				System.out.println("I/O error " + e);
+			}
+		}
+
+		void respond(long id, Object request) {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+			try {
+				codec.encode(processRequest(request), new DataOutputStream(payload));
+			} catch (Exception e) {
+				respond(id, ERROR, errorPayload(e));
+				return;
+			}
+			respond(id, OK, payload);
+		}
+
+		void respond(long id, byte status, ByteArrayOutputStream payload) {
+			try {
+				synchronized (out) {
+					writeFrame(out, id, status, payload);
+					out.flush();
+				}
+			} catch (IOException e) {
+				System.out.println("I/O error " + e);
+			}
+		}
+	}
+
+	public static void main(String argv[]) throws IOException {
+		int threads = argv.length > 1 ? Integer.parseInt(argv[1]) : Runtime.getRuntime().availableProcessors();
+		new PipelinedServer(new PayloadCodec.Tagged(), threads, 1024).serve(Integer.parseInt(argv[0]));
+	}
+}
@@ -0,0 +1,153 @@
+package ch13;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+
+/**
+ * A size-bounded, least-recently-used cache of file contents for the
+ * TinyHttpd family of servers. Entries are revalidated against the file's
+ * modification time on every lookup, so a changed file is reloaded, while an
+ * unchanged one is served straight from memory. Each entry also carries the
+ * ETag and Last-Modified values needed to answer conditional GETs.
+ */
+public class StaticContentCache {
+	static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+	/** One cached file. The data array is shared; callers must not modify it. */
+	public static class Entry {
+		final byte[] data;
+		final long lastModified;
+		final String etag;
+		final String lastModifiedHeader;
+
+		Entry(byte[] data, long lastModified) {
+			this.data = data;
+			this.lastModified = lastModified;
+			this.etag = "\"" + Long.toHexString(lastModified) + "-" + Integer.toHexString(data.length) + "\"";
+			this.lastModifiedHeader = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+		}
+
+		public int length() {
+			return data.length;
+		}
+
+		public String etag() {
+			return etag;
+		}
+
+		public String lastModifiedHeader() {
+			return lastModifiedHeader;
+		}
+
+		/**
+		 * True if the client's copy, as described by the If-None-Match and
+		 * If-Modified-Since request headers (either may be null), is current.
+		 */
+		public boolean notModified(String ifNoneMatch, String ifModifiedSince) {
+			if (ifNoneMatch != null)
+				return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+			if (ifModifiedSince != null) {
+				try {
+					long since = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE).toInstant().toEpochMilli();
+					// HTTP dates have one-second resolution.
+					return lastModified / 1000 <= since / 1000;
+				} catch (DateTimeParseException e) {
+					return false;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final long maxBytes;
+	private final long maxEntryBytes;
+	private long currentBytes;
+	private long hits, misses;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param maxBytes      total content bytes held before the least recently
+	 *                      used entries are evicted
+	 * @param maxEntryBytes files larger than this are never cached
+	 */
+	public StaticContentCache(long maxBytes, long maxEntryBytes) {
+		this.maxBytes = maxBytes;
+		this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+	}
+
+	public StaticContentCache(long maxBytes) {
+		this(maxBytes, maxBytes / 8);
+	}
+
+	/**
+	 * Returns the current contents of the named file, loading or reloading it
+	 * if necessary. Returns null if the file is too large to cache, in which
+	 * case the caller should stream it from disk.
+	 *
+	 * @throws FileNotFoundException if the file does not exist or is not a
+	 *                               regular file
+	 */
+	public Entry get(String path) throws IOException {
+		File file = new File(path);
+		long lastModified = file.lastModified();
+		if (lastModified == 0L || !file.isFile())
+			throw new FileNotFoundException(path);
+
+		Entry stale;
+		synchronized (this) {
+			stale = entries.get(path);
+			if (stale != null && stale.lastModified == lastModified) {
+				hits++;
+				return stale;
+			}
+			misses++;
+		}
+
+		long length = file.length();
+		if (length > maxEntryBytes)
+			return null;
+		// Read outside the lock so one slow load doesn't hold up every hit.
+		Entry entry = new Entry(Files.readAllBytes(file.toPath()), lastModified);
+		put(path, stale, entry);
+		return entry;
+	}
+
+	/*
+	 * Caches entry unless the slot has changed since stale was seen there: then
+	 * another thread has loaded or invalidated the file meanwhile, and its
+	 * result is at least as new as this one.
+	 */
+	private synchronized void put(String path, Entry stale, Entry entry) {
+		if (entries.get(path) != stale)
+			return;
+		Entry old = entries.put(path, entry);
+		if (old != null)
+			currentBytes -= old.length();
+		currentBytes += entry.length();
+		for (Iterator<Entry> it = entries.values().iterator(); currentBytes > maxBytes && it.hasNext();) {
+			Entry eldest = it.next();
+			if (eldest == entry)
+				continue;
+			currentBytes -= eldest.length();
+			it.remove();
+		}
+	}
+
+	public synchronized void invalidate(String path) {
+		Entry old = entries.remove(path);
+		if (old != null)
+			currentBytes -= old.length();
+	}
+
+	public synchronized long size() {
+		return currentBytes;
+	}
+
+	public synchronized String toString() {
+		return "StaticContentCache[" + entries.size() + " entries, " + currentBytes + "/" + maxBytes + " bytes, "
+				+ hits + " hits, " + misses + " misses]";
+	}
+}
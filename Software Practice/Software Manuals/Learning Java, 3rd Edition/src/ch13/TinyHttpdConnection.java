@@ -2,16 +2,28 @@ package ch13;
 
 import java.net.*;
 import java.io.*;
+import java.nio.channels.*;
 import java.util.regex.*;
 
 /**
- * From Learning Java, 3rd Edition, p. 444.
+ * From Learning Java, 3rd Edition, p. 444. When constructed with a
+ * StaticContentCache, files are served from memory with full HTTP/1.0
+ * headers, and conditional GETs (If-None-Match / If-Modified-Since) are
+ * answered with 304 Not Modified.
  */
 public class TinyHttpdConnection implements Runnable {
+	static final Pattern httpGetPattern = Pattern.compile("GET /?(\\S*).*");
+
 	Socket client;
+	StaticContentCache cache;
 
 	public TinyHttpdConnection(Socket client) throws SocketException {
+		this(client, null);
+	}
+
+	public TinyHttpdConnection(Socket client, StaticContentCache cache) throws SocketException {
 		this.client = client;
+		this.cache = cache;
 	}
 
 	public void run() {
@@ -22,22 +34,25 @@ public class TinyHttpdConnection implements Runnable {
 			String request = in.readLine();
 			System.out.println("Request: " + request);
 
-			Matcher get = Pattern.compile("GET /?(\\S*).*").matcher(request);
+			Matcher get = httpGetPattern.matcher(request == null ? "" : request);
 			if (get.matches()) {
 				request = get.group(1);
 				if (request.endsWith("/") || request.equals(""))
 					request = request + "index.html";
-				try {
-					FileInputStream fis = new FileInputStream(request);
-					byte[] data = new byte[64 * 1024];
-					for (int read; (read = fis.read(data)) > -1;) {
-						out.write(data, 0, read);
+				if (cache != null)
+					serveCached(request, in, out);
+				else
+					try {
+						FileInputStream fis = new FileInputStream(request);
+						byte[] data = new byte[64 * 1024];
+						for (int read; (read = fis.read(data)) > -1;) {
+							out.write(data, 0, read);
+						}
+						fis.close();
+						out.flush();
+					} catch (FileNotFoundException e) {
+						pout.println("404 Object Not Found");
 					}
-					fis.close();
-					out.flush();
-				} catch (FileNotFoundException e) {
-					pout.println("404 Object Not Found");
-				}
 			} else
 				pout.println("400 Bad Request");
 			client.close();
@@ -45,4 +60,48 @@ public class TinyHttpdConnection implements Runnable {
 			System.out.println("I/O error " + e);
 		}
 	}
+
+	void serveCached(String request, BufferedReader in, OutputStream out) throws IOException {
+		String ifNoneMatch = null, ifModifiedSince = null;
+		for (String line; (line = in.readLine()) != null && !line.isEmpty();) {
+			int colon = line.indexOf(':');
+			if (colon < 0)
+				continue;
+			String name = line.substring(0, colon).trim();
+			if (name.equalsIgnoreCase("If-None-Match"))
+				ifNoneMatch = line.substring(colon + 1);
+			else if (name.equalsIgnoreCase("If-Modified-Since"))
+				ifModifiedSince = line.substring(colon + 1);
+		}
+
+		StaticContentCache.Entry entry;
+		try {
+			entry = cache.get(request);
+		} catch (FileNotFoundException e) {
+			writeHeaders(out, "404 Object Not Found", "Content-Length: 0\r\n");
+			return;
+		}
+
+		if (entry == null) {
+			// Too big to cache; stream it from disk.
+			try (FileChannel file = new FileInputStream(request).getChannel()) {
+				writeHeaders(out, "200 OK", "Content-Length: " + file.size() + "\r\n");
+				WritableByteChannel channel = Channels.newChannel(out);
+				for (long position = 0, size = file.size(); position < size;)
+					position += file.transferTo(position, size - position, channel);
+			}
+		} else if (entry.notModified(ifNoneMatch, ifModifiedSince)) {
+			writeHeaders(out, "304 Not Modified",
+					"ETag: " + entry.etag() + "\r\nLast-Modified: " + entry.lastModifiedHeader() + "\r\n");
+		} else {
+			writeHeaders(out, "200 OK", "Content-Length: " + entry.length() + "\r\nETag: " + entry.etag()
+					+ "\r\nLast-Modified: " + entry.lastModifiedHeader() + "\r\n");
+			out.write(entry.data);
+		}
+		out.flush();
+	}
+
+	static void writeHeaders(OutputStream out, String status, String headers) throws IOException {
+		out.write(("HTTP/1.0 " + status + "\r\n" + headers + "\r\n").getBytes("8859_1"));
+	}
 }